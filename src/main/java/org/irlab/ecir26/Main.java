@@ -2,6 +2,9 @@ package org.irlab.ecir26;
 
 import org.irlab.ecir26.indexer.TRECIndexerLuceneRM;
 import org.irlab.ecir26.searcher.TRECSearcherLucene;
+import org.irlab.ecir26.searcher.util.scorers.JudgmentCacheTool;
+import org.irlab.ecir26.searcher.util.scorers.MockModelServer;
+import org.irlab.ecir26.searcher.util.scorers.ScorerBenchmark;
 
 public class Main {
 
@@ -40,6 +43,37 @@ public class Main {
         }
         break;
 
+      case "mock-server":
+        System.out.println("Starting mock model server...");
+        try {
+          MockModelServer.main(commandArgs);
+        } catch (Exception e) {
+          System.err.println("Error starting mock model server: " + e.getMessage());
+          e.printStackTrace();
+          System.exit(1);
+        }
+        break;
+
+      case "judgments":
+        try {
+          JudgmentCacheTool.main(commandArgs);
+        } catch (Exception e) {
+          System.err.println("Error maintaining judgment cache: " + e.getMessage());
+          e.printStackTrace();
+          System.exit(1);
+        }
+        break;
+
+      case "llm-bench":
+        try {
+          ScorerBenchmark.main(commandArgs);
+        } catch (Exception e) {
+          System.err.println("Error during LLM benchmark: " + e.getMessage());
+          e.printStackTrace();
+          System.exit(1);
+        }
+        break;
+
       default:
         System.err.println("Error: Unknown command '" + command + "'");
         printUsage();
@@ -51,9 +85,19 @@ public class Main {
     System.out.println("Usage:");
     System.out.println("  java -jar ecir26.jar index --dataset <path> --index <path>");
     System.out.println("  java -jar ecir26.jar search [search arguments...]");
+    System.out.println("  java -jar ecir26.jar mock-server [--monot5_port <port>] [--vllm_port <port>] "
+                       + "[--mock_latency_ms <ms>] [--mock_error_rate <rate>] [mock arguments...]");
+    System.out.println("  java -jar ecir26.jar llm-bench [--scorer monot5|vllm] [--concurrency <n,...>] "
+                       + "[--batch_sizes <n,...>] [--endpoints <urls>] [mock arguments...]");
+    System.out.println("  java -jar ecir26.jar judgments <import|export|compact|stats|migrate> --cache_dir <dir> "
+                       + "[--scorer monot5|vllm] [--tsv <file>] "
+                       + "[--index <path> --topics <file> --search_by <query type>]");
     System.out.println();
     System.out.println("Commands:");
     System.out.println("  index   - Index TREC documents using TRECIndexerLuceneRM");
     System.out.println("  search  - Search indexed documents using TRECSearcherLucene");
+    System.out.println("  mock-server - Serve deterministic stand-in MonoT5/VLLM judgments (no GPU needed)");
+    System.out.println("  judgments - Import, export, compact or migrate the binary LLM judgment caches");
+    System.out.println("  llm-bench - Measure judgment throughput across batch sizes and concurrency limits");
   }
 }
\ No newline at end of file
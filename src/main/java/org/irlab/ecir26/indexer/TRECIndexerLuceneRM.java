@@ -11,6 +11,7 @@ import org.apache.lucene.search.similarities.LMDirichletSimilarity;
 import org.apache.lucene.search.similarities.Similarity;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
+import org.irlab.ecir26.searcher.util.SimHash;
 import org.jsoup.Jsoup;
 
 import java.io.BufferedReader;
@@ -160,6 +161,8 @@ public class TRECIndexerLuceneRM {
           // Field "content": Index and tokenize for search (TextField)
           // Also store it to display results, if necessary.
           doc.add(new Field("content", jsonDoc.contents, customType));
+          // SimHash of the content, to reuse LLM judgments between near-duplicates
+          doc.add(new NumericDocValuesField(SimHash.FIELD, SimHash.of(jsonDoc.contents)));
 
           writer.addDocument(doc);
           docsInFile++;
@@ -265,7 +268,10 @@ public class TRECIndexerLuceneRM {
       }
     }
 
-    doc.add(new Field("content", fullText.toString().trim(), customType));
+    String content = fullText.toString().trim();
+    doc.add(new Field("content", content, customType));
+    // SimHash of the content, to reuse LLM judgments between near-duplicates
+    doc.add(new NumericDocValuesField(SimHash.FIELD, SimHash.of(content)));
 
     return doc;
   }
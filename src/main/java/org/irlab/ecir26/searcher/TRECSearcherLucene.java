@@ -7,7 +7,11 @@ import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.FieldInfos;
 import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.ReaderUtil;
 import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.search.IndexSearcher;
@@ -16,24 +20,52 @@ import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.search.similarities.LMDirichletSimilarity;
 import org.apache.lucene.store.FSDirectory;
+import org.irlab.ecir26.searcher.rf.CandidatePruning;
+import org.irlab.ecir26.searcher.rf.PruningAudit;
 import org.irlab.ecir26.searcher.rf.RM3;
 import org.irlab.ecir26.searcher.rf.RelevanceFeedback;
 import org.irlab.ecir26.searcher.smoothing.AdditiveSmoothing;
 import org.irlab.ecir26.searcher.smoothing.Smoothing;
+import org.irlab.ecir26.searcher.util.ExpansionStore;
+import org.irlab.ecir26.searcher.util.MemoryReport;
+import org.irlab.ecir26.searcher.util.OffHeapArena;
+import org.irlab.ecir26.searcher.util.OffHeapDocVectors;
+import org.irlab.ecir26.searcher.util.SimHash;
 import org.irlab.ecir26.searcher.util.StatsProvider;
 import org.irlab.ecir26.searcher.util.TRECUtils;
 import org.irlab.ecir26.searcher.util.TRECUtils.Topic;
 import org.irlab.ecir26.searcher.util.TermWeights;
+import org.irlab.ecir26.searcher.util.WeightedQueryBuilder;
+import org.irlab.ecir26.searcher.util.scorers.AbstractLLMCache;
+import org.irlab.ecir26.searcher.util.scorers.AdaptiveConcurrencyLimiter;
+import org.irlab.ecir26.searcher.util.scorers.CascadeCache;
 import org.irlab.ecir26.searcher.util.scorers.LLMCache;
+import org.irlab.ecir26.searcher.util.scorers.JudgingBudget;
+import org.irlab.ecir26.searcher.util.scorers.JudgmentLog;
+import org.irlab.ecir26.searcher.util.scorers.LLMDocument;
+import org.irlab.ecir26.searcher.util.scorers.LegacyJudgmentResolver;
+import org.irlab.ecir26.searcher.util.scorers.MetricsFile;
+import org.irlab.ecir26.searcher.util.scorers.ModelHttpClient;
 import org.irlab.ecir26.searcher.util.scorers.LLMResult;
 import org.irlab.ecir26.searcher.util.scorers.MonoT5Cache;
+import org.irlab.ecir26.searcher.util.scorers.MonoT5Scorer;
+import org.irlab.ecir26.searcher.util.scorers.NearDuplicateCache;
+import org.irlab.ecir26.searcher.util.scorers.ScorerMetrics;
 import org.irlab.ecir26.searcher.util.scorers.VLLMCache;
+import org.irlab.ecir26.searcher.util.scorers.VLLMScorer;
 
 import java.io.*;
+import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 public class TRECSearcherLucene {
 
@@ -41,10 +73,31 @@ public class TRECSearcherLucene {
   private static final String DOCID_FIELD = "docid";
   private static final Analyzer analyzer = new StandardAnalyzer(EnglishAnalyzer.ENGLISH_STOP_WORDS_SET);
   private static Map<Integer, Set<Integer>> oracle;
+  // Hash of the qrels file the oracle strategies select feedback documents with
+  private static String qrelsFingerprint;
 
-  // ThreadLocal StatsProvider pool - each thread gets its own instance
-  private static ThreadLocal<StatsProvider> statsProviderThreadLocal = new ThreadLocal<>();
-  private static IndexReader sharedReader; // Shared reader for creating per-thread StatsProviders
+  // Approximate RM3 settings (null for exact RM3) and the optional exact-vs-approximate audit
+  private static CandidatePruning candidatePruning;
+  private static PruningAudit pruningAudit;
+  // Topics estimating RM3 right now, which decides whether each estimation is split over the common pool
+  private static final AtomicInteger rm3Estimations = new AtomicInteger();
+
+  // Persistent unpruned expansions, null when disabled
+  private static ExpansionStore expansionStore;
+
+  // MonoT5 judgments escalated to VLLM inside an uncertainty band, for the CASCADE strategies; null otherwise
+  private static CascadeCache cascadeCache;
+
+  // Largest SimHash distance between feedback documents that share a judgment (-1 disables reuse), and the wrappers
+  private static int nearDuplicateDistance = -1;
+  private static final List<NearDuplicateCache> nearDuplicateCaches = new ArrayList<>();
+
+  // Scorer calls the LLM feedback judgments may spend, and the stop rule
+  private static JudgingBudget judgingBudget = JudgingBudget.unlimited();
+
+  // StatsProvider shared by every topic thread (its caches are concurrent, term vector readers are per thread)
+  private static StatsProvider sharedStatsProvider;
+  private static OffHeapDocVectors sharedDocVectors; // Off-heap doc vectors of the opened index, null when disabled
 
   private static Map<Integer, Set<Integer>> loadOracleRelevance(String pathToQrelsFile,
                                                                 IndexSearcher searcher) throws IOException, ParseException {
@@ -75,20 +128,6 @@ public class TRECSearcherLucene {
 
   }
 
-  /**
-   * Get thread-local StatsProvider. Creates a new one if this thread doesn't have
-   * one yet.
-   * This allows parallel processing without StatsProvider contention.
-   */
-  private static StatsProvider getThreadLocalStatsProvider() {
-    StatsProvider provider = statsProviderThreadLocal.get();
-    if (provider == null) {
-      provider = new StatsProvider(sharedReader);
-      statsProviderThreadLocal.set(provider);
-    }
-    return provider;
-  }
-
   public static void main(String[] args) throws Exception {
     String indexPath = null;
     String topicsPath = null;
@@ -109,6 +148,36 @@ public class TRECSearcherLucene {
     int e = 20;
     double lambda = 0.0;
 
+    // LLM judgments (batching, cascade, budgets, near-duplicates, concurrency, prefetch)
+    int llmBatchSize = AbstractLLMCache.DEFAULT_BATCH_SIZE;
+    double cascadeLow = CascadeCache.DEFAULT_LOW;
+    double cascadeHigh = CascadeCache.DEFAULT_HIGH;
+    double cascadeAuditRate = 0;
+    long llmCallBudget = 0;
+    int llmTopicBudget = 0;
+    int llmStopRelevant = 0;
+    double nearDuplicateAuditRate = 0;
+    int monoT5MaxConcurrency = AdaptiveConcurrencyLimiter.DEFAULT_MAX_LIMIT;
+    int vllmMaxConcurrency = AdaptiveConcurrencyLimiter.DEFAULT_MAX_LIMIT;
+    boolean adaptiveConcurrency = true;
+    boolean llmPrefetch = true;
+
+    // Caches and metrics
+    boolean expansionCache = true;
+    String metricsPath = null;
+    int metricsIntervalSeconds = MetricsFile.DEFAULT_INTERVAL_SECONDS;
+    boolean offHeapCaches = false;
+
+    // Approximate RM3 (candidate-term pruning)
+    boolean prfApprox = false;
+    boolean prfApproxAudit = false;
+    CandidatePruning approxDefaults = CandidatePruning.defaults();
+    boolean approxSkipNumeric = approxDefaults.skipNumeric;
+    int approxMinDf = approxDefaults.minDocFreq;
+    double approxMaxDfRatio = approxDefaults.maxDocFreqRatio;
+    int approxDocTopN = approxDefaults.perDocTopN;
+    int approxMaxCandidates = approxDefaults.maxCandidates;
+
     // Grid search parameters
     boolean gridSearch = false;
     String depthsStr = null;
@@ -172,6 +241,128 @@ public class TRECSearcherLucene {
         case "--lambdas":
           lambdasStr = args[++i];
           break;
+        case "--llm_batch_size":
+          llmBatchSize = Integer.parseInt(args[++i]);
+          break;
+        case "--cascade_band": {
+          String[] band = args[++i].split(",");
+          cascadeLow = Double.parseDouble(band[0]);
+          cascadeHigh = Double.parseDouble(band[1]);
+          break;
+        }
+        case "--cascade_audit_rate":
+          cascadeAuditRate = Double.parseDouble(args[++i]);
+          break;
+        case "--llm_call_budget":
+          llmCallBudget = Long.parseLong(args[++i]);
+          break;
+        case "--llm_topic_budget":
+          llmTopicBudget = Integer.parseInt(args[++i]);
+          break;
+        case "--llm_stop_relevant":
+          llmStopRelevant = Integer.parseInt(args[++i]);
+          break;
+        case "--near_dup_distance":
+          nearDuplicateDistance = Integer.parseInt(args[++i]);
+          break;
+        case "--near_dup_audit_rate":
+          nearDuplicateAuditRate = Double.parseDouble(args[++i]);
+          break;
+        case "--monot5_max_concurrency":
+          monoT5MaxConcurrency = Integer.parseInt(args[++i]);
+          break;
+        case "--vllm_max_concurrency":
+          vllmMaxConcurrency = Integer.parseInt(args[++i]);
+          break;
+        case "--llm_static_limits":
+          adaptiveConcurrency = false;
+          break;
+        case "--llm_fifo_dispatch":
+          MonoT5Scorer.getLimiter().setGrouping(false);
+          VLLMScorer.getLimiter().setGrouping(false);
+          break;
+        case "--llm_timeout_sec":
+          ModelHttpClient.setRequestTimeout(Duration.ofSeconds(Long.parseLong(args[++i])));
+          break;
+        case "--llm_deadline_sec":
+          ModelHttpClient.setCallDeadline(Duration.ofSeconds(Long.parseLong(args[++i])));
+          break;
+        case "--llm_retries":
+          ModelHttpClient.setMaxRetries(Integer.parseInt(args[++i]));
+          break;
+        case "--llm_hedge":
+          ModelHttpClient.setHedging(true);
+          break;
+        case "--monot5_model":
+          MonoT5Scorer.setModelName(args[++i]);
+          break;
+        case "--vllm_model":
+          VLLMScorer.setModelName(args[++i]);
+          break;
+        case "--monot5_endpoints":
+          MonoT5Scorer.getEndpoints().setEndpoints(args[++i]);
+          break;
+        case "--vllm_endpoints":
+          VLLMScorer.getEndpoints().setEndpoints(args[++i]);
+          break;
+        case "--monot5_max_doc_tokens":
+          MonoT5Scorer.getBudget().setMaxTokens(Integer.parseInt(args[++i]));
+          break;
+        case "--vllm_max_doc_tokens":
+          VLLMScorer.getBudget().setMaxTokens(Integer.parseInt(args[++i]));
+          break;
+        case "--llm_cache_fsync":
+          JudgmentLog.setFsyncPolicy(JudgmentLog.FsyncPolicy.valueOf(args[++i].toUpperCase()));
+          break;
+        case "--offheap_caches":
+          offHeapCaches = true;
+          break;
+        case "--no_expansion_cache":
+          expansionCache = false;
+          break;
+        case "--no_llm_prefetch":
+          llmPrefetch = false;
+          break;
+        case "--metrics_file":
+          metricsPath = args[++i];
+          break;
+        case "--metrics_interval_sec":
+          metricsIntervalSeconds = Integer.parseInt(args[++i]);
+          break;
+        case "--prf_approx":
+          prfApprox = true;
+          break;
+        case "--prf_approx_audit":
+          prfApproxAudit = true;
+          break;
+        case "--prf_approx_keep_numeric":
+          approxSkipNumeric = false;
+          break;
+        case "--prf_approx_min_df":
+          approxMinDf = Integer.parseInt(args[++i]);
+          break;
+        case "--prf_approx_max_df_ratio":
+          approxMaxDfRatio = Double.parseDouble(args[++i]);
+          break;
+        case "--prf_approx_doc_top_n":
+          approxDocTopN = Integer.parseInt(args[++i]);
+          break;
+        case "--prf_approx_max_candidates":
+          approxMaxCandidates = Integer.parseInt(args[++i]);
+          break;
+      }
+    }
+
+    if (prfApprox) {
+      candidatePruning = new CandidatePruning(approxSkipNumeric,
+                                              approxMinDf,
+                                              approxMaxDfRatio,
+                                              approxDocTopN,
+                                              approxMaxCandidates);
+      // Keep approximate runs apart from exact ones in the run names
+      rfModel = rfModel + "-" + candidatePruning;
+      if (prfApproxAudit) {
+        pruningAudit = new PruningAudit();
       }
     }
 
@@ -206,8 +397,12 @@ public class TRECSearcherLucene {
 
     // Open index
     System.out.println("Opening index: " + indexPath);
-    IndexReader reader = DirectoryReader.open(FSDirectory.open(Paths.get(indexPath)));
-    sharedReader = reader; // Store for thread-local StatsProvider creation
+    DirectoryReader reader = DirectoryReader.open(FSDirectory.open(Paths.get(indexPath)));
+    if (offHeapCaches) {
+      // Lives exactly as long as the reader, closed right before it
+      sharedDocVectors = new OffHeapDocVectors(new OffHeapArena(), SEARCH_FIELD);
+      System.out.println("Keeping document vectors and smoothed probabilities off-heap");
+    }
     IndexSearcher searcher = new IndexSearcher(reader);
     searcher.setSimilarity(new LMDirichletSimilarity(dirichletMu));
 
@@ -217,36 +412,78 @@ public class TRECSearcherLucene {
 
     // Load oracle qrels
     oracle = loadOracleRelevance(qrelsPath, searcher);
+    qrelsFingerprint = ExpansionStore.fingerprint(Files.readString(Paths.get(qrelsPath)));
+
+    // One stats provider for all topic threads, so collection statistics are computed once
+    sharedStatsProvider = new StatsProvider(searcher.getIndexReader(), sharedDocVectors);
+
+    if (rerankMethod.equals("prf") && expansionCache && cacheDir != null) {
+      String setup = String.format("%s_LMDirichlet-%.0f_rfModel-%s", searchBy, dirichletMu, rfModel);
+      expansionStore = new ExpansionStore(cacheDir, reader, setup);
+      System.out.println("Using persistent expansion cache for " + setup);
+    }
 
-    // Create main thread's stats provider (others will be created on-demand per
-    // thread)
-    StatsProvider statsProvider = new StatsProvider(searcher.getIndexReader());
-    statsProviderThreadLocal.set(statsProvider); // Set for main thread
+    MonoT5Scorer.getLimiter().configure(monoT5MaxConcurrency, adaptiveConcurrency);
+    VLLMScorer.getLimiter().configure(vllmMaxConcurrency, adaptiveConcurrency);
 
-    // Initialize caches once for all configurations based on strategy
+    // Initialize caches once for all configurations based on strategy; feedback lookups go through the
+    // near-duplicate wrappers, if enabled, and MonoT5 reranking judges every document itself
     LLMCache monoT5Cache = null;
-    LLMCache vllmCache = null;
+    AbstractLLMCache<?> vllmCache = null;
+    LLMCache monoT5Feedback = null;
+    LLMCache vllmFeedback = null;
+    List<ScorerMetrics> scorerMetrics = new ArrayList<>();
+    if (nearDuplicateDistance >= 0 && FieldInfos.getMergedFieldInfos(reader).fieldInfo(SimHash.FIELD) == null) {
+      throw new IllegalArgumentException("Index " + indexPath + " has no " + SimHash.FIELD
+                                         + " signatures; re-index it to use --near_dup_distance");
+    }
 
-    // Initialize cache for PRF strategies
-    if (rfStrategy.equals("MONOT5") || rfStrategy.equals("MONOT5-PROB") || rerankMethod.equals("monot5")) {
+    // Initialize cache for PRF strategies and monot5 reranking; cascades use both
+    boolean cascade = rfStrategy.equals("CASCADE") || rfStrategy.equals("CASCADE-PROB");
+    if (rfStrategy.equals("MONOT5") || rfStrategy.equals("MONOT5-PROB") || rerankMethod.equals("monot5") || cascade) {
       System.out.println("Initializing MonoT5 cache...");
-      monoT5Cache = new MonoT5Cache(cacheDir);
-    } else if (rfStrategy.equals("VLLM") || rfStrategy.equals("VLLM-PROB")) {
+      MonoT5Cache cache = MonoT5Cache.open(cacheDir, llmBatchSize);
+      cache.noteLegacy(MonoT5Cache.LEGACY_BASE_NAME);
+      monoT5Cache = cache;
+      scorerMetrics.add(ScorerMetrics.register("MonoT5",
+                                               cache,
+                                               MonoT5Scorer.getLimiter(),
+                                               MonoT5Scorer.getEndpoints()));
+      monoT5Feedback = nearDuplicates(cache, "MonoT5", reader, nearDuplicateAuditRate);
+    }
+    if (rfStrategy.equals("VLLM") || rfStrategy.equals("VLLM-PROB") || cascade) {
       System.out.println("Initializing VLLM cache...");
-      vllmCache = new VLLMCache(cacheDir, searchBy);
+      VLLMCache cache = VLLMCache.open(cacheDir, llmBatchSize);
+      cache.noteLegacy(VLLMCache.legacyBaseName(searchBy));
+      vllmCache = cache;
+      scorerMetrics.add(ScorerMetrics.register("VLLM", cache, VLLMScorer.getLimiter(), VLLMScorer.getEndpoints()));
+      vllmFeedback = nearDuplicates(cache, "VLLM", reader, nearDuplicateAuditRate);
     }
-
-    // Also initialize MonoT5 cache if using monot5 reranking
-    if (rerankMethod.equals("monot5") && monoT5Cache == null) {
-      System.out.println("Initializing MonoT5 cache for reranking from " + cacheDir);
-      monoT5Cache = new MonoT5Cache(cacheDir);
+    if (cascade) {
+      cascadeCache = new CascadeCache(monoT5Feedback,
+                                      "MonoT5",
+                                      vllmFeedback,
+                                      "VLLM",
+                                      vllmCache,
+                                      cascadeLow,
+                                      cascadeHigh,
+                                      cascadeAuditRate);
+      System.out.printf("Escalating MonoT5 judgments with probTrue in [%.2f, %.2f] to VLLM%n", cascadeLow, cascadeHigh);
+    }
+    judgingBudget = new JudgingBudget(llmCallBudget, llmTopicBudget, llmStopRelevant, llmBatchSize);
+    MetricsFile metricsFile = null;
+    if (metricsPath != null && !scorerMetrics.isEmpty()) {
+      metricsFile = new MetricsFile(Paths.get(metricsPath), Duration.ofSeconds(metricsIntervalSeconds), scorerMetrics);
+      System.out.printf("Writing scorer metrics to %s every %d s%n", metricsPath, metricsIntervalSeconds);
     }
 
     // Grid search loop - optimized to compute RM3 expansion once per (depth, e)
     // combination
-    int totalConfigs = depths.length * eValues.length * lambdas.length;
+    int totalConfigs = rerankMethod.equals("monot5") ? depths.length
+                                                     : depths.length * eValues.length * lambdas.length;
     int currentConfig = 0;
     int skipped = 0;
+    int failedConfigs = 0;
     if (gridSearch) {
       System.out.println("\n========================================");
       System.out.println("Starting Grid Search RM3 Expansion");
@@ -271,66 +508,92 @@ public class TRECSearcherLucene {
 
     if (rerankMethod.equals("none")) {
       // Baseline run
-      runConfigurationBatch(topics,
-                            searcher,
-                            trecRunFolder,
-                            searchBy,
-                            rerankMethod,
-                            rfStrategy,
-                            rfModel,
-                            prfSmoothingModel,
-                            prfSmoothingParameter,
-                            rerankDepth,
-                            e,
-                            new double[] { lambda },
-                            dirichletMu,
-                            monoT5Cache,
-                            vllmCache,
-                            0,
-                            1);
+      failedConfigs += runConfigurationBatch(topics,
+                                             searcher,
+                                             trecRunFolder,
+                                             searchBy,
+                                             rerankMethod,
+                                             rfStrategy,
+                                             rfModel,
+                                             prfSmoothingModel,
+                                             prfSmoothingParameter,
+                                             rerankDepth,
+                                             e,
+                                             new double[] { lambda },
+                                             dirichletMu,
+                                             monoT5Feedback,
+                                             vllmFeedback,
+                                             0,
+                                             1);
     }
 
     if (rerankMethod.equals("monot5")) {
-      // MonoT5 reranking
-      runConfigurationBatch(topics,
-                            searcher,
-                            trecRunFolder,
-                            searchBy,
-                            rerankMethod,
-                            rfStrategy,
-                            rfModel,
-                            prfSmoothingModel,
-                            prfSmoothingParameter,
-                            rerankDepth,
-                            e,
-                            new double[] { lambda },
-                            dirichletMu,
-                            monoT5Cache,
-                            vllmCache,
-                            0,
-                            1);
+      // MonoT5 reranking at every depth (--depths in grid search, --rerank_depth otherwise) from one judgment pass
+      failedConfigs += runRerankSweep(topics, searcher, trecRunFolder, searchBy, depths, dirichletMu, monoT5Cache);
     }
 
     if (rerankMethod.equals("prf")) {
+      // Judge the feedback documents of every topic to the deepest missing depth in the background, so that topics
+      // whose judgments have landed run RM3 and retrieval while the scorer works on the others
+      JudgmentPrefetch prefetch = null;
+      LLMCache feedbackCache = feedbackCache(rfStrategy, monoT5Feedback, vllmFeedback);
+      if (llmPrefetch && feedbackCache != null) {
+        if (judgingBudget.getStopAfterRelevant() > 0) {
+          System.out.println("Judgment prefetch disabled: the stop rule judges feedback sets a step at a time");
+        } else if (judgingBudget.isLimited()) {
+          System.out.println("Judgment prefetch disabled: the call budget is spent by the configurations in order");
+        } else {
+          List<Integer> missingDepths = new ArrayList<>();
+          for (int depth : depths) {
+            boolean missing = false;
+            for (int eVal : eValues) {
+              for (double lambdaVal : lambdas) {
+                String runName = buildRunName(rerankMethod,
+                                              dirichletMu,
+                                              searchBy,
+                                              rfStrategy,
+                                              rfModel,
+                                              prfSmoothingModel,
+                                              prfSmoothingParameter,
+                                              depth,
+                                              lambdaVal,
+                                              eVal);
+                missing |= !new java.io.File(trecRunFolder + "/" + runName).exists();
+              }
+            }
+            if (missing) {
+              missingDepths.add(depth);
+            }
+          }
+          prefetch = JudgmentPrefetch.start(topics,
+                                            searcher,
+                                            searchBy,
+                                            rfStrategy,
+                                            smoothingKey(prfSmoothingModel, prfSmoothingParameter),
+                                            missingDepths,
+                                            feedbackCache);
+        }
+      }
+
       for (int depth : depths) {
         for (int eVal : eValues) {
-          runConfigurationBatch(topics,
-                                searcher,
-                                trecRunFolder,
-                                searchBy,
-                                rerankMethod,
-                                rfStrategy,
-                                rfModel,
-                                prfSmoothingModel,
-                                prfSmoothingParameter,
-                                depth,
-                                eVal,
-                                lambdas,
-                                dirichletMu,
-                                monoT5Cache,
-                                vllmCache,
-                                currentConfig,
-                                totalConfigs);
+          failedConfigs += runConfigurationBatch(topics,
+                                                 searcher,
+                                                 trecRunFolder,
+                                                 searchBy,
+                                                 rerankMethod,
+                                                 rfStrategy,
+                                                 rfModel,
+                                                 prfSmoothingModel,
+                                                 prfSmoothingParameter,
+                                                 depth,
+                                                 eVal,
+                                                 lambdas,
+                                                 dirichletMu,
+                                                 monoT5Feedback,
+                                                 vllmFeedback,
+                                                 currentConfig,
+                                                 totalConfigs);
 
           // Update counters
           currentConfig += lambdas.length;
@@ -355,18 +618,54 @@ public class TRECSearcherLucene {
           }
         }
       }
+      if (prefetch != null) {
+        prefetch.close();
+      }
+    }
+
+    // Final metrics, before the caches close
+    if (metricsFile != null) {
+      metricsFile.close();
     }
 
     // Close caches
+    if (judgingBudget.isLimited() || judgingBudget.getStopAfterRelevant() > 0) {
+      System.out.println(judgingBudget.summary());
+    }
+    if (cascadeCache != null) {
+      System.out.println(cascadeCache.summary());
+    }
+    for (NearDuplicateCache nearDuplicateCache : nearDuplicateCaches) {
+      System.out.println(nearDuplicateCache.summary());
+    }
     if (monoT5Cache != null) {
       monoT5Cache.close();
+      System.out.println(monoT5Cache.summary());
+      System.out.println(MonoT5Scorer.getLimiter().summary());
+      System.out.println(MonoT5Scorer.getEndpoints().summary());
+      System.out.println(MonoT5Scorer.getBudget().summary());
     }
     if (vllmCache != null) {
       vllmCache.close();
+      System.out.println(vllmCache.summary());
+      System.out.println(VLLMScorer.getLimiter().summary());
+      System.out.println(VLLMScorer.getEndpoints().summary());
+      System.out.println(VLLMScorer.getBudget().summary());
     }
 
+    if (sharedDocVectors != null) {
+      System.out.printf("Off-heap caches: %d documents, %d terms, %d MB allocated%n",
+                        sharedDocVectors.getDocCount(),
+                        sharedDocVectors.getTermCount(),
+                        sharedDocVectors.getAllocatedBytes() >> 20);
+      sharedDocVectors.close();
+    }
     reader.close();
 
+    if (pruningAudit != null) {
+      System.out.println(pruningAudit.summary());
+    }
+
     // Summary
     long endTime = System.currentTimeMillis();
     long totalTime = (endTime - startTime) / 1000; // seconds
@@ -375,13 +674,88 @@ public class TRECSearcherLucene {
     System.out.println("Grid Search Completed!");
     System.out.println("========================================");
     System.out.println("Total configurations: " + totalConfigs);
-    System.out.println("Completed: " + (totalConfigs - skipped));
+    System.out.println("Completed: " + (totalConfigs - skipped - failedConfigs));
     System.out.println("Skipped: " + skipped);
+    if (failedConfigs > 0) {
+      System.out.println("Failed (not written, rerun to complete): " + failedConfigs);
+    }
     System.out.println("Total time: " + totalTime + "s");
     System.out.println("Average time per config: " + (totalTime / Math.max(1, totalConfigs - skipped)) + "s");
+    System.out.println(MemoryReport.summary());
     System.out.println("========================================");
   }
 
+  /**
+   * The feedback lookups of {@code cache}, sharing judgments between near-duplicates if {@code --near_dup_distance}
+   * is set.
+   */
+  private static LLMCache nearDuplicates(AbstractLLMCache<?> cache, String name, IndexReader reader,
+                                         double auditRate) {
+    if (nearDuplicateDistance < 0) {
+      return cache;
+    }
+    NearDuplicateCache nearDuplicateCache = new NearDuplicateCache(cache,
+                                                                   name,
+                                                                   docId -> simHash(reader, docId),
+                                                                   nearDuplicateDistance,
+                                                                   auditRate);
+    nearDuplicateCaches.add(nearDuplicateCache);
+    System.out.printf("Reusing %s judgments between documents within %d SimHash bits%n", name, nearDuplicateDistance);
+    return nearDuplicateCache;
+  }
+
+  private static long simHash(IndexReader reader, int docId) throws IOException {
+    List<LeafReaderContext> leaves = reader.leaves();
+    LeafReaderContext leaf = leaves.get(ReaderUtil.subIndex(docId, leaves));
+    NumericDocValues values = leaf.reader().getNumericDocValues(SimHash.FIELD);
+    if (values == null || !values.advanceExact(docId - leaf.docBase)) {
+      throw new IOException("Document " + docId + " has no " + SimHash.FIELD + " signature");
+    }
+    return values.longValue();
+  }
+
+  /**
+   * Strategy as it appears in run names and, see {@link #expansionKey}, expansion cache keys: cascades add their
+   * uncertainty band, and LLM strategies the near-duplicate threshold and the stop rule. Judging budgets are left out,
+   * since they never change what is written.
+   */
+  private static String strategyLabel(String rfStrategy) {
+    String label = rfStrategy;
+    if (cascadeCache != null && rfStrategy.startsWith("CASCADE")) {
+      label += "-" + cascadeCache.label();
+    }
+    boolean judgedByLLM = rfStrategy.startsWith("MONOT5") || rfStrategy.startsWith("VLLM")
+                          || rfStrategy.startsWith("CASCADE");
+    if (judgedByLLM && nearDuplicateDistance >= 0) {
+      label += "-" + NearDuplicateCache.label(nearDuplicateDistance);
+    }
+    if (judgedByLLM && judgingBudget.getStopAfterRelevant() > 0) {
+      label += "-stop" + judgingBudget.getStopAfterRelevant();
+    }
+    return label;
+  }
+
+  /**
+   * Strategy as it appears in expansion cache keys: its label plus a hash of what its feedback judgments depend on
+   * beyond the retrieval setup, the scorer fingerprints for LLM strategies and the qrels for oracle ones, so that an
+   * expansion judged by another model, prompt or document budget, or selected with other qrels, is never reused.
+   */
+  private static String expansionKey(String rfStrategy) {
+    String judgments;
+    if (rfStrategy.startsWith("ORACLE")) {
+      judgments = qrelsFingerprint;
+    } else if (rfStrategy.startsWith("MONOT5")) {
+      judgments = MonoT5Scorer.fingerprint();
+    } else if (rfStrategy.startsWith("VLLM")) {
+      judgments = VLLMScorer.fingerprint();
+    } else if (rfStrategy.startsWith("CASCADE")) {
+      judgments = MonoT5Scorer.fingerprint() + "\n" + VLLMScorer.fingerprint();
+    } else {
+      return strategyLabel(rfStrategy);
+    }
+    return strategyLabel(rfStrategy) + "-" + ExpansionStore.fingerprint(judgments);
+  }
+
   /**
    * Build the run name based on the rerank method and parameters.
    */
@@ -412,7 +786,7 @@ public class TRECSearcherLucene {
             dirichletMu,
             searchBy,
             true,
-            rfStrategy,
+            strategyLabel(rfStrategy),
             rfModel,
             prfSmoothingModel,
             prfSmoothingParameter,
@@ -428,7 +802,8 @@ public class TRECSearcherLucene {
 
   // Method to run a batch of configurations for all lambda values with same (depth, e)
   // This optimizes by computing the expanded query once and then varying only lambda
-  private static void runConfigurationBatch(List<Topic> topics, IndexSearcher searcher, String trecRunFolder,
+  // Returns how many run files were not written because a topic failed
+  private static int runConfigurationBatch(List<Topic> topics, IndexSearcher searcher, String trecRunFolder,
                                             String searchBy, String rerankMethod, String rfStrategy, String rfModel,
                                             String prfSmoothingModel, double prfSmoothingParameter, int depth, int e,
                                             double[] lambdas, float dirichletMu, LLMCache monoT5Cache,
@@ -466,7 +841,7 @@ public class TRECSearcherLucene {
         int configNum = startConfig + i + 1;
         System.out.printf("[%d/%d] SKIPPING (exists): lambda=%.2f%n", configNum, totalConfigs, lambdas[i]);
       }
-      return;
+      return 0;
     }
     System.out.printf("Will process configurations from %d to %d: %n",
                       startConfig + 1,
@@ -502,205 +877,178 @@ public class TRECSearcherLucene {
     for (double lambda : neededLambdas) {
       resultsPerLambda.put(lambda, new CopyOnWriteArrayList<>());
     }
-
-    // Determine if we should use parallel processing
-    // When caches are empty for LLM strategies, use sequential to avoid overloading
-    boolean useParallel = true;
-    final String parallelMode; // Final for use in lambda
-
-    if (rerankMethod.equals("monot5") || (rfStrategy.equals("MONOT5") || rfStrategy.equals("MONOT5-PROB"))) {
-      if ((monoT5Cache != null && monoT5Cache.isEmpty()) || trecRunFolder.contains("test")) {
-        useParallel = false;
-        parallelMode = "sequential (MonoT5 cache empty or test run)";
-        System.out.println("⚠ MonoT5 cache is empty or test run - using SEQUENTIAL processing to avoid overload");
-      } else {
-        parallelMode = "parallel";
-      }
-    } else if (rfStrategy.equals("VLLM") || rfStrategy.equals("VLLM-PROB")) {
-      if ((vllmCache != null && vllmCache.isEmpty()) || trecRunFolder.contains("test")) {
-        useParallel = false;
-        parallelMode = "sequential (VLLM cache empty or test run)";
-        System.out.println("⚠ VLLM cache is empty or test run - using SEQUENTIAL processing to avoid overload");
-      } else {
-        parallelMode = "parallel";
-      }
-    } else {
-      parallelMode = "parallel";
+    List<String> failedTopics = new CopyOnWriteArrayList<>();
+
+    // Every topic runs on its own virtual thread. Topics waiting for LLM judgments only park their virtual
+    // thread, and the caches bound how many requests reach each model server, so no sequential fallback is needed
+    final String parallelMode = "virtual threads";
+
+    // When topic-level parallelism cannot keep every core busy, parallelise RM3 inside each topic instead. With more
+    // topics than cores, queryExpansion still does so while few topics are estimating RM3, e.g. while the others wait
+    // for LLM judgments from a cold cache
+    final boolean parallelFeedback = topics.size() < ForkJoinPool.getCommonPoolParallelism();
+    if (parallelFeedback && rerankMethod.equals("prf")) {
+      System.out.println("Using intra-topic parallel RM3 estimation");
     }
 
-    // Choose stream based on cache state
-    java.util.stream.Stream<Topic> topicStream = useParallel ? topics.parallelStream() : topics.stream();
-
-    // Process topics (parallel or sequential based on cache state)
-    topicStream.forEach(topic -> {
-      try {
-        // Get thread-local StatsProvider (creates one if needed for this thread)
-        StatsProvider threadStatsProvider = getThreadLocalStatsProvider();
-
-        String queryStr = searchBy.equals("title_plus_description") ? topic.title
-                                                                      + " "
-                                                                      + topic.description : topic.title;
-
-        QueryParser parser = new QueryParser(SEARCH_FIELD, analyzer);
-        Query query = parser.parse(QueryParser.escape(queryStr));
-
-        // Get initial results
-        TopDocs results = searcher.search(query, 1000);
-
-        // Process based on rerank method
-        if (rerankMethod.equals("none")) {
-          // Baseline - just use initial results for all lambdas
-          for (double lambda : neededLambdas) {
-            String runName = buildRunName(rerankMethod,
-                                          dirichletMu,
-                                          searchBy,
-                                          rfStrategy,
-                                          rfModel,
-                                          prfSmoothingModel,
-                                          prfSmoothingParameter,
-                                          depth,
-                                          lambda,
-                                          e);
-
-            StringBuilder resultStr = new StringBuilder();
-            for (int i = 0; i < Math.min(1000, results.scoreDocs.length); i++) {
-              ScoreDoc scoreDoc = results.scoreDocs[i];
-              Document doc = searcher.storedFields().document(scoreDoc.doc);
-              String docno = doc.get(DOCID_FIELD);
-              String tag = (i == 0) ? runName : "--";
-              resultStr.append(String.format("%s Q0 %s %d %.6f %s\n", topic.num, docno, i + 1, scoreDoc.score, tag));
-            }
-            resultsPerLambda.get(lambda).add(resultStr.toString());
-          }
-
-        } else if (rerankMethod.equals("monot5")) {
-          // MonoT5 reranking
-          for (double lambda : neededLambdas) {
-            String runName = buildRunName(rerankMethod,
-                                          dirichletMu,
-                                          searchBy,
-                                          rfStrategy,
-                                          rfModel,
-                                          prfSmoothingModel,
-                                          prfSmoothingParameter,
-                                          depth,
-                                          lambda,
-                                          e);
-
-            // Rerank with MonoT5
-            TopDocs rerankedResults = rerankWithMonoT5(queryStr,
-                                                       searchBy.equals("title_plus_narrative") ? topic.narrative : null,
-                                                       Integer.parseInt(topic.num),
-                                                       results,
-                                                       searcher,
-                                                       depth,
-                                                       monoT5Cache);
-
-            StringBuilder resultStr = new StringBuilder();
-            for (int i = 0; i < Math.min(1000, rerankedResults.scoreDocs.length); i++) {
-              ScoreDoc scoreDoc = rerankedResults.scoreDocs[i];
-              Document doc = searcher.storedFields().document(scoreDoc.doc);
-              String docno = doc.get(DOCID_FIELD);
-              String tag = (i == 0) ? runName : "--";
-              resultStr.append(String.format("%s Q0 %s %d %.6f %s\n", topic.num, docno, i + 1, scoreDoc.score, tag));
-            }
-            resultsPerLambda.get(lambda).add(resultStr.toString());
-          }
+    try (ExecutorService topicExecutor = Executors.newVirtualThreadPerTaskExecutor()) {
+      for (Topic topic : topics) {
+        topicExecutor.execute(() -> {
+          try {
+            String queryStr = queryText(topic, searchBy);
+
+            QueryParser parser = new QueryParser(SEARCH_FIELD, analyzer);
+            Query query = parser.parse(QueryParser.escape(queryStr));
+
+            // Get initial results
+            TopDocs results = searcher.search(query, 1000);
+
+            // Process based on rerank method
+            if (rerankMethod.equals("none")) {
+              // Baseline - just use initial results for all lambdas
+              for (double lambda : neededLambdas) {
+                String runName = buildRunName(rerankMethod,
+                                              dirichletMu,
+                                              searchBy,
+                                              rfStrategy,
+                                              rfModel,
+                                              prfSmoothingModel,
+                                              prfSmoothingParameter,
+                                              depth,
+                                              lambda,
+                                              e);
+
+                StringBuilder resultStr = new StringBuilder();
+                for (int i = 0; i < Math.min(1000, results.scoreDocs.length); i++) {
+                  ScoreDoc scoreDoc = results.scoreDocs[i];
+                  Document doc = searcher.storedFields().document(scoreDoc.doc);
+                  String docno = doc.get(DOCID_FIELD);
+                  String tag = (i == 0) ? runName : "--";
+                  resultStr.append(String.format("%s Q0 %s %d %.6f %s\n", topic.num, docno, i + 1, scoreDoc.score, tag));
+                }
+                resultsPerLambda.get(lambda).add(resultStr.toString());
+              }
 
-        } else if (rerankMethod.equals("prf")) {
-          // PRF with query expansion
-          // Compute expanded query weights ONCE for this topic and (depth, e) combination
-          // Using thread-local StatsProvider to avoid contention
-          TermWeights expandedQueryWeights = queryExpansion(queryStr,
-                                                            searchBy.equals("title_plus_narrative") ? topic.narrative : null,
-                                                            Integer.parseInt(topic.num),
-                                                            results,
-                                                            rfStrategy,
-                                                            searcher,
-                                                            threadStatsProvider,
-                                                            prfSmoothingModel,
-                                                            prfSmoothingParameter,
-                                                            depth,
-                                                            e,
-                                                            monoT5Cache,
-                                                            vllmCache);
-
-          // Get original query weights
-          List<String> processedTerms = new ArrayList<>();
-          try (TokenStream tokenStream = analyzer.tokenStream(SEARCH_FIELD, queryStr)) {
-            tokenStream.reset();
-            while (tokenStream.incrementToken()) {
-              processedTerms.add(tokenStream.getAttribute(CharTermAttribute.class).toString());
+            } else if (rerankMethod.equals("prf")) {
+              // PRF with query expansion
+              // Compute expanded query weights ONCE for this topic and (depth, e) combination
+              TermWeights expandedQueryWeights = queryExpansion(queryStr,
+                                                                narrative(topic, searchBy),
+                                                                Integer.parseInt(topic.num),
+                                                                results,
+                                                                rfStrategy,
+                                                                searcher,
+                                                                sharedStatsProvider,
+                                                                prfSmoothingModel,
+                                                                prfSmoothingParameter,
+                                                                depth,
+                                                                e,
+                                                                monoT5Cache,
+                                                                vllmCache,
+                                                                parallelFeedback);
+
+              // Get original query weights
+              List<String> processedTerms = new ArrayList<>();
+              try (TokenStream tokenStream = analyzer.tokenStream(SEARCH_FIELD, queryStr)) {
+                tokenStream.reset();
+                while (tokenStream.incrementToken()) {
+                  processedTerms.add(tokenStream.getAttribute(CharTermAttribute.class).toString());
+                }
+                tokenStream.end();
+              }
+              TermWeights originalQueryWeights = TermWeights.fromTerms(processedTerms).scaleToL1Norm();
+
+              // Term dictionary lookups are shared by every interpolated query of this topic
+              WeightedQueryBuilder queryBuilder = new WeightedQueryBuilder(searcher, SEARCH_FIELD);
+
+              // For each lambda value that needs processing, interpolate and search
+              for (double lambda : neededLambdas) {
+                // Interpolate original query with expanded query
+                String runName = buildRunName(rerankMethod,
+                                              dirichletMu,
+                                              searchBy,
+                                              rfStrategy,
+                                              rfModel,
+                                              prfSmoothingModel,
+                                              prfSmoothingParameter,
+                                              depth,
+                                              lambda,
+                                              e);
+
+                // Interpolate: lambda controls weight of ORIGINAL query
+                // lambda=1.0 → 100% original (no PRF)
+                // lambda=0.0 → 100% expanded (full PRF)
+                TermWeights finalQuery = TermWeights.interpolate(originalQueryWeights, expandedQueryWeights, lambda);
+
+                // Terms are already analyzed, so build the weighted disjunction directly
+                Query expandedQuery = queryBuilder.build(finalQuery);
+                TopDocs expandedResults = searcher.search(expandedQuery, 1000);
+
+                // Collect results as strings (to write later in order)
+                if (expandedResults != null) {
+                  StringBuilder resultStr = new StringBuilder();
+                  for (int i = 0; i < Math.min(1000, expandedResults.scoreDocs.length); i++) {
+                    ScoreDoc scoreDoc = expandedResults.scoreDocs[i];
+                    Document doc = searcher.storedFields().document(scoreDoc.doc);
+                    String docno = doc.get(DOCID_FIELD);
+                    // Optimization: full runName for rank 1, "--" for the rest to save space
+                    String tag = (i == 0) ? runName : "--";
+                    resultStr.append(String.format("%s Q0 %s %d %.6f %s\n", topic.num, docno, i + 1, scoreDoc.score, tag));
+                  }
+                  resultsPerLambda.get(lambda).add(resultStr.toString());
+                }
+              }
             }
-            tokenStream.end();
-          }
-          TermWeights originalQueryWeights = TermWeights.fromTerms(processedTerms).scaleToL1Norm();
 
-          // For each lambda value that needs processing, interpolate and search
-          for (double lambda : neededLambdas) {
-            // Interpolate original query with expanded query
-            String runName = buildRunName(rerankMethod,
-                                          dirichletMu,
-                                          searchBy,
-                                          rfStrategy,
-                                          rfModel,
-                                          prfSmoothingModel,
-                                          prfSmoothingParameter,
-                                          depth,
-                                          lambda,
-                                          e);
-
-            // Interpolate: lambda controls weight of ORIGINAL query
-            // lambda=1.0 → 100% original (no PRF)
-            // lambda=0.0 → 100% expanded (full PRF)
-            TermWeights finalQuery = TermWeights.interpolate(originalQueryWeights, expandedQueryWeights, lambda);
-
-            // Build query string with weights
-            // Escape individual terms, then add boost weights
-            StringBuilder queryBuilder = new StringBuilder();
-            finalQuery.forEach((term, weight) -> {
-              String escapedTerm = QueryParser.escape(term);
-              queryBuilder.append(escapedTerm).append("^").append(String.format("%.10f ", weight));
-            });
-
-            // Execute search with interpolated query
-            Query expandedQuery = parser.parse(queryBuilder.toString());
-            TopDocs expandedResults = searcher.search(expandedQuery, 1000);
-
-            // Collect results as strings (to write later in order)
-            if (expandedResults != null) {
-              StringBuilder resultStr = new StringBuilder();
-              for (int i = 0; i < Math.min(1000, expandedResults.scoreDocs.length); i++) {
-                ScoreDoc scoreDoc = expandedResults.scoreDocs[i];
-                Document doc = searcher.storedFields().document(scoreDoc.doc);
-                String docno = doc.get(DOCID_FIELD);
-                // Optimization: full runName for rank 1, "--" for the rest to save space
-                String tag = (i == 0) ? runName : "--";
-                resultStr.append(String.format("%s Q0 %s %d %.6f %s\n", topic.num, docno, i + 1, scoreDoc.score, tag));
+            // Progress reporting (synchronized to avoid interleaved output)
+            synchronized (System.out) {
+              int processed = (int) resultsPerLambda.values().stream().mapToInt(List::size).average().orElse(0);
+              if (processed % 10 == 0 || processed == topics.size()) {
+                System.out.printf("  Processed %d/%d topics for depth=%d, e=%d (%s)%n",
+                                  processed,
+                                  topics.size(),
+                                  depth,
+                                  e,
+                                  parallelMode);
               }
-              resultsPerLambda.get(lambda).add(resultStr.toString());
             }
-          }
-        }
 
-        // Progress reporting (synchronized to avoid interleaved output)
-        synchronized (System.out) {
-          int processed = (int) resultsPerLambda.values().stream().mapToInt(List::size).average().orElse(0);
-          if (processed % 10 == 0 || processed == topics.size()) {
-            System.out.printf("  Processed %d/%d topics for depth=%d, e=%d (%s)%n",
-                              processed,
-                              topics.size(),
-                              depth,
-                              e,
-                              parallelMode);
+          } catch (JudgingBudget.ExhaustedException e_ex) {
+            failedTopics.add(topic.num);
+            System.err.println("Topic " + topic.num + " not completed: " + e_ex.getMessage());
+          } catch (Exception e_ex) {
+            failedTopics.add(topic.num);
+            System.err.println("Error processing topic " + topic.num + ": " + e_ex.getMessage());
+            e_ex.printStackTrace();
           }
-        }
+        });
+      }
+    }
 
-      } catch (Exception e_ex) {
-        System.err.println("Error processing topic " + topic.num + ": " + e_ex.getMessage());
-        e_ex.printStackTrace();
+    // A run missing topics would look complete to the next invocation, which skips existing files; write none, so
+    // that rerunning (once the model services are back) completes them
+    if (!failedTopics.isEmpty()) {
+      for (double lambda : neededLambdas) {
+        String runName = buildRunName(rerankMethod,
+                                      dirichletMu,
+                                      searchBy,
+                                      rfStrategy,
+                                      rfModel,
+                                      prfSmoothingModel,
+                                      prfSmoothingParameter,
+                                      depth,
+                                      lambda,
+                                      e);
+        Files.deleteIfExists(Paths.get(trecRunFolder, runName));
       }
-    });
+      System.err.printf("✗ depth=%d, e=%d: %d topics failed (%s); %d run files not written, rerun to complete them%n",
+                        depth,
+                        e,
+                        failedTopics.size(),
+                        String.join(", ", failedTopics),
+                        neededLambdas.size());
+      return neededLambdas.size();
+    }
 
     // Write all results to files in topic order (sequential, after parallel
     // processing)
@@ -725,27 +1073,116 @@ public class TRECSearcherLucene {
       }
     }
     System.out.printf("✓ Completed depth=%d, e=%d with %d lambda values%n", depth, e, neededLambdas.size());
-
+    return 0;
   }
 
-  // Rerank top results using MonoT5
-  private static TopDocs rerankWithMonoT5(String queryText, String narrative, int queryId, TopDocs initialResults,
-                                          IndexSearcher searcher, int depth, LLMCache cache) throws IOException {
+  /**
+   * MonoT5 reranking at several depths from a single judgment pass: each topic's top max(depths) documents are judged
+   * once (one cache lookup and one stored-fields load each), and the run of every depth is derived from those scores.
+   * Depths whose run files exist are skipped. Returns how many run files were not written because a topic failed.
+   */
+  private static int runRerankSweep(List<Topic> topics, IndexSearcher searcher, String trecRunFolder, String searchBy,
+                                    int[] depths, float dirichletMu, LLMCache cache) throws Exception {
+    List<Integer> neededDepths = new ArrayList<>();
+    for (int depth : depths) {
+      String runName = buildRunName("monot5", dirichletMu, searchBy, null, null, null, 0, depth, 0, 0);
+      if (!new java.io.File(trecRunFolder + "/" + runName).exists() && !neededDepths.contains(depth)) {
+        neededDepths.add(depth);
+      } else {
+        System.out.printf("SKIPPING (exists): MonoT5 rerank depth=%d%n", depth);
+      }
+    }
+    if (neededDepths.isEmpty()) {
+      return 0;
+    }
+    int maxDepth = Collections.max(neededDepths);
+    System.out.printf("MonoT5 reranking at depths %s, judging %d documents per topic once%n", neededDepths, maxDepth);
+
+    Map<Integer, List<String>> resultsPerDepth = new ConcurrentHashMap<>();
+    for (int depth : neededDepths) {
+      resultsPerDepth.put(depth, new CopyOnWriteArrayList<>());
+    }
+    List<String> failedTopics = new CopyOnWriteArrayList<>();
+
+    try (ExecutorService topicExecutor = Executors.newVirtualThreadPerTaskExecutor()) {
+      for (Topic topic : topics) {
+        topicExecutor.execute(() -> {
+          try {
+            String queryStr = queryText(topic, searchBy);
+            QueryParser parser = new QueryParser(SEARCH_FIELD, analyzer);
+            TopDocs results = searcher.search(parser.parse(QueryParser.escape(queryStr)), 1000);
+            int n = Math.min(1000, results.scoreDocs.length);
+
+            // Docnos of the judged documents come with their text; the rest only need the docno
+            Map<Integer, String> docnos = new ConcurrentHashMap<>();
+            int[] docIds = topDocIds(results, Math.min(maxDepth, n));
+            LLMResult[] judgments = cache.getAll(queryStr, narrative(topic, searchBy), docIds, docId -> {
+              LLMDocument document = loadDocument(searcher, docId);
+              docnos.put(docId, document.docno());
+              return document;
+            });
+            for (int i = docIds.length; i < n; i++) {
+              int docId = results.scoreDocs[i].doc;
+              docnos.put(docId, searcher.storedFields().document(docId, Set.of(DOCID_FIELD)).get(DOCID_FIELD));
+            }
+
+            for (int depth : neededDepths) {
+              String runName = buildRunName("monot5", dirichletMu, searchBy, null, null, null, 0, depth, 0, 0);
+              List<ScoredDoc> reranked = rerankByJudgments(results, judgments, depth);
+              StringBuilder resultStr = new StringBuilder();
+              for (int i = 0; i < Math.min(1000, reranked.size()); i++) {
+                ScoredDoc scoredDoc = reranked.get(i);
+                String tag = (i == 0) ? runName : "--";
+                resultStr.append(String.format("%s Q0 %s %d %.6f %s\n",
+                                               topic.num,
+                                               docnos.get(scoredDoc.docId),
+                                               i + 1,
+                                               (float) scoredDoc.score,
+                                               tag));
+              }
+              resultsPerDepth.get(depth).add(resultStr.toString());
+            }
+          } catch (Exception e_ex) {
+            failedTopics.add(topic.num);
+            System.err.println("Error processing topic " + topic.num + ": " + e_ex.getMessage());
+            e_ex.printStackTrace();
+          }
+        });
+      }
+    }
 
+    // As in runConfigurationBatch: runs missing topics are not written, so that rerunning completes them
+    if (!failedTopics.isEmpty()) {
+      System.err.printf("✗ MonoT5 rerank: %d topics failed (%s); %d run files not written, rerun to complete them%n",
+                        failedTopics.size(),
+                        String.join(", ", failedTopics),
+                        neededDepths.size());
+      return neededDepths.size();
+    }
+
+    System.out.println("Writing results to files...");
+    for (int depth : neededDepths) {
+      String runName = buildRunName("monot5", dirichletMu, searchBy, null, null, null, 0, depth, 0, 0);
+      try (BufferedWriter runWriter = new BufferedWriter(new FileWriter(trecRunFolder + "/" + runName, false))) {
+        for (String result : resultsPerDepth.get(depth)) {
+          runWriter.write(result);
+        }
+      }
+    }
+    System.out.printf("✓ Completed MonoT5 rerank at %d depths%n", neededDepths.size());
+    return 0;
+  }
+
+  /**
+   * Rerank the top {@code depth} results by their MonoT5 score (prob_true), keeping the rest below them in retrieval
+   * order.
+   */
+  private static List<ScoredDoc> rerankByJudgments(TopDocs initialResults, LLMResult[] judgments, int depth) {
     List<ScoredDoc> scoredDocs = new ArrayList<>();
     int docsToRerank = Math.min(depth, initialResults.scoreDocs.length);
 
-    // Rerank top-depth documents with MonoT5 using score
     for (int i = 0; i < docsToRerank; i++) {
-      ScoreDoc sd = initialResults.scoreDocs[i];
-      Document doc = searcher.storedFields().document(sd.doc);
-      String docText = doc.get(SEARCH_FIELD);
-
-      // Get result from cache or evaluate
-      LLMResult result = cache.get(queryId, sd.doc, queryText, narrative, docText);
-
-      // Use the score (prob_true) for reranking
-      scoredDocs.add(new ScoredDoc(sd.doc, result.score));
+      scoredDocs.add(new ScoredDoc(initialResults.scoreDocs[i].doc, judgments[i].score));
     }
 
     // Add remaining documents (not reranked) with low scores
@@ -756,15 +1193,123 @@ public class TRECSearcherLucene {
 
     // Sort by MonoT5 scores (descending)
     scoredDocs.sort((a, b) -> Double.compare(b.score, a.score));
+    return scoredDocs;
+  }
 
-    // Convert back to TopDocs
-    ScoreDoc[] rerankedScoreDocs = new ScoreDoc[scoredDocs.size()];
-    for (int i = 0; i < scoredDocs.size(); i++) {
-      ScoredDoc sd = scoredDocs.get(i);
-      rerankedScoreDocs[i] = new ScoreDoc(sd.docId, (float) sd.score);
+  /**
+   * The cache the feedback judgments of {@code rfStrategy} are looked up in, or null if it uses none.
+   */
+  private static LLMCache feedbackCache(String rfStrategy, LLMCache monoT5Cache, LLMCache vllmCache) {
+    if (rfStrategy.startsWith("MONOT5")) {
+      return monoT5Cache;
+    }
+    if (rfStrategy.startsWith("VLLM")) {
+      return vllmCache;
     }
+    if (rfStrategy.startsWith("CASCADE")) {
+      return cascadeCache;
+    }
+    return null;
+  }
 
-    return new TopDocs(initialResults.totalHits, rerankedScoreDocs);
+  /**
+   * Feedback judgments looked up ahead of the configurations that need them, one virtual thread per topic. Each topic
+   * is judged at the depths whose runs are missing and whose expansion is not stored, shallowest first, so that its
+   * first configurations are ready soonest; the misses wait for a slot of the scorer's concurrency limit like any other.
+   * It is only used without a call budget, which would otherwise go to the deepest feedback sets of the first topics. A configuration that
+   * gets to a topic first finds its judgments cached, or waits for those in flight instead of sending them again, so
+   * it starts as soon as its own top k documents are judged. A failed prefetch is only reported: the configurations
+   * judge what it missed themselves.
+   */
+  private static final class JudgmentPrefetch implements AutoCloseable {
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final LongAdder documents = new LongAdder();
+    private final List<String> failedTopics = new CopyOnWriteArrayList<>();
+    private final long startNanos = System.nanoTime();
+    private int topicCount;
+
+    /**
+     * @param depths depths whose runs are missing; topics with stored expansions at a depth need no judgments for it
+     */
+    static JudgmentPrefetch start(List<Topic> topics, IndexSearcher searcher, String searchBy, String rfStrategy,
+                                  String smoothingKey, List<Integer> depths, LLMCache cache) throws IOException {
+      JudgmentPrefetch prefetch = new JudgmentPrefetch();
+      List<Integer> ascending = depths.stream().distinct().sorted().toList();
+      int deepest = 0;
+      for (Topic topic : topics) {
+        List<Integer> topicDepths = new ArrayList<>();
+        String topicId = String.valueOf(Integer.parseInt(topic.num));
+        for (int k : ascending) {
+          if (expansionStore == null || !expansionStore.contains(expansionKey(rfStrategy), k, smoothingKey, topicId)) {
+            topicDepths.add(k);
+          }
+        }
+        if (!topicDepths.isEmpty()) {
+          prefetch.topicCount++;
+          deepest = Math.max(deepest, topicDepths.getLast());
+          prefetch.executor.execute(() -> prefetch.judge(topic, searcher, searchBy, topicDepths, cache));
+        }
+      }
+      if (prefetch.topicCount > 0) {
+        System.out.printf("Prefetching feedback judgments of %d topics, down to depth %d%n",
+                          prefetch.topicCount,
+                          deepest);
+      }
+      return prefetch;
+    }
+
+    /**
+     * Look up the feedback sets of one topic at each of {@code depths}, in ascending order; each lookup finds those of
+     * the previous depths cached.
+     */
+    private void judge(Topic topic, IndexSearcher searcher, String searchBy, List<Integer> depths, LLMCache cache) {
+      int judged = 0;
+      try {
+        String queryStr = queryText(topic, searchBy);
+        Query query = new QueryParser(SEARCH_FIELD, analyzer).parse(QueryParser.escape(queryStr));
+        TopDocs results = searcher.search(query, depths.getLast());
+        for (int depth : depths) {
+          int[] docIds = topDocIds(results, Math.min(depth, results.scoreDocs.length));
+          LLMResult[] judgments = cache.getAll(queryStr,
+                                               narrative(topic, searchBy),
+                                               docIds,
+                                               docId -> loadDocument(searcher, docId),
+                                               judgingBudget.allowance(queryStr));
+          judged = 0;
+          for (LLMResult judgment : judgments) {
+            if (judgment != null) {
+              judged++;
+            }
+          }
+        }
+      } catch (Exception e) {
+        failedTopics.add(topic.num);
+        System.err.println("Prefetch of topic " + topic.num + " failed, left to its configurations: "
+                           + e.getMessage());
+      } finally {
+        documents.add(judged);
+      }
+    }
+
+    /**
+     * Wait for the prefetch to finish (every configuration has waited for its judgments by then) and report it.
+     */
+    @Override
+    public void close() {
+      executor.close();
+      if (topicCount > 0) {
+        System.out.printf("Prefetch: %d topics, %d feedback documents judged in %d s%s%n",
+                          topicCount,
+                          documents.sum(),
+                          (System.nanoTime() - startNanos) / 1_000_000_000L,
+                          failedTopics.isEmpty() ? "" : ", failed for topics " + String.join(", ", failedTopics));
+      }
+    }
+  }
+
+  private static String smoothingKey(String prfSmoothingModel, double prfSmoothingParameter) {
+    return String.format("%s-%.4f", prfSmoothingModel, prfSmoothingParameter);
   }
 
   private static class ScoredDoc {
@@ -798,8 +1343,7 @@ public class TRECSearcherLucene {
         // Oracle with limit - collect up to k oracle-relevant documents
         return filterWithOracle(queryid, results, k);
       case "MONOT5":
-        return filterWithLLM(queryid,
-                             queryText,
+        return filterWithLLM(queryText,
                              narrative,
                              results,
                              k,
@@ -807,8 +1351,7 @@ public class TRECSearcherLucene {
                              monoT5Cache,
                              (sd, result) -> (double) sd.score); // Use retrieval score
       case "MONOT5-PROB":
-        return filterWithLLM(queryid,
-                             queryText,
+        return filterWithLLM(queryText,
                              narrative,
                              results,
                              k,
@@ -816,8 +1359,7 @@ public class TRECSearcherLucene {
                              monoT5Cache,
                              (sd, result) -> result.probTrue); // Use LLM probability
       case "VLLM":
-        return filterWithLLM(queryid,
-                             queryText,
+        return filterWithLLM(queryText,
                              narrative,
                              results,
                              k,
@@ -825,14 +1367,29 @@ public class TRECSearcherLucene {
                              vllmCache,
                              (sd, result) -> (double) sd.score); // Use retrieval score
       case "VLLM-PROB":
-        return filterWithLLM(queryid,
-                             queryText,
+        return filterWithLLM(queryText,
                              narrative,
                              results,
                              k,
                              searcher,
                              vllmCache,
                              (sd, result) -> result.probTrue); // Use LLM probability
+      case "CASCADE":
+        return filterWithLLM(queryText,
+                             narrative,
+                             results,
+                             k,
+                             searcher,
+                             cascadeCache,
+                             (sd, result) -> (double) sd.score); // Use retrieval score
+      case "CASCADE-PROB":
+        return filterWithLLM(queryText,
+                             narrative,
+                             results,
+                             k,
+                             searcher,
+                             cascadeCache,
+                             (sd, result) -> result.probTrue); // Use the probability of the deciding model
       default:
         throw new IllegalArgumentException("Unknown RF strategy: " + rfStrategy);
     }
@@ -846,28 +1403,97 @@ public class TRECSearcherLucene {
     double getScore(ScoreDoc sd, LLMResult result);
   }
 
-  private static Map<Integer, Double> filterWithLLM(int queryid, String queryText, String narrative, TopDocs results,
-                                                    int k, IndexSearcher searcher, LLMCache llmCache,
+  private static Map<Integer, Double> filterWithLLM(String queryText, String narrative, TopDocs results, int k,
+                                                    IndexSearcher searcher, LLMCache llmCache,
                                                     ScoreFunction scoreFunction) throws IOException {
     Map<Integer, Double> filteredDocs = new HashMap<>();
 
-    for (int i = 0; i < Math.min(k, results.scoreDocs.length); i++) {
-      ScoreDoc sd = results.scoreDocs[i];
-      Document doc = searcher.storedFields().document(sd.doc);
-      String docText = doc.get(SEARCH_FIELD);
-
-      // Get result from LLM cache
-      LLMResult result = llmCache.get(queryid, sd.doc, queryText, narrative, docText);
+    // Get results from LLM cache, judging cache misses in batches, in rank order as far as the budget allows; with a
+    // stop rule, a step at a time
+    int[] docIds = topDocIds(results, Math.min(k, results.scoreDocs.length));
+    JudgingBudget.Allowance allowance = judgingBudget.allowance(queryText);
+    int stopAfter = judgingBudget.getStopAfterRelevant();
+    int step = judgingBudget.getStep(docIds.length);
+
+    for (int start = 0; start < docIds.length; start += step) {
+      int end = Math.min(docIds.length, start + step);
+      LLMResult[] judgments = llmCache.getAll(queryText,
+                                              narrative,
+                                              Arrays.copyOfRange(docIds, start, end),
+                                              docId -> loadDocument(searcher, docId),
+                                              allowance);
+
+      for (int i = start; i < end; i++) {
+        ScoreDoc sd = results.scoreDocs[i];
+        LLMResult result = judgments[i - start];
+        if (result == null) {
+          throw judgingBudget.exhausted(i + 1, docIds.length);
+        }
 
-      if (result.isRelevant) {
-        // Use the score determined by the scoreFunction
-        filteredDocs.put(sd.doc, scoreFunction.getScore(sd, result));
+        if (result.isRelevant) {
+          // Use the score determined by the scoreFunction
+          filteredDocs.put(sd.doc, scoreFunction.getScore(sd, result));
+          if (filteredDocs.size() == stopAfter) {
+            judgingBudget.onStopped(docIds.length - i - 1);
+            return filteredDocs;
+          }
+        }
       }
     }
 
     return filteredDocs;
   }
 
+  private static int[] topDocIds(TopDocs results, int n) {
+    int[] docIds = new int[n];
+    for (int i = 0; i < n; i++) {
+      docIds[i] = results.scoreDocs[i].doc;
+    }
+    return docIds;
+  }
+
+  private static LLMDocument loadDocument(IndexSearcher searcher, int docId) throws IOException {
+    Document doc = searcher.storedFields().document(docId, Set.of(DOCID_FIELD, SEARCH_FIELD));
+    return new LLMDocument(doc.get(DOCID_FIELD), doc.get(SEARCH_FIELD));
+  }
+
+  /**
+   * Query text of a topic for the {@code --search_by} formulation.
+   */
+  private static String queryText(Topic topic, String searchBy) {
+    return searchBy.equals("title_plus_description") ? topic.title + " " + topic.description : topic.title;
+  }
+
+  /**
+   * Assessor instructions sent to the LLM scorers along with the query, if the formulation uses them.
+   */
+  private static String narrative(Topic topic, String searchBy) {
+    return searchBy.equals("title_plus_narrative") ? topic.narrative : null;
+  }
+
+  /**
+   * Resolves the (topic number, Lucene doc id) keys of legacy judgment caches through {@code searcher} and the topics
+   * as formulated by {@code searchBy}. Only meaningful for the index and formulation the legacy cache was built with,
+   * which is why migration is an explicit step of the judgments tool rather than part of a search.
+   */
+  public static LegacyJudgmentResolver legacyJudgmentResolver(IndexSearcher searcher, List<Topic> topics,
+                                                              String searchBy) {
+    Map<Integer, Topic> topicsByNumber = new HashMap<>();
+    for (Topic topic : topics) {
+      topicsByNumber.put(Integer.parseInt(topic.num), topic);
+    }
+    int maxDoc = searcher.getIndexReader().maxDoc();
+    return (queryId, docId) -> {
+      Topic topic = topicsByNumber.get(queryId);
+      if (topic == null || docId < 0 || docId >= maxDoc) {
+        return null;
+      }
+      return new LegacyJudgmentResolver.Pair(queryText(topic, searchBy),
+                                             narrative(topic, searchBy),
+                                             loadDocument(searcher, docId));
+    };
+  }
+
   private static Map<Integer, Double> filterWithOracle(int queryid, TopDocs results, int maxDocs) {
     Map<Integer, Double> oracleDocs = new HashMap<>();
 
@@ -894,7 +1520,17 @@ public class TRECSearcherLucene {
   private static TermWeights queryExpansion(String originalQuery, String narrative, int queryId, TopDocs results,
                                             String rfStrategy, IndexSearcher searcher, StatsProvider statsProvider,
                                             String prfSmoothingModel, double prfSmoothingParameter, int k, int e,
-                                            LLMCache monoT5Cache, LLMCache vllmCache) throws IOException {
+                                            LLMCache monoT5Cache, LLMCache vllmCache,
+                                            boolean parallelFeedback) throws IOException {
+    String smoothingKey = smoothingKey(prfSmoothingModel, prfSmoothingParameter);
+
+    if (expansionStore != null) {
+      TermWeights stored = expansionStore.load(expansionKey(rfStrategy), k, smoothingKey, String.valueOf(queryId));
+      if (stored != null) {
+        return stored.pruneToSize(e).scaleToL1Norm();
+      }
+    }
+
     Map<Integer, Double> prfDocs = filterRelevantDocuments(queryId,
                                                            originalQuery,
                                                            narrative,
@@ -904,9 +1540,70 @@ public class TRECSearcherLucene {
                                                            searcher,
                                                            monoT5Cache,
                                                            vllmCache);
+    int estimating = rm3Estimations.incrementAndGet();
+    try {
+      return estimateExpansion(rfStrategy,
+                               statsProvider,
+                               prfSmoothingParameter,
+                               smoothingKey,
+                               queryId,
+                               k,
+                               e,
+                               prfDocs,
+                               parallelFeedback || estimating < ForkJoinPool.getCommonPoolParallelism());
+    } finally {
+      rm3Estimations.decrementAndGet();
+    }
+  }
+
+  private static TermWeights estimateExpansion(String rfStrategy, StatsProvider statsProvider,
+                                               double prfSmoothingParameter, String smoothingKey, int queryId, int k,
+                                               int e, Map<Integer, Double> prfDocs, boolean parallelFeedback)
+      throws IOException {
     Smoothing smoothing = new AdditiveSmoothing(prfSmoothingParameter, SEARCH_FIELD, statsProvider);
 
-    RelevanceFeedback feedbackModel = new RM3(prfSmoothingModel, smoothing);
-    return feedbackModel.getTermWeights(prfDocs).pruneToSize(e).scaleToL1Norm();
+    RelevanceFeedback feedbackModel = new RM3(SEARCH_FIELD,
+                                              smoothing,
+                                              parallelFeedback,
+                                              candidatePruning,
+                                              statsProvider);
+    TermWeights exactWeights = null;
+    long exactTime = 0;
+    // Exact RM3 on the same feedback set, with its own smoothing cache, only to measure what the approximation
+    // changes. The two run in alternating order, so neither is always timed on the caches the other warmed.
+    boolean exactFirst = pruningAudit != null && pruningAudit.exactFirst();
+    RelevanceFeedback exactModel = null;
+
+    if (pruningAudit != null) {
+      Smoothing exactSmoothing = new AdditiveSmoothing(prfSmoothingParameter, SEARCH_FIELD, statsProvider);
+      exactModel = new RM3(SEARCH_FIELD, exactSmoothing, parallelFeedback);
+    }
+
+    if (exactFirst) {
+      long exactStart = System.nanoTime();
+      exactWeights = exactModel.getTermWeights(prfDocs);
+      exactTime = System.nanoTime() - exactStart;
+    }
+
+    long approxStart = System.nanoTime();
+    TermWeights weights = feedbackModel.getTermWeights(prfDocs);
+    long approxTime = System.nanoTime() - approxStart;
+
+    if (exactModel != null && !exactFirst) {
+      long exactStart = System.nanoTime();
+      exactWeights = exactModel.getTermWeights(prfDocs);
+      exactTime = System.nanoTime() - exactStart;
+    }
+
+    // Store before pruning, so any e can be served from this entry later
+    if (expansionStore != null) {
+      expansionStore.save(expansionKey(rfStrategy), k, smoothingKey, String.valueOf(queryId), weights);
+    }
+
+    if (pruningAudit != null) {
+      pruningAudit.record(exactWeights, weights, e, exactTime, approxTime);
+    }
+
+    return weights.pruneToSize(e).scaleToL1Norm();
   }
 }
@@ -0,0 +1,107 @@
+package org.irlab.ecir26.searcher.rf;
+
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import org.irlab.ecir26.searcher.util.StatsProvider;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Settings for the approximate RM3 mode. Candidate expansion terms are filtered before any smoothed probability is
+ * computed: numeric tokens, terms outside the document-frequency bounds and terms that are not among the most frequent
+ * ones of at least one feedback document are dropped. These filters are heuristics, and the audit measures what they
+ * change. The survivors can then be cut to the candidates of highest RM3 weight, which is exact: candidates are scored
+ * in decreasing order of an upper bound on their weight until no remaining one can enter the cut.
+ */
+public final class CandidatePruning {
+
+  public final boolean skipNumeric;
+  public final int minDocFreq;
+  public final double maxDocFreqRatio;
+  public final int perDocTopN;
+  public final int maxCandidates;
+
+  /**
+   * @param skipNumeric     drop terms made only of digits and separators
+   * @param minDocFreq      minimum collection document frequency (2 drops collection hapaxes)
+   * @param maxDocFreqRatio maximum document frequency as a fraction of the collection size (1 disables the bound)
+   * @param perDocTopN      keep only the top-N terms by tf of each feedback document (0 disables it)
+   * @param maxCandidates   number of candidates of highest weight kept (0 disables the cut)
+   */
+  public CandidatePruning(boolean skipNumeric, int minDocFreq, double maxDocFreqRatio, int perDocTopN,
+                          int maxCandidates) {
+
+    this.skipNumeric = skipNumeric;
+    this.minDocFreq = minDocFreq;
+    this.maxDocFreqRatio = maxDocFreqRatio;
+    this.perDocTopN = perDocTopN;
+    this.maxCandidates = maxCandidates;
+  }
+
+  public static CandidatePruning defaults() {
+
+    return new CandidatePruning(true, 2, 0.5, 100, 300);
+  }
+
+  /**
+   * Terms of one feedback document that are allowed into the candidate vocabulary.
+   */
+  List<String> docCandidates(int doc, Set<String> docTerms, StatsProvider statsProvider, String field) {
+
+    List<String> candidates = new ArrayList<>(docTerms.size());
+    long numDocs = statsProvider.getNumDocs();
+
+    for (String term : docTerms) {
+
+      if (skipNumeric && isNumeric(term)) {
+        continue;
+      }
+
+      int df = statsProvider.getDocFrequency(term, field);
+
+      if (df < minDocFreq || df > maxDocFreqRatio * numDocs) {
+        continue;
+      }
+
+      candidates.add(term);
+    }
+
+    if (perDocTopN <= 0 || candidates.size() <= perDocTopN) {
+
+      return candidates;
+    }
+
+    Object2IntMap<String> tf = new Object2IntOpenHashMap<>(candidates.size());
+    candidates.forEach(term -> tf.put(term, statsProvider.getTermFrequency(term, doc, field)));
+    candidates.sort((a, b) -> Integer.compare(tf.getInt(b), tf.getInt(a)));
+
+    return candidates.subList(0, perDocTopN);
+  }
+
+  private static boolean isNumeric(String term) {
+
+    for (int i = 0; i < term.length(); i++) {
+
+      char c = term.charAt(i);
+
+      if (!Character.isDigit(c) && c != '.' && c != ',' && c != '_') {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  @Override
+  public String toString() {
+
+    return String.format("approx-df%d-%.2f-top%d-c%d%s",
+                         minDocFreq,
+                         maxDocFreqRatio,
+                         perDocTopN,
+                         maxCandidates,
+                         skipNumeric ? "" : "-num");
+  }
+}
@@ -0,0 +1,79 @@
+package org.irlab.ecir26.searcher.rf;
+
+import org.irlab.ecir26.searcher.util.TermWeights;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the accuracy cost of the approximate RM3 mode by comparing each approximate expansion with the exact one
+ * computed for the same feedback set. Thread-safe, topics record into it concurrently.
+ */
+public final class PruningAudit {
+
+  private final AtomicLong expansions = new AtomicLong();
+  private final AtomicLong changedTopSets = new AtomicLong();
+  private final AtomicLong sharedTopTerms = new AtomicLong();
+  private final AtomicLong topTerms = new AtomicLong();
+  private final AtomicLong candidateTerms = new AtomicLong();
+  private final AtomicLong vocabularyTerms = new AtomicLong();
+  private final AtomicLong exactNanos = new AtomicLong();
+  private final AtomicLong approxNanos = new AtomicLong();
+  private final AtomicLong orders = new AtomicLong();
+
+  /**
+   * Whether the next feedback set should be estimated exactly before approximately. The order alternates, because
+   * whichever mode runs second finds the term vectors and statistics of the feedback documents already cached, so
+   * timing one mode always first would favour the other.
+   */
+  public boolean exactFirst() {
+
+    return (orders.getAndIncrement() & 1) == 0;
+  }
+
+  /**
+   * Records one expansion. Both weight vectors must be unpruned; they are pruned to {@code e} in place.
+   */
+  public void record(TermWeights exact, TermWeights approx, int e, long exactTime, long approxTime) {
+
+    vocabularyTerms.addAndGet(exact.size());
+    candidateTerms.addAndGet(approx.size());
+
+    Set<String> exactTop = new HashSet<>(exact.pruneToSize(e).getTerms());
+    Set<String> approxTop = approx.pruneToSize(e).getTerms();
+
+    int shared = 0;
+    for (String term : approxTop) {
+      if (exactTop.contains(term)) {
+        shared++;
+      }
+    }
+
+    expansions.incrementAndGet();
+    if (shared != exactTop.size() || approxTop.size() != exactTop.size()) {
+      changedTopSets.incrementAndGet();
+    }
+    sharedTopTerms.addAndGet(shared);
+    topTerms.addAndGet(exactTop.size());
+    exactNanos.addAndGet(exactTime);
+    approxNanos.addAndGet(approxTime);
+  }
+
+  public String summary() {
+
+    long n = Math.max(1, expansions.get());
+
+    return String.format("Approximate RM3 audit: %d expansions, top-e set changed in %d (%.1f%%), "
+                         + "top-e overlap %.1f%%, %.0f candidates scored per expansion out of %.0f vocabulary terms, "
+                         + "estimation time %.1f ms approximate vs %.1f ms exact per expansion",
+                         expansions.get(),
+                         changedTopSets.get(),
+                         100.0 * changedTopSets.get() / n,
+                         100.0 * sharedTopTerms.get() / Math.max(1, topTerms.get()),
+                         (double) candidateTerms.get() / n,
+                         (double) vocabularyTerms.get() / n,
+                         approxNanos.get() / 1e6 / n,
+                         exactNanos.get() / 1e6 / n);
+  }
+}
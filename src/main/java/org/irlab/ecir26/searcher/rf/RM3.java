@@ -1,19 +1,57 @@
 package org.irlab.ecir26.searcher.rf;
 
 
+import it.unimi.dsi.fastutil.objects.AbstractObject2DoubleMap;
+import it.unimi.dsi.fastutil.objects.Object2DoubleMap;
+import it.unimi.dsi.fastutil.objects.Object2DoubleOpenHashMap;
 import org.apache.commons.lang3.mutable.MutableDouble;
 import org.irlab.ecir26.searcher.smoothing.Smoothing;
+import org.irlab.ecir26.searcher.util.StatsProvider;
 import org.irlab.ecir26.searcher.util.TermWeights;
 
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 public final class RM3 extends AbstractRelevanceFeedback {
 
+  // Vocabulary slices below this size are scored on the current thread instead of being forked further.
+  private static final int MIN_TERMS_PER_TASK = 256;
+  private static final double BOUND_SLACK = 1e-9;
+
+  private final boolean parallel;
+  private final CandidatePruning pruning;
+  private final StatsProvider statsProvider;
+
   public RM3(String docField, Smoothing documentSmoothing) {
 
+    this(docField, documentSmoothing, false);
+  }
+
+  public RM3(String docField, Smoothing documentSmoothing, boolean parallel) {
+
+    this(docField, documentSmoothing, parallel, null, null);
+  }
+
+  /**
+   * @param parallel      when true the feedback vocabulary is split into fork-join chunks and scored on the common
+   *                      pool. Useful when topics are processed sequentially and the remaining cores would otherwise
+   *                      sit idle.
+   * @param pruning       candidate-term pruning for the approximate mode, or null for exact RM3
+   * @param statsProvider index statistics used by the pruning filters (only needed when pruning is set)
+   */
+  public RM3(String docField, Smoothing documentSmoothing, boolean parallel, CandidatePruning pruning,
+             StatsProvider statsProvider) {
+
     super(docField, documentSmoothing);
+    this.parallel = parallel;
+    this.pruning = pruning;
+    this.statsProvider = statsProvider;
   }
 
   @Override
@@ -25,25 +63,106 @@ public final class RM3 extends AbstractRelevanceFeedback {
 
   protected TermWeights estimateWeights(Map<Integer, Double> relevanceSet) {
 
-    Set<String> vocab = new HashSet<>();
+    Set<String> candidates = new HashSet<>();
 
     relevanceSet.forEach((doc, ql) -> {
 
       Set<String> docTerms = documentSmoothing.getDocTerms(doc);
-      vocab.addAll(docTerms);
+
+      if (pruning == null) {
+        candidates.addAll(docTerms);
+      } else {
+        candidates.addAll(pruning.docCandidates(doc, docTerms, statsProvider, docField));
+      }
     });
+
+    Set<String> vocab = candidates;
+
+    if (pruning != null && pruning.maxCandidates > 0 && candidates.size() > pruning.maxCandidates) {
+
+      return topByWeight(candidates, relevanceSet, pruning.maxCandidates);
+    }
+
+    if (parallel && vocab.size() > MIN_TERMS_PER_TASK) {
+
+      String[] terms = vocab.toArray(new String[0]);
+      return ForkJoinPool.commonPool().invoke(new VocabularySlice(terms, 0, terms.length, relevanceSet));
+    }
+
     TermWeights vocabWeights = new TermWeights();
 
     for (String term : vocab) {
 
-      MutableDouble pwr = new MutableDouble(0);
-      relevanceSet.forEach((doc, ql) -> pwr.add(computeTermDocWeight(term, doc, ql)));
-      vocabWeights.addTermWeight(term, pwr.doubleValue());
+      vocabWeights.addTermWeight(term, computeTermWeight(term, relevanceSet));
     }
 
     return vocabWeights;
   }
 
+  /**
+   * The {@code size} candidates of highest RM3 weight, scored exactly in decreasing order of an upper bound on their
+   * weight until no remaining bound can beat the size-th best weight. The bound of a term adds to the weight it gets
+   * from the feedback documents that contain it, which only touches the observed (term, doc) pairs, the largest weight
+   * any unseen term can get from each of the other documents.
+   */
+  private TermWeights topByWeight(Set<String> vocab, Map<Integer, Double> relevanceSet, int size) {
+
+    Object2DoubleMap<String> bounds = new Object2DoubleOpenHashMap<>(vocab.size());
+    Object2DoubleMap<String> unseenInDocs = new Object2DoubleOpenHashMap<>(vocab.size());
+    MutableDouble unseen = new MutableDouble(0);
+
+    relevanceSet.forEach((doc, ql) -> {
+
+      double docUnseen = Math.exp(Math.log(documentSmoothing.maxUnseenProb(doc)) + ql);
+      unseen.add(docUnseen);
+
+      for (String term : documentSmoothing.getDocTerms(doc)) {
+
+        if (vocab.contains(term)) {
+          bounds.mergeDouble(term, computeTermDocWeight(term, doc, ql), Double::sum);
+          unseenInDocs.mergeDouble(term, docUnseen, Double::sum);
+        }
+      }
+    });
+
+    String[] terms = bounds.keySet().toArray(new String[0]);
+    for (String term : terms) {
+
+      bounds.put(term, bounds.getDouble(term) + unseen.doubleValue() - unseenInDocs.getDouble(term));
+    }
+    Arrays.sort(terms, (a, b) -> Double.compare(bounds.getDouble(b), bounds.getDouble(a)));
+
+    // Min-heap of the best exact weights so far
+    PriorityQueue<Object2DoubleMap.Entry<String>> top =
+        new PriorityQueue<>(size + 1, Comparator.comparingDouble(Object2DoubleMap.Entry::getDoubleValue));
+
+    for (String term : terms) {
+
+      // Some slack, as the bound and the exact weight add the same terms in a different order
+      if (top.size() == size && bounds.getDouble(term) * (1 + BOUND_SLACK) < top.peek().getDoubleValue()) {
+        break;
+      }
+
+      top.add(new AbstractObject2DoubleMap.BasicEntry<>(term, computeTermWeight(term, relevanceSet)));
+
+      if (top.size() > size) {
+        top.poll();
+      }
+    }
+
+    TermWeights weights = new TermWeights();
+    top.forEach(entry -> weights.addTermWeight(entry.getKey(), entry.getDoubleValue()));
+
+    return weights;
+  }
+
+  private double computeTermWeight(final String term, final Map<Integer, Double> relevanceSet) {
+
+    MutableDouble pwr = new MutableDouble(0);
+    relevanceSet.forEach((doc, ql) -> pwr.add(computeTermDocWeight(term, doc, ql)));
+    return pwr.doubleValue();
+  }
+
   private double computeTermDocWeight(final String term, final int doc, double queryLikelihood) {
 
     double pwd = documentSmoothing.computeSmoothedProb(term, doc);
@@ -53,6 +172,53 @@ public final class RM3 extends AbstractRelevanceFeedback {
   @Override
   protected String getName() {
 
-    return String.format("RM3-docsmoothing-%s", documentSmoothing);
+    return pruning == null ? String.format("RM3-docsmoothing-%s", documentSmoothing)
+                           : String.format("RM3-%s-docsmoothing-%s", pruning, documentSmoothing);
+  }
+
+  /**
+   * Scores a contiguous slice of the feedback vocabulary. Each leaf accumulates into its own {@link TermWeights} and
+   * the partial results are merged on the way back up, so no accumulator is shared between workers.
+   */
+  private final class VocabularySlice extends RecursiveTask<TermWeights> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String[] terms;
+    private final int from;
+    private final int to;
+    private final transient Map<Integer, Double> relevanceSet;
+
+    private VocabularySlice(String[] terms, int from, int to, Map<Integer, Double> relevanceSet) {
+
+      this.terms = terms;
+      this.from = from;
+      this.to = to;
+      this.relevanceSet = relevanceSet;
+    }
+
+    @Override
+    protected TermWeights compute() {
+
+      if (to - from <= MIN_TERMS_PER_TASK) {
+
+        TermWeights partial = new TermWeights();
+
+        for (int i = from; i < to; i++) {
+
+          partial.addTermWeight(terms[i], computeTermWeight(terms[i], relevanceSet));
+        }
+
+        return partial;
+      }
+
+      int mid = (from + to) >>> 1;
+      VocabularySlice left = new VocabularySlice(terms, from, mid, relevanceSet);
+      VocabularySlice right = new VocabularySlice(terms, mid, to, relevanceSet);
+      left.fork();
+
+      TermWeights merged = right.compute();
+      return merged.addAll(left.join());
+    }
   }
 }
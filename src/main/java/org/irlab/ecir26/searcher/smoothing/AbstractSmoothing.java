@@ -5,6 +5,7 @@ import org.apache.commons.lang3.tuple.Pair;
 import org.apache.lucene.index.Terms;
 import org.apache.lucene.index.TermsEnum;
 import org.apache.lucene.util.BytesRef;
+import org.irlab.ecir26.searcher.util.OffHeapDocVectors;
 import org.irlab.ecir26.searcher.util.StatsProvider;
 
 import java.io.IOException;
@@ -16,6 +17,8 @@ public abstract class AbstractSmoothing implements Smoothing {
   protected final double smoothingParameter;
   protected final String docField;
   protected final StatsProvider statsProvider;
+  // Shared off-heap table of this model; getName() rounds the parameter, so distinct parameters could collide on it
+  private final String offHeapTable;
   private final ConcurrentHashMap<Pair<String, Integer>, Double> cacheSmoothed;
   private final ConcurrentHashMap<Integer, Set<String>> cacheTerms;
 
@@ -24,6 +27,7 @@ public abstract class AbstractSmoothing implements Smoothing {
     this.smoothingParameter = smoothingParameter;
     this.docField = docField;
     this.statsProvider = statsProvider;
+    this.offHeapTable = getClass().getName() + "/" + docField + "/" + smoothingParameter;
     this.cacheSmoothed = new ConcurrentHashMap<>();
     this.cacheTerms = new ConcurrentHashMap<>();
   }
@@ -33,6 +37,13 @@ public abstract class AbstractSmoothing implements Smoothing {
   @Override
   public double computeSmoothedProb(String term, int doc) {
 
+    OffHeapDocVectors docVectors = statsProvider.getOffHeapDocVectors(doc, docField);
+
+    if (docVectors != null) {
+
+      return docVectors.smoothedProb(offHeapTable, doc, term, t -> computeValue(t, doc));
+    }
+
     Pair<String, Integer> key = Pair.of(term, doc);
 
     if (cacheSmoothed.containsKey(key)) {
@@ -50,6 +61,13 @@ public abstract class AbstractSmoothing implements Smoothing {
   @Override
   public Set<String> getDocTerms(int doc) {
 
+    OffHeapDocVectors docVectors = statsProvider.getOffHeapDocVectors(doc, docField);
+
+    if (docVectors != null) {
+
+      return docVectors.docTerms(doc);
+    }
+
     if (cacheTerms.containsKey(doc)) {
 
       return cacheTerms.get(doc);
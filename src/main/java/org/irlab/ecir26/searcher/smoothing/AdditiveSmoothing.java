@@ -21,17 +21,40 @@ public final class AdditiveSmoothing extends AbstractSmoothing {
 
 
     final int termFreq = statsProvider.getTermFrequency(term, doc, docField);
-    long docLength;
-    long lexiconSize;
 
+    return (termFreq + smoothingParameter) / (docLength(doc) + smoothingParameter * lexiconSize());
+  }
+
+  /**
+   * Every unseen term gets the same probability, gamma / (|d| + gamma |V|).
+   */
+  @Override
+  public double maxUnseenProb(int doc) {
+
+    return smoothingParameter / (docLength(doc) + smoothingParameter * lexiconSize());
+  }
+
+  private long docLength(int doc) {
 
-    if (cacheDocLength.containsKey(doc)) {
+    long docLength;
+
+    if (statsProvider.getOffHeapDocVectors(doc, docField) != null) {
+      // Document lengths are already kept off-heap with the document vector
+      docLength = statsProvider.getDocTokensSize(doc, docField);
+    } else if (cacheDocLength.containsKey(doc)) {
       docLength = cacheDocLength.get(doc);
     } else {
       docLength = statsProvider.getDocTokensSize(doc, docField);
       cacheDocLength.put(doc, docLength);
     }
 
+    return docLength;
+  }
+
+  private long lexiconSize() {
+
+    long lexiconSize;
+
     if (cacheLexiconSize.containsKey(docField)) {
       lexiconSize = cacheLexiconSize.get(docField);
     } else {
@@ -39,7 +62,7 @@ public final class AdditiveSmoothing extends AbstractSmoothing {
       cacheLexiconSize.put(docField, lexiconSize);
     }
 
-    return (termFreq + smoothingParameter) / (docLength + smoothingParameter * lexiconSize);
+    return lexiconSize;
   }
 
   @Override
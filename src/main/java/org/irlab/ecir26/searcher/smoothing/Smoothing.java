@@ -8,4 +8,9 @@ public interface Smoothing {
 
   Set<String> getDocTerms(int doc);
 
+  /**
+   * Upper bound on the smoothed probability of any term that does not occur in {@code doc}.
+   */
+  double maxUnseenProb(int doc);
+
 }
\ No newline at end of file
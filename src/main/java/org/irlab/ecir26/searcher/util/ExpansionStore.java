@@ -0,0 +1,143 @@
+package org.irlab.ecir26.searcher.util;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexCommit;
+import org.apache.lucene.index.SegmentInfos;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Persistent store of unpruned RM3 term distributions, so that sweeps over new lambda or e values can skip feedback
+ * estimation (and the LLM judgments behind it) entirely. Entries live under
+ * {@code {cacheDir}/expansions/{indexFingerprint}/{setup}/{strategy}_{smoothing}_topK-{depth}/{topic}.bin} and are
+ * pruned to the requested number of terms by the caller after loading. Strategies that depend on a scorer or on qrels
+ * carry a {@link #fingerprint(String)} of them in their key.
+ */
+public final class ExpansionStore {
+
+  private static final int MAGIC = 0x524D3345; // "RM3E"
+  private static final int VERSION = 1;
+
+  private final Path root;
+
+  /**
+   * @param cacheDir base cache directory of the collection
+   * @param reader   index the expansions are computed on
+   * @param setup    retrieval setup the feedback documents depend on (query field, first-pass model, RF model)
+   */
+  public ExpansionStore(String cacheDir, DirectoryReader reader, String setup) throws IOException {
+
+    this.root = Paths.get(cacheDir, "expansions", fingerprint(reader), setup);
+    Files.createDirectories(root);
+  }
+
+  /**
+   * Identifies an index build: the commit id is random per commit, so re-indexing always yields a new fingerprint.
+   */
+  public static String fingerprint(DirectoryReader reader) throws IOException {
+
+    IndexCommit commit = reader.getIndexCommit();
+    SegmentInfos infos = SegmentInfos.readCommit(commit.getDirectory(), commit.getSegmentsFileName());
+
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-1");
+      digest.update(infos.getId());
+      digest.update(String.format("%d/%d/%d", infos.getVersion(), reader.maxDoc(), reader.numDocs()).getBytes());
+      return HexFormat.of().formatHex(digest.digest(), 0, 8);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Short hash of whatever the feedback judgments of a strategy depend on (scorer fingerprints, qrels), to be made part
+   * of its strategy key.
+   */
+  public static String fingerprint(String judgments) {
+
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-1");
+      return HexFormat.of().formatHex(digest.digest(judgments.getBytes(StandardCharsets.UTF_8)), 0, 8);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Whether an expansion has been stored, without reading it.
+   */
+  public boolean contains(String strategy, int depth, String smoothing, String topic) {
+    return Files.exists(entry(strategy, depth, smoothing, topic));
+  }
+
+  /**
+   * Returns the stored unpruned expansion, or null if it has not been computed yet.
+   */
+  public TermWeights load(String strategy, int depth, String smoothing, String topic) throws IOException {
+
+    Path file = entry(strategy, depth, smoothing, topic);
+
+    if (!Files.exists(file)) {
+      return null;
+    }
+
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(
+        file))))) {
+
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        System.err.println("Ignoring expansion cache entry with unknown format: " + file);
+        return null;
+      }
+
+      int size = in.readInt();
+      TermWeights weights = new TermWeights();
+      for (int i = 0; i < size; i++) {
+        weights.addTermWeight(in.readUTF(), in.readDouble());
+      }
+      return weights;
+    } catch (EOFException e) {
+      System.err.println("Ignoring truncated expansion cache entry: " + file);
+      return null;
+    }
+  }
+
+  /**
+   * Stores an unpruned expansion. The entry is written to a temporary file and moved into place, so concurrent readers
+   * and crashed runs never observe a partial entry.
+   */
+  public void save(String strategy, int depth, String smoothing, String topic, TermWeights weights) throws IOException {
+
+    Path file = entry(strategy, depth, smoothing, topic);
+    Files.createDirectories(file.getParent());
+    Path tmp = Files.createTempFile(file.getParent(), topic, ".tmp");
+
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(
+        tmp))))) {
+
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(weights.size());
+      for (String term : weights.getTerms()) {
+        out.writeUTF(term);
+        out.writeDouble(weights.getTermWeight(term));
+      }
+    }
+
+    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private Path entry(String strategy, int depth, String smoothing, String topic) {
+
+    return root.resolve(String.format("%s_%s_topK-%d", strategy, smoothing, depth)).resolve(topic + ".bin");
+  }
+}
@@ -0,0 +1,33 @@
+package org.irlab.ecir26.searcher.util;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+
+/**
+ * Heap and GC figures for the end-of-run summary, used to compare on-heap and off-heap cache configurations.
+ */
+public final class MemoryReport {
+
+  private MemoryReport() {
+  }
+
+  public static String summary() {
+
+    long collections = 0;
+    long collectionMillis = 0;
+
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      collections += Math.max(0, gc.getCollectionCount());
+      collectionMillis += Math.max(0, gc.getCollectionTime());
+    }
+
+    MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+
+    return String.format("GC: %d collections, %d ms | heap used %d MB, committed %d MB",
+                         collections,
+                         collectionMillis,
+                         heap.getUsed() >> 20,
+                         heap.getCommitted() >> 20);
+  }
+}
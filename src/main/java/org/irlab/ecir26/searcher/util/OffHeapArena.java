@@ -0,0 +1,68 @@
+package org.irlab.ecir26.searcher.util;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bump allocator handing out slices of large direct buffers, so that long-lived per-index caches live outside the
+ * garbage-collected heap. Slices are 8-byte aligned and in native byte order. An arena is owned by one index: it is
+ * closed together with the reader and its slabs are released as soon as the caches drop their slices.
+ * <p>
+ * The project targets JDK 21, where {@code java.lang.foreign.Arena} is still a preview API, so slabs are plain direct
+ * {@link ByteBuffer}s laid out the same way a {@code MemorySegment} would be.
+ */
+public final class OffHeapArena implements Closeable {
+
+  private static final int SLAB_SIZE = 16 << 20;
+
+  private final List<ByteBuffer> slabs = new ArrayList<>();
+  private ByteBuffer current;
+  private long allocatedBytes;
+  private boolean closed;
+
+  public synchronized ByteBuffer allocate(int bytes) {
+
+    if (closed) {
+      throw new IllegalStateException("Off-heap arena already closed");
+    }
+
+    allocatedBytes += bytes;
+
+    if (bytes > SLAB_SIZE / 4) {
+      ByteBuffer dedicated = ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+      slabs.add(dedicated);
+      return dedicated;
+    }
+
+    if (current == null || current.remaining() < bytes) {
+      current = ByteBuffer.allocateDirect(SLAB_SIZE);
+      slabs.add(current);
+    }
+
+    int start = current.position();
+    ByteBuffer slice = current.slice(start, bytes).order(ByteOrder.nativeOrder());
+    current.position(Math.min(current.limit(), start + ((bytes + 7) & ~7)));
+    return slice;
+  }
+
+  public synchronized long getAllocatedBytes() {
+
+    return allocatedBytes;
+  }
+
+  public synchronized long getReservedBytes() {
+
+    return slabs.stream().mapToLong(ByteBuffer::capacity).sum();
+  }
+
+  @Override
+  public synchronized void close() {
+
+    closed = true;
+    slabs.clear();
+    current = null;
+  }
+}
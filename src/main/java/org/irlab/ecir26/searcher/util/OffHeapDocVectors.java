@@ -0,0 +1,200 @@
+package org.irlab.ecir26.searcher.util;
+
+import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Off-heap document vectors and smoothed-probability tables for one index field.
+ * <p>
+ * Each document is stored as {@code [int n][int pad][long length][int termId * n][int tf * n]} with term ids sorted,
+ * so a (term, doc) lookup is one dictionary probe plus a binary search instead of a boxed map entry per pair. Smoothed
+ * tables hold one double per document term, aligned with the document's term slots, and are filled in one go the
+ * first time a document is used with a given smoothing. Terms are interned once in a shared dictionary.
+ */
+public final class OffHeapDocVectors implements Closeable {
+
+  private static final int HEADER_BYTES = 16;
+
+  private final OffHeapArena arena;
+  private final String field;
+  private final ConcurrentHashMap<String, Integer> termIds;
+  private final ConcurrentHashMap<Integer, ByteBuffer> docs;
+  private final ConcurrentHashMap<String, ConcurrentHashMap<Integer, ByteBuffer>> smoothedTables;
+  private volatile String[] terms;
+  private int nextTermId;
+
+  public OffHeapDocVectors(OffHeapArena arena, String field) {
+
+    this.arena = arena;
+    this.field = field;
+    this.termIds = new ConcurrentHashMap<>();
+    this.docs = new ConcurrentHashMap<>();
+    this.smoothedTables = new ConcurrentHashMap<>();
+    this.terms = new String[1 << 14];
+  }
+
+  public String getField() {
+
+    return field;
+  }
+
+  public boolean contains(int doc) {
+
+    return docs.containsKey(doc);
+  }
+
+  /**
+   * Stores the vector of a document. Concurrent puts of the same document are harmless, the first one wins.
+   */
+  public void put(int doc, String[] docTerms, int[] freqs, long length) {
+
+    long[] packed = new long[docTerms.length];
+    for (int i = 0; i < docTerms.length; i++) {
+      packed[i] = ((long) termId(docTerms[i]) << 32) | (freqs[i] & 0xFFFFFFFFL);
+    }
+    Arrays.sort(packed);
+
+    int n = packed.length;
+    ByteBuffer vector = arena.allocate(HEADER_BYTES + 8 * n);
+    vector.putInt(0, n);
+    vector.putLong(8, length);
+    for (int i = 0; i < n; i++) {
+      vector.putInt(HEADER_BYTES + 4 * i, (int) (packed[i] >>> 32));
+      vector.putInt(HEADER_BYTES + 4 * (n + i), (int) packed[i]);
+    }
+
+    docs.putIfAbsent(doc, vector);
+  }
+
+  public int termFrequency(int doc, String term) {
+
+    ByteBuffer vector = docs.get(doc);
+    int slot = slot(vector, term);
+
+    return slot < 0 ? 0 : vector.getInt(HEADER_BYTES + 4 * (vector.getInt(0) + slot));
+  }
+
+  public long docLength(int doc) {
+
+    return docs.get(doc).getLong(8);
+  }
+
+  public int docTermCount(int doc) {
+
+    return docs.get(doc).getInt(0);
+  }
+
+  public Set<String> docTerms(int doc) {
+
+    ByteBuffer vector = docs.get(doc);
+    String[] dictionary = terms;
+    int n = vector.getInt(0);
+
+    Set<String> docTerms = new ObjectOpenHashSet<>(n);
+    for (int i = 0; i < n; i++) {
+      docTerms.add(dictionary[vector.getInt(HEADER_BYTES + 4 * i)]);
+    }
+    return docTerms;
+  }
+
+  /**
+   * Smoothed probability of a term in a document from the named table. Values for the document's own terms are
+   * computed once per (table, doc) and kept off-heap; terms absent from the document are computed on the fly.
+   */
+  public double smoothedProb(String table, int doc, String term, ToDoubleFunction<String> compute) {
+
+    ByteBuffer vector = docs.get(doc);
+    int slot = slot(vector, term);
+
+    if (slot < 0) {
+      return compute.applyAsDouble(term);
+    }
+
+    ByteBuffer values = smoothedTables.computeIfAbsent(table, name -> new ConcurrentHashMap<>())
+                                      .computeIfAbsent(doc, d -> fillTable(vector, compute));
+    return values.getDouble(8 * slot);
+  }
+
+  private ByteBuffer fillTable(ByteBuffer vector, ToDoubleFunction<String> compute) {
+
+    String[] dictionary = terms;
+    int n = vector.getInt(0);
+    ByteBuffer values = arena.allocate(8 * n);
+
+    for (int i = 0; i < n; i++) {
+      values.putDouble(8 * i, compute.applyAsDouble(dictionary[vector.getInt(HEADER_BYTES + 4 * i)]));
+    }
+    return values;
+  }
+
+  private int slot(ByteBuffer vector, String term) {
+
+    Integer id = termIds.get(term);
+
+    if (id == null) {
+      return -1;
+    }
+
+    int low = 0;
+    int high = vector.getInt(0) - 1;
+
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int midId = vector.getInt(HEADER_BYTES + 4 * mid);
+      if (midId < id) {
+        low = mid + 1;
+      } else if (midId > id) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -1;
+  }
+
+  private int termId(String term) {
+
+    Integer id = termIds.get(term);
+    return id != null ? id : termIds.computeIfAbsent(term, this::assignTermId);
+  }
+
+  private synchronized int assignTermId(String term) {
+
+    if (nextTermId == terms.length) {
+      terms = Arrays.copyOf(terms, terms.length * 2);
+    }
+    terms[nextTermId] = term;
+    return nextTermId++;
+  }
+
+  public int getTermCount() {
+
+    return termIds.size();
+  }
+
+  public long getAllocatedBytes() {
+
+    return arena.getAllocatedBytes();
+  }
+
+  public int getDocCount() {
+
+    return docs.size();
+  }
+
+  @Override
+  public void close() {
+
+    docs.clear();
+    smoothedTables.clear();
+    termIds.clear();
+    terms = new String[0];
+    arena.close();
+  }
+}
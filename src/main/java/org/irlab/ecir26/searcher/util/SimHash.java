@@ -0,0 +1,77 @@
+package org.irlab.ecir26.searcher.util;
+
+import it.unimi.dsi.fastutil.HashCommon;
+
+/**
+ * 64-bit SimHash signatures of document text (Charikar), used to find near-duplicate documents. The features are the
+ * overlapping pairs of consecutive words, lower-cased and split at anything that is not a letter or digit, so that
+ * documents differing only in markup leftovers, boilerplate lines or a few edited words get signatures a few bits
+ * apart, while unrelated documents differ in about half of the 64 bits.
+ * <p>
+ * The indexer stores the signature of every document's content in {@value #FIELD} as numeric doc values.
+ */
+public final class SimHash {
+
+  public static final String FIELD = "simhash";
+
+  private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+
+  private SimHash() {
+  }
+
+  /**
+   * Signature of {@code text}; 0 for text without words.
+   */
+  public static long of(String text) {
+    int[] votes = new int[Long.SIZE];
+    long previous = 0;
+    boolean hasPrevious = false;
+    int features = 0;
+    int length = text.length();
+    int i = 0;
+    while (i < length) {
+      while (i < length && !Character.isLetterOrDigit(text.charAt(i))) {
+        i++;
+      }
+      if (i == length) {
+        break;
+      }
+      long word = FNV_OFFSET;
+      while (i < length && Character.isLetterOrDigit(text.charAt(i))) {
+        word = (word ^ Character.toLowerCase(text.charAt(i))) * FNV_PRIME;
+        i++;
+      }
+      if (hasPrevious) {
+        vote(votes, HashCommon.mix(previous * 31 + word));
+        features++;
+      }
+      previous = word;
+      hasPrevious = true;
+    }
+    if (features == 0 && hasPrevious) {
+      vote(votes, HashCommon.mix(previous)); // a single word
+    }
+
+    long signature = 0;
+    for (int bit = 0; bit < Long.SIZE; bit++) {
+      if (votes[bit] > 0) {
+        signature |= 1L << bit;
+      }
+    }
+    return signature;
+  }
+
+  private static void vote(int[] votes, long feature) {
+    for (int bit = 0; bit < Long.SIZE; bit++) {
+      votes[bit] += (feature >>> bit & 1) != 0 ? 1 : -1;
+    }
+  }
+
+  /**
+   * Number of bits in which two signatures differ.
+   */
+  public static int distance(long a, long b) {
+    return Long.bitCount(a ^ b);
+  }
+}
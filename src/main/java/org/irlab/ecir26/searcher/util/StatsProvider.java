@@ -16,25 +16,44 @@ public final class StatsProvider {
   private final ConcurrentHashMap<String, Long> cacheLexiconSize;
   private final ConcurrentHashMap<Pair<Integer, String>, Terms> cacheTermVector;
   private final ConcurrentHashMap<Integer, ConcurrentHashMap<String, Integer>> cacheDocTerm;
-  private TermVectors termvectors;
+  private final ConcurrentHashMap<Pair<String, String>, Integer> cacheDocFreq;
+  // TermVectors instances are not thread-safe, so every thread reading through this provider gets its own
+  private final ThreadLocal<TermVectors> termvectors;
+  // Optional off-heap replacement for the per-document caches, shared by every provider of the same index
+  private final OffHeapDocVectors docVectors;
 
   public StatsProvider(IndexReader reader) {
 
+    this(reader, null);
+  }
+
+  public StatsProvider(IndexReader reader, OffHeapDocVectors docVectors) {
+
     this.reader = reader;
-    try {
-      this.termvectors = reader.termVectors();
-    } catch (IOException e) {
-      e.printStackTrace();
-      LOG.error(e.getMessage());
-      throw new RuntimeException(e);
-    }
+    this.docVectors = docVectors;
+    this.termvectors = ThreadLocal.withInitial(() -> {
+      try {
+        return reader.termVectors();
+      } catch (IOException e) {
+        e.printStackTrace();
+        LOG.error(e.getMessage());
+        throw new RuntimeException(e);
+      }
+    });
     this.cacheLexiconSize = new ConcurrentHashMap<>();
     this.cacheTermVector = new ConcurrentHashMap<>();
     this.cacheDocTerm = new ConcurrentHashMap<>();
+    this.cacheDocFreq = new ConcurrentHashMap<>();
   }
 
   public int getTermFrequency(String term, int doc, String field) {
 
+    OffHeapDocVectors vectors = getOffHeapDocVectors(doc, field);
+    if (vectors != null) {
+
+      return vectors.termFrequency(doc, term);
+    }
+
     try {
 
       final BytesRef termBytes = new Term(field, term).bytes();
@@ -94,6 +113,12 @@ public final class StatsProvider {
 
   public long getDocTokensSize(int doc, String field) {
 
+    OffHeapDocVectors vectors = getOffHeapDocVectors(doc, field);
+    if (vectors != null) {
+
+      return vectors.docLength(doc);
+    }
+
     try {
 
       Terms termVector = getTermVector(doc, field);
@@ -113,6 +138,12 @@ public final class StatsProvider {
 
   public long getDocTermSize(int doc, String field) {
 
+    OffHeapDocVectors vectors = getOffHeapDocVectors(doc, field);
+    if (vectors != null) {
+
+      return vectors.docTermCount(doc);
+    }
+
     try {
 
       Terms termVector = getTermVector(doc, field);
@@ -143,6 +174,33 @@ public final class StatsProvider {
     }
   }
 
+  public int getDocFrequency(String term, String field) {
+
+    Pair<String, String> key = Pair.of(field, term);
+    Integer cached = cacheDocFreq.get(key);
+
+    if (cached != null) {
+
+      return cached;
+    }
+
+    try {
+
+      int df = reader.docFreq(new Term(field, term));
+      cacheDocFreq.put(key, df);
+      return df;
+    } catch (IOException e) {
+
+      LOG.error(e.getMessage());
+      throw new RuntimeException(e);
+    }
+  }
+
+  public long getNumDocs() {
+
+    return reader.numDocs();
+  }
+
   public long getCollectionTokensSize(String field) {
 
     try {
@@ -190,11 +248,65 @@ public final class StatsProvider {
     }
   }
 
+  /**
+   * Returns the off-heap document vectors with {@code doc} loaded, or null when off-heap caches are disabled or cover a
+   * different field.
+   */
+  public OffHeapDocVectors getOffHeapDocVectors(int doc, String field) {
+
+    if (docVectors == null || !docVectors.getField().equals(field)) {
+
+      return null;
+    }
+
+    if (!docVectors.contains(doc)) {
+
+      loadDocVector(doc, field);
+    }
+
+    return docVectors;
+  }
+
+  private void loadDocVector(int doc, String field) {
+
+    try {
+
+      Terms termVector = getTermVector(doc, field);
+
+      if (termVector == null) {
+
+        docVectors.put(doc, new String[0], new int[0], 0);
+        return;
+      }
+
+      int size = (int) termVector.size();
+      String[] docTerms = new String[size];
+      int[] freqs = new int[size];
+      TermsEnum termsEnum = termVector.iterator();
+      PostingsEnum termPosting = null;
+      int n = 0;
+
+      while (termsEnum.next() != null) {
+        termPosting = termsEnum.postings(termPosting);
+        termPosting.nextDoc();
+        docTerms[n] = termsEnum.term().utf8ToString();
+        freqs[n] = termPosting.freq();
+        n++;
+      }
+
+      docVectors.put(doc, docTerms, freqs, termVector.getSumTotalTermFreq());
+    } catch (final IOException e) {
+
+      LOG.error(e.getMessage());
+      throw new RuntimeException(e);
+    }
+  }
+
   public Terms getTermVector(int doc, String field) {
 
     try {
 
-      return termvectors.get(doc, field);
+      return termvectors.get().get(doc, field);
     } catch (final IOException e) {
 
       LOG.error(e.getMessage());
@@ -7,6 +7,7 @@ import it.unimi.dsi.fastutil.objects.ObjectSet;
 
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.function.BiConsumer;
 
 public final class TermWeights {
@@ -49,6 +50,11 @@ public final class TermWeights {
     weights.merge(term, weight, Double::sum);
   }
 
+  public TermWeights addAll(TermWeights other) {
+    other.weights.forEach(this::addTermWeight);
+    return this;
+  }
+
   public double getTermWeight(String term) {
     return weights.getOrDefault(term, 0.0d);
   }
@@ -64,6 +70,14 @@ public final class TermWeights {
     return weights.values().stream().mapToDouble(Math::abs).sum();
   }
 
+  public Set<String> getTerms() {
+    return weights.keySet();
+  }
+
+  public int size() {
+    return weights.size();
+  }
+
   public void forEach(final BiConsumer<String, Double> consumer) {
     weights.forEach(consumer);
   }
@@ -0,0 +1,50 @@
+package org.irlab.ecir26.searcher.util;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermStates;
+import org.apache.lucene.search.*;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Turns already-analyzed {@link TermWeights} into a disjunction of boosted term queries, without formatting and
+ * re-parsing a query string. Term dictionary lookups are done once per term and reused by every query built by the
+ * same instance, so one builder should serve all the interpolated queries of a topic.
+ * Not thread-safe: use one instance per topic.
+ */
+public final class WeightedQueryBuilder {
+
+  private final IndexSearcher searcher;
+  private final String field;
+  private final Map<String, TermStates> termStates;
+
+  public WeightedQueryBuilder(IndexSearcher searcher, String field) {
+
+    this.searcher = searcher;
+    this.field = field;
+    this.termStates = new HashMap<>();
+  }
+
+  public Query build(TermWeights weights) throws IOException {
+
+    BooleanQuery.Builder query = new BooleanQuery.Builder();
+
+    for (String text : weights.getTerms()) {
+
+      Term term = new Term(field, text);
+      TermStates states = termStates.get(text);
+
+      if (states == null) {
+        states = TermStates.build(searcher, term, true);
+        termStates.put(text, states);
+      }
+
+      Query termQuery = new BoostQuery(new TermQuery(term, states), (float) weights.getTermWeight(text));
+      query.add(termQuery, BooleanClause.Occur.SHOULD);
+    }
+
+    return query.build();
+  }
+}
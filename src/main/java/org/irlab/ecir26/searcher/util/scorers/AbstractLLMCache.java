@@ -0,0 +1,699 @@
+package org.irlab.ecir26.searcher.util.scorers;
+
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Shared logic of the persistent LLM judgment caches, keyed by content-addressed {@link JudgmentKey}s and answering
+ * single and batched lookups from any number of threads. Judgments live in an append-only binary {@link JudgmentLog}
+ * and are found through a memory-mapped {@link JudgmentIndex}, so opening a cache does not read it into memory and
+ * processes on the same machine share its pages. Records appended since the index was last written are kept in an
+ * in-memory delta, which is merged into a new index when the cache is closed and once it holds an eighth as many keys
+ * as the index (at least {@value #MIN_MERGE_KEYS}), so that rewriting the index stays linear in the number of
+ * judgments.
+ * Only the process holding the lock of the log adds judgments to it; any other process opening the same cache reads it,
+ * and on a miss the records the owner appended since, and keeps the judgments it makes in memory, for the rest of its
+ * run only (see {@link JudgmentLog#isReadOnly()}).
+ * <p>
+ * A miss is judged by a single request however many threads ask for it at once: the first one claims it and the
+ * others wait for its result. How many misses are in flight at once is decided by the scorer's
+ * {@link AdaptiveConcurrencyLimiter}. Subclasses provide the scorer calls and fingerprint, the fixed-width binary
+ * record of their results and their TSV columns. Caches of older versions, keyed by topic number and Lucene doc id, are
+ * carried over by {@link #migrateLegacy}, run explicitly through {@link JudgmentCacheTool}.
+ *
+ * @param <R> scorer-specific result holding every field that is persisted
+ */
+public abstract class AbstractLLMCache<R> implements LLMCache {
+
+  public static final int DEFAULT_BATCH_SIZE = 16;
+
+  private static final int MIN_MERGE_KEYS = 1 << 16;
+
+  // Completes the claims of misses a judging budget did not pay for, so that lookups waiting on them are not failed
+  private static final LLMResult NOT_JUDGED = new LLMResult(false, Double.NaN, Double.NaN);
+
+  protected final String cacheFile;
+  private final String cacheDirectory;
+  private final Path indexFile;
+  private final int payloadBytes;
+  private final int batchSize;
+
+  private final JudgmentLog log;
+  private JudgmentIndex index;
+  // Records not covered by the index: decoded results for lookups and log ordinals for the next merge
+  private final Long2ObjectOpenHashMap<LLMResult> delta = new Long2ObjectOpenHashMap<>();
+  private final Long2LongOpenHashMap deltaOrdinals = new Long2LongOpenHashMap();
+  // Log records read so far; a read-only cache reads those the owner appends later when it misses
+  private volatile long readRecords;
+  private final ReentrantReadWriteLock cacheLock = new ReentrantReadWriteLock();
+
+  // Misses being judged, so concurrent lookups of the same pair wait for one request instead of sending their own
+  private final ConcurrentHashMap<Long, CompletableFuture<LLMResult>> inFlight = new ConcurrentHashMap<>();
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder judged = new LongAdder();
+  private final LongAdder coalesced = new LongAdder();
+  private final LongAdder failed = new LongAdder();
+
+  /**
+   * Open the log; the cache is usable once {@link #load} has read what the index does not cover.
+   *
+   * @param baseName     file name without extension; the binary log is {@code baseName.bin} and its index
+   *                     {@code baseName.idx}
+   * @param payloadBytes size of the binary payload written by {@link #writePayload}
+   */
+  protected AbstractLLMCache(String cacheDirectory, String baseName, int payloadBytes, int batchSize)
+      throws IOException {
+    this.cacheDirectory = cacheDirectory;
+    this.cacheFile = cacheDirectory + "/" + baseName + ".bin";
+    this.indexFile = Paths.get(cacheDirectory, baseName + ".idx");
+    this.payloadBytes = payloadBytes;
+    this.batchSize = Math.max(1, batchSize);
+
+    new File(cacheDirectory).mkdirs();
+
+    this.log = new JudgmentLog(Paths.get(cacheFile), payloadBytes);
+    this.index = JudgmentIndex.empty();
+  }
+
+  /**
+   * Finish opening a cache built by a subclass constructor: map the index and read the records it does not cover
+   * into the delta. Kept out of the constructor because records are decoded by the subclass.
+   *
+   * @return {@code cache}; if it cannot be read, its log is closed before the exception is thrown
+   */
+  protected static <C extends AbstractLLMCache<?>> C load(C cache) throws IOException {
+    AbstractLLMCache<?> opened = cache;
+    try {
+      opened.replayLog();
+      return cache;
+    } catch (IOException | RuntimeException e) {
+      try {
+        opened.log.close();
+      } catch (IOException closing) {
+        e.addSuppressed(closing);
+      }
+      throw e;
+    }
+  }
+
+  private void replayLog() throws IOException {
+    index = JudgmentIndex.open(indexFile, log.size());
+    readRecords = index.getCoveredRecords();
+    log.forEach(readRecords, this::addToDelta);
+    if (deltaFull() && !log.isReadOnly()) {
+      mergeDelta();
+    }
+    System.out.println("Opened " + getName() + " cache with " + index.getEntries() + " indexed and "
+                       + deltaOrdinals.size() + " recent judgments from " + cacheFile);
+    if (log.isReadOnly()) {
+      System.err.println(cacheFile + " is locked by another process: reading its judgments and those it adds, but new "
+                         + getName() + " judgments of this run will not be saved");
+    }
+  }
+
+  /**
+   * Name used in log messages.
+   */
+  protected abstract String getName();
+
+  /**
+   * Model and prompt identity, part of every key. Judgments made under another fingerprint are not reused.
+   */
+  protected abstract String fingerprint();
+
+  /**
+   * Parse the result columns of a TSV line, starting at {@code first}, or return null if they are not valid.
+   */
+  protected abstract R parseResult(String[] parts, int first);
+
+  /**
+   * Format the result columns of a TSV line, without separators at either end.
+   */
+  protected abstract String formatResult(R result);
+
+  protected abstract void writePayload(R result, ByteBuffer buffer);
+
+  protected abstract R readPayload(ByteBuffer buffer);
+
+  protected abstract LLMResult toLLMResult(R result);
+
+  /**
+   * Evaluate one document. The future fails with an {@link IOException} if the scorer cannot judge it, and nothing
+   * is stored: a judgment the model never made must not outlive the outage that caused it.
+   */
+  protected abstract CompletableFuture<R> evaluateAsync(String queryText, String narrative, String docText);
+
+  /**
+   * Evaluate several documents of the same query in one request. Results are aligned with {@code docTexts}; the
+   * future fails as in {@link #evaluateAsync}.
+   */
+  protected abstract CompletableFuture<List<R>> evaluateBatchAsync(String queryText, String narrative,
+                                                                    List<String> docTexts);
+
+  /**
+   * Key of the judgment of {@code document} for the given query under this cache's scorer.
+   */
+  public long key(String queryText, String narrative, LLMDocument document) {
+    return JudgmentKey.of(fingerprint(), queryText, narrative, document.docno(), document.text());
+  }
+
+  /**
+   * Whether the judgment of {@code document} is cached, without judging it.
+   */
+  public boolean contains(String queryText, String narrative, LLMDocument document) throws IOException {
+    return lookup(key(queryText, narrative, document)) != null;
+  }
+
+  @Override
+  public LLMResult get(String queryText, String narrative, LLMDocument document) throws IOException {
+    long key = key(queryText, narrative, document);
+    LLMResult cached = lookup(key);
+    if (cached != null) {
+      hits.increment();
+      return cached;
+    }
+
+    CompletableFuture<LLMResult> claim = new CompletableFuture<>();
+    CompletableFuture<LLMResult> running;
+    while ((running = inFlight.putIfAbsent(key, claim)) != null) {
+      coalesced.increment();
+      LLMResult result = await(running);
+      if (result != NOT_JUDGED) {
+        return result;
+      }
+      // The owner's budget did not pay for it, but this lookup has no budget: claim it again
+    }
+    try {
+      // The judgment may have been stored (and its claim released) between the lookup and the claim
+      LLMResult result = lookup(key);
+      if (result != null) {
+        hits.increment();
+      } else {
+        judged.increment();
+        result = judge(key, evaluateAsync(queryText, narrative, document.text()));
+      }
+      claim.complete(result);
+      return result;
+    } catch (IOException | RuntimeException e) {
+      claim.completeExceptionally(e);
+      throw e;
+    } finally {
+      inFlight.remove(key, claim);
+    }
+  }
+
+  @Override
+  public LLMResult[] getAll(String queryText, String narrative, int[] docIds, DocumentLoader documents,
+                            JudgingBudget.Allowance allowance) throws IOException {
+    LLMResult[] results = new LLMResult[docIds.length];
+    LLMDocument[] loaded = new LLMDocument[docIds.length];
+    long[] keys = new long[docIds.length];
+    for (int i = 0; i < docIds.length; i++) {
+      loaded[i] = documents.load(docIds[i]);
+      keys[i] = key(queryText, narrative, loaded[i]);
+    }
+    List<Integer> candidates = new ArrayList<>();
+
+    cacheLock.readLock().lock();
+    try {
+      for (int i = 0; i < docIds.length; i++) {
+        results[i] = find(keys[i]);
+        if (results[i] == null) {
+          candidates.add(i);
+        }
+      }
+    } finally {
+      cacheLock.readLock().unlock();
+    }
+    if (!candidates.isEmpty() && readTail()) {
+      List<Integer> stillMissing = new ArrayList<>();
+      for (int i : candidates) {
+        results[i] = findLocked(keys[i]);
+        if (results[i] == null) {
+          stillMissing.add(i);
+        }
+      }
+      candidates = stillMissing;
+    }
+    hits.add(docIds.length - candidates.size());
+
+    // Claim the misses nobody else is judging; the rest wait for the thread that is
+    List<Integer> misses = new ArrayList<>();
+    List<CompletableFuture<LLMResult>> claims = new ArrayList<>();
+    List<Integer> waiting = new ArrayList<>();
+    List<CompletableFuture<LLMResult>> waitingFor = new ArrayList<>();
+    for (int i : candidates) {
+      CompletableFuture<LLMResult> claim = new CompletableFuture<>();
+      CompletableFuture<LLMResult> running = inFlight.putIfAbsent(keys[i], claim);
+      if (running != null) {
+        waiting.add(i);
+        waitingFor.add(running);
+      } else {
+        misses.add(i);
+        claims.add(claim);
+      }
+    }
+    coalesced.add(waiting.size());
+
+    try {
+      judgeClaimed(queryText, narrative, loaded, keys, results, misses, claims, allowance);
+    } finally {
+      for (int m = 0; m < misses.size(); m++) {
+        CompletableFuture<LLMResult> claim = claims.get(m);
+        claim.completeExceptionally(new IOException("Judgment abandoned by its owner"));
+        inFlight.remove(keys[misses.get(m)], claim);
+      }
+    }
+
+    // Claims the owner's budget refused are left null like the owner's own, unless this lookup has no budget
+    List<Integer> refused = new ArrayList<>();
+    for (int w = 0; w < waiting.size(); w++) {
+      LLMResult result = await(waitingFor.get(w));
+      if (result != NOT_JUDGED) {
+        results[waiting.get(w)] = result;
+      } else if (allowance == null) {
+        refused.add(waiting.get(w));
+      }
+    }
+    if (!refused.isEmpty()) {
+      int[] retry = refused.stream().mapToInt(i -> docIds[i]).toArray();
+      LLMResult[] judgedNow = getAll(queryText, narrative, retry, documents, null);
+      for (int r = 0; r < retry.length; r++) {
+        results[refused.get(r)] = judgedNow[r];
+      }
+    }
+    return results;
+  }
+
+  /**
+   * Judge the claimed misses in batches, storing each result before completing its claim. A failed batch fails its
+   * claims without storing anything; the batches that succeed are stored all the same, and the first failure is
+   * thrown once every batch is done. Misses past what {@code allowance} pays for stay null, and so do they for the
+   * lookups waiting on their claims.
+   */
+  private void judgeClaimed(String queryText, String narrative, LLMDocument[] documents, long[] keys,
+                            LLMResult[] results, List<Integer> misses, List<CompletableFuture<LLMResult>> claims,
+                            JudgingBudget.Allowance allowance) throws IOException {
+    // Judgments stored between the first lookup and the claims need no request
+    List<Integer> pendingMisses = new ArrayList<>();
+    List<CompletableFuture<LLMResult>> pendingClaims = new ArrayList<>();
+    for (int m = 0; m < misses.size(); m++) {
+      int i = misses.get(m);
+      results[i] = lookup(keys[i]);
+      if (results[i] != null) {
+        hits.increment();
+        claims.get(m).complete(results[i]);
+      } else {
+        pendingMisses.add(i);
+        pendingClaims.add(claims.get(m));
+      }
+    }
+    // Misses are in rank order, so the budget pays for the best ranked ones
+    int granted = allowance != null ? allowance.reserve(pendingMisses.size()) : pendingMisses.size();
+    for (int m = granted; m < pendingMisses.size(); m++) {
+      // Released before completion, so a waiter that goes on to judge it itself can claim it again
+      inFlight.remove(keys[pendingMisses.get(m)], pendingClaims.get(m));
+      pendingClaims.get(m).complete(NOT_JUDGED);
+    }
+    pendingMisses = pendingMisses.subList(0, granted);
+    judged.add(pendingMisses.size());
+
+    // Send all batches of misses before waiting for any of them, so they are judged concurrently (within the
+    // scorer's concurrency limit)
+    List<CompletableFuture<List<R>>> pending = new ArrayList<>();
+    for (int start = 0; start < pendingMisses.size(); start += batchSize) {
+      List<Integer> batch = pendingMisses.subList(start, Math.min(pendingMisses.size(), start + batchSize));
+      List<String> texts = new ArrayList<>(batch.size());
+      for (int i : batch) {
+        texts.add(documents[i].text());
+      }
+      pending.add(evaluateBatchAsync(queryText, narrative, texts));
+    }
+
+    IOException failure = null;
+    for (int b = 0; b < pending.size(); b++) {
+      List<R> evaluated;
+      try {
+        evaluated = ModelHttpClient.join(pending.get(b));
+      } catch (IOException e) {
+        int first = b * batchSize;
+        int last = Math.min(pendingMisses.size(), first + batchSize);
+        failed.add(last - first);
+        for (int m = first; m < last; m++) {
+          pendingClaims.get(m).completeExceptionally(e);
+        }
+        if (failure == null) {
+          failure = e;
+        }
+        continue;
+      }
+      for (int j = 0; j < evaluated.size(); j++) {
+        int m = b * batchSize + j;
+        int i = pendingMisses.get(m);
+        results[i] = store(keys[i], evaluated.get(j));
+        pendingClaims.get(m).complete(results[i]);
+      }
+    }
+    if (failure != null) {
+      throw new IOException(getName() + " judgments failed and were not cached: " + failure.getMessage(), failure);
+    }
+  }
+
+  private LLMResult judge(long key, CompletableFuture<R> evaluation) throws IOException {
+    R result;
+    try {
+      result = ModelHttpClient.join(evaluation);
+    } catch (IOException e) {
+      failed.increment();
+      throw new IOException(getName() + " judgment failed and was not cached: " + e.getMessage(), e);
+    }
+    return store(key, result);
+  }
+
+  private static LLMResult await(CompletableFuture<LLMResult> running) throws IOException {
+    try {
+      return running.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof IOException io) {
+        throw new IOException("Coalesced judgment failed: " + io.getMessage(), io);
+      }
+      throw e;
+    }
+  }
+
+  private LLMResult lookup(long key) throws IOException {
+    LLMResult result = findLocked(key);
+    // A read-only cache may find it among the records its owner appended since
+    return result == null && readTail() ? findLocked(key) : result;
+  }
+
+  private LLMResult findLocked(long key) throws IOException {
+    cacheLock.readLock().lock();
+    try {
+      return find(key);
+    } finally {
+      cacheLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Delta first, then the index. Callers hold the read lock, so a merge cannot swap the index in between.
+   */
+  private LLMResult find(long key) throws IOException {
+    LLMResult result = delta.get(key);
+    if (result != null) {
+      return result;
+    }
+    long ordinal = index.find(key);
+    return ordinal >= 0 ? toLLMResult(readPayload(log.payload(ordinal))) : null;
+  }
+
+  private LLMResult store(long key, R evaluated) throws IOException {
+    LLMResult result = toLLMResult(evaluated);
+    cacheLock.writeLock().lock();
+    try {
+      delta.put(key, result);
+      if (log.isReadOnly()) {
+        return result; // kept for this run only
+      }
+      // Queueing under the lock keeps every record of this process in the delta before the next merge
+      deltaOrdinals.put(key, log.append(key, buffer -> writePayload(evaluated, buffer)));
+      if (deltaFull()) {
+        mergeDelta();
+      }
+    } finally {
+      cacheLock.writeLock().unlock();
+    }
+    return result;
+  }
+
+  private void addToDelta(long ordinal, long key, ByteBuffer payload) {
+    delta.put(key, toLLMResult(readPayload(payload)));
+    deltaOrdinals.put(key, ordinal);
+    readRecords = ordinal + 1;
+  }
+
+  /**
+   * Read the records the owner of a read-only log appended since they were last read.
+   *
+   * @return whether there were any
+   */
+  private boolean readTail() throws IOException {
+    if (!log.isReadOnly() || log.writtenRecords() <= readRecords) {
+      return false;
+    }
+    cacheLock.writeLock().lock();
+    try {
+      log.forEach(readRecords, this::addToDelta);
+    } finally {
+      cacheLock.writeLock().unlock();
+    }
+    return true;
+  }
+
+  private boolean deltaFull() {
+    return deltaOrdinals.size() >= Math.max(MIN_MERGE_KEYS, index.getEntries() / 8);
+  }
+
+  /**
+   * Write the delta into a new index covering the whole log. Callers hold the write lock (or own the cache).
+   */
+  private void mergeDelta() throws IOException {
+    // The index must only point at records that are on disk
+    log.flush();
+    index = JudgmentIndex.merge(indexFile, index, deltaOrdinals, log.size());
+    delta.clear();
+    deltaOrdinals.clear();
+  }
+
+  /**
+   * Append every valid line of a TSV file written by {@link #exportTsv} to the log.
+   *
+   * @return number of judgments imported
+   */
+  public long importTsv(Path tsv) throws IOException {
+    if (log.isReadOnly()) {
+      throw new IOException(cacheFile + " is locked by another process");
+    }
+    long imported = 0;
+    try (BufferedReader reader = Files.newBufferedReader(tsv, StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        String[] parts = line.split("\t");
+        R result = parts.length >= 2 ? parseResult(parts, 1) : null;
+        if (result != null) {
+          store(Long.parseUnsignedLong(parts[0], 16), result);
+          imported++;
+        }
+      }
+    }
+    return imported;
+  }
+
+  /**
+   * Write every record of the log, in log order, as TSV lines: the key in hexadecimal, then the result columns.
+   *
+   * @return number of judgments exported
+   */
+  public long exportTsv(Path tsv) throws IOException {
+    long[] exported = {0};
+    try (BufferedWriter writer = Files.newBufferedWriter(tsv, StandardCharsets.UTF_8)) {
+      log.forEach((ordinal, key, payload) -> {
+        writer.write(String.format("%016x\t%s\n", key, formatResult(readPayload(payload))));
+        exported[0]++;
+      });
+    }
+    return exported[0];
+  }
+
+  /**
+   * Carry the judgments of a legacy cache, keyed by topic number and Lucene doc id, over to content-addressed keys.
+   * Reads {@code legacyBaseName.bin} (binary log) or else {@code legacyBaseName.tsv}
+   * ({@code query_id \t doc_id \t} result columns) from the cache directory. The keys are resolved by
+   * {@code resolver} without any check, so it must use the index and query formulation the legacy cache was built
+   * with. A {@code legacyBaseName.migrated} marker records what was done. Judgments already cached are kept.
+   *
+   * @param resolvedWith description of the index and formulation behind {@code resolver}, for the marker
+   * @return number of judgments migrated
+   */
+  public long migrateLegacy(String legacyBaseName, LegacyJudgmentResolver resolver, String resolvedWith)
+      throws IOException {
+    Path bin = Paths.get(cacheDirectory, legacyBaseName + ".bin");
+    Path tsv = Paths.get(cacheDirectory, legacyBaseName + ".tsv");
+    Path marker = Paths.get(cacheDirectory, legacyBaseName + ".migrated");
+    if (!Files.exists(bin) && !Files.exists(tsv)) {
+      throw new FileNotFoundException("No " + legacyBaseName + ".bin or .tsv in " + cacheDirectory);
+    }
+    if (log.isReadOnly()) {
+      throw new IOException(cacheFile + " is locked by another process");
+    }
+
+    long[] counts = {0, 0}; // migrated, unresolved
+    Path source;
+    if (Files.exists(bin)) {
+      source = bin;
+      try (JudgmentLog legacy = new JudgmentLog(bin, payloadBytes)) {
+        legacy.forEach((ordinal, key, payload) -> migrateOne(JudgmentLog.queryId(key), JudgmentLog.docId(key),
+                                                             readPayload(payload), resolver, counts));
+      }
+    } else {
+      source = tsv;
+      try (BufferedReader reader = Files.newBufferedReader(tsv, StandardCharsets.UTF_8)) {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          String[] parts = line.split("\t");
+          R result = parts.length >= 3 ? parseResult(parts, 2) : null;
+          if (result != null) {
+            migrateOne(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]), result, resolver, counts);
+          }
+        }
+      }
+    }
+
+    Files.writeString(marker, counts[0] + " judgments migrated from " + source + " to " + cacheFile + ", resolved with "
+                              + resolvedWith + "\n");
+    System.out.println("Migrated " + counts[0] + " " + getName() + " judgments from " + source
+                       + (counts[1] > 0 ? " (" + counts[1] + " with unknown topic or document skipped)" : ""));
+    return counts[0];
+  }
+
+  /**
+   * Point out a legacy cache in the cache directory that has not been migrated yet.
+   */
+  public void noteLegacy(String legacyBaseName) {
+    Path marker = Paths.get(cacheDirectory, legacyBaseName + ".migrated");
+    for (String extension : new String[] { ".bin", ".tsv" }) {
+      Path legacy = Paths.get(cacheDirectory, legacyBaseName + extension);
+      if (Files.exists(legacy) && !Files.exists(marker)) {
+        System.err.println("Found legacy " + getName() + " judgments in " + legacy + "; they are not used until "
+                           + "migrated with the judgments migrate command");
+        return;
+      }
+    }
+  }
+
+  private void migrateOne(int queryId, int docId, R result, LegacyJudgmentResolver resolver, long[] counts)
+      throws IOException {
+    LegacyJudgmentResolver.Pair pair = resolver.resolve(queryId, docId);
+    if (pair == null) {
+      counts[1]++;
+      return;
+    }
+    long key = key(pair.queryText(), pair.narrative(), pair.document());
+    if (lookup(key) == null) {
+      store(key, result);
+    }
+    counts[0]++;
+  }
+
+  /**
+   * Drop superseded records from the log and rebuild the index over it. Must not run while another process uses
+   * the cache.
+   *
+   * @return number of records removed
+   */
+  public long compact() throws IOException {
+    cacheLock.writeLock().lock();
+    try {
+      long removed = log.compact();
+      // Ordinals changed, so the index starts over from the compacted log
+      delta.clear();
+      deltaOrdinals.clear();
+      index = JudgmentIndex.empty();
+      log.forEach(this::addToDelta);
+      mergeDelta();
+      return removed;
+    } finally {
+      cacheLock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Number of records in the log, superseded ones included.
+   */
+  public long getLogRecords() {
+    return log.size();
+  }
+
+  /**
+   * Number of distinct judgments in the cache.
+   */
+  public long size() {
+    cacheLock.readLock().lock();
+    try {
+      long size = index.getEntries();
+      for (long key : delta.keySet()) {
+        if (index.find(key) < 0) {
+          size++;
+        }
+      }
+      return size;
+    } finally {
+      cacheLock.readLock().unlock();
+    }
+  }
+
+  public long getHits() {
+    return hits.sum();
+  }
+
+  /**
+   * Misses sent to the scorer.
+   */
+  public long getJudged() {
+    return judged.sum();
+  }
+
+  public long getCoalesced() {
+    return coalesced.sum();
+  }
+
+  public long getFailed() {
+    return failed.sum();
+  }
+
+  @Override
+  public String summary() {
+    return String.format("%s cache: %d hits, %d judged, %d coalesced with in-flight judgments, %d failed (not cached)",
+                         getName(),
+                         hits.sum(),
+                         judged.sum(),
+                         coalesced.sum(),
+                         failed.sum());
+  }
+
+  /**
+   * Returns true if the cache is empty (no entries loaded).
+   */
+  @Override
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  @Override
+  public void close() throws IOException {
+    cacheLock.writeLock().lock();
+    try {
+      if (!deltaOrdinals.isEmpty() && !log.isReadOnly()) {
+        mergeDelta();
+      }
+    } finally {
+      cacheLock.writeLock().unlock();
+      log.close();
+    }
+  }
+}
@@ -0,0 +1,429 @@
+package org.irlab.ecir26.searcher.util.scorers;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * AIMD limit on the number of requests in flight to one model service.
+ * <p>
+ * Completed requests are observed in windows of at least {@value #MIN_WINDOW} samples (or the current limit, if
+ * larger). A window in which the limit was actually reached, with a p95 latency within {@value #LATENCY_TOLERANCE}
+ * times the baseline p95 and less than {@value #MAX_ERROR_RATE} errors, raises the limit by one. A window with
+ * degraded latency lowers it by {@value #LATENCY_BACKOFF}x. Timeouts, refused connections and 5xx responses halve it
+ * right away, at most once per generation of requests so that a burst of failures caused by the same overload only
+ * counts once. The baseline is the lowest p95 of the last {@value #BASELINE_WINDOWS} windows: queueing at the server
+ * shows up as a p95 rising above what a lower limit achieved recently, while a lasting change in document lengths
+ * becomes the new baseline once the older windows expire.
+ * <p>
+ * Requests waiting for a slot are admitted by group rather than in arrival order: while requests of the group admitted
+ * last are waiting, they get the free slots, up to {@value #MAX_BURST} in a row, and then the group that has waited
+ * longest takes over. Scorers group requests by the prompt prefix they share (the query), so that requests of
+ * concurrent topics arrive at the service in bursts per query instead of interleaved, which lets a server with prefix
+ * caching reuse the query's cached prefix across the burst. Grouping can be turned off with {@link #setGrouping}.
+ * <p>
+ * Waiting uses a {@link ReentrantLock} rather than monitors, so blocked virtual threads do not pin their carriers.
+ */
+public final class AdaptiveConcurrencyLimiter {
+
+  public static final int DEFAULT_INITIAL_LIMIT = 4;
+  public static final int DEFAULT_MAX_LIMIT = 64;
+
+  private static final int MIN_WINDOW = 10;
+  private static final double LATENCY_TOLERANCE = 1.5;
+  private static final double MAX_ERROR_RATE = 0.05;
+  private static final double LATENCY_BACKOFF = 0.9;
+  private static final double OVERLOAD_BACKOFF = 0.5;
+  private static final int BASELINE_WINDOWS = 20;
+  private static final long LOG_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+  private static final int MAX_BURST = 32;
+  private static final Object UNGROUPED = new Object();
+
+  /**
+   * Handed out by {@link #acquire()} and given back exactly once through one of the {@code on*} methods.
+   */
+  public record Permit(long startNanos, long generation) {
+  }
+
+  private final String name;
+  private final ReentrantLock lock = new ReentrantLock();
+
+  /**
+   * A request waiting for a slot; {@link #dispatch()} takes the slot on its behalf and wakes it up.
+   */
+  private final class Waiter {
+
+    final Object group;
+    final Condition admitted = lock.newCondition();
+    boolean hasSlot;
+
+    Waiter(Object group) {
+      this.group = group;
+    }
+  }
+
+  // Waiting requests by group, groups in the order they started waiting
+  private final LinkedHashMap<Object, ArrayDeque<Waiter>> waiting = new LinkedHashMap<>();
+  private int waiters;
+  private boolean grouping = true;
+  private Object burstKey;
+  private int burstLength;
+
+  // Bursts by group as the service sees them, whether or not grouping is on
+  private Object lastGroup;
+  private long bursts;
+  private long admitted;
+
+  private boolean adaptive = true;
+  private int maxLimit = DEFAULT_MAX_LIMIT;
+  private double limit = DEFAULT_INITIAL_LIMIT;
+  private int inFlight;
+  private long generation;
+
+  // Current window
+  private long[] latencies = new long[MIN_WINDOW];
+  private int samples;
+  private int errors;
+  private boolean saturated;
+  private final double[] recentP95 = new double[BASELINE_WINDOWS];
+  private int windows;
+  private double lastP95 = Double.NaN;
+
+  // Totals and throughput since the last log line
+  private long completed;
+  private long failed;
+  private long overloads;
+  private long completedSinceLog;
+  private long lastLogNanos = System.nanoTime();
+
+  public AdaptiveConcurrencyLimiter(String name) {
+    this.name = name;
+  }
+
+  /**
+   * Set the ceiling of the limit. With {@code adaptive} false the limit stays fixed at the ceiling.
+   */
+  public void configure(int maxLimit, boolean adaptive) {
+    lock.lock();
+    try {
+      this.maxLimit = Math.max(1, maxLimit);
+      this.adaptive = adaptive;
+      this.limit = adaptive ? Math.min(limit, this.maxLimit) : this.maxLimit;
+      dispatch();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Admit waiting requests in arrival order only, as if they all belonged to the same group.
+   */
+  public void setGrouping(boolean enabled) {
+    lock.lock();
+    try {
+      grouping = enabled;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Wait until fewer than {@link #getLimit()} requests are in flight and take a slot.
+   */
+  public Permit acquire() throws InterruptedException {
+    return acquire(null);
+  }
+
+  /**
+   * Like {@link #acquire()}, but admit the request along with the waiting requests of the same {@code group}.
+   *
+   * @param group compared with {@link Object#equals}; null for no group
+   */
+  public Permit acquire(Object group) throws InterruptedException {
+    lock.lock();
+    try {
+      Object key = grouping && group != null ? group : UNGROUPED;
+      if (waiters == 0 && inFlight < (int) limit) {
+        admit(key, group);
+        return new Permit(System.nanoTime(), generation);
+      }
+
+      Waiter waiter = new Waiter(group);
+      waiting.computeIfAbsent(key, k -> new ArrayDeque<>()).add(waiter);
+      waiters++;
+      try {
+        while (!waiter.hasSlot) {
+          waiter.admitted.await();
+        }
+      } catch (InterruptedException e) {
+        if (waiter.hasSlot) {
+          inFlight--; // admitted just before the interrupt: hand the slot on
+          dispatch();
+        } else {
+          ArrayDeque<Waiter> queue = waiting.get(key);
+          queue.remove(waiter);
+          if (queue.isEmpty()) {
+            waiting.remove(key);
+          }
+          waiters--;
+        }
+        throw e;
+      }
+      return new Permit(System.nanoTime(), generation);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Give free slots to waiting requests: the group admitted last while it has requests waiting and has not had
+   * {@value #MAX_BURST} slots in a row, otherwise the group waiting longest. Callers hold the lock.
+   */
+  private void dispatch() {
+    while (waiters > 0 && inFlight < (int) limit) {
+      Object next = null;
+      if (burstLength < MAX_BURST && waiting.containsKey(burstKey)) {
+        next = burstKey;
+      } else {
+        for (Object key : waiting.keySet()) {
+          next = key;
+          if (!key.equals(burstKey)) {
+            break;
+          }
+        }
+      }
+      ArrayDeque<Waiter> queue = waiting.get(next);
+      Waiter waiter = queue.poll();
+      if (queue.isEmpty()) {
+        waiting.remove(next);
+      }
+      waiters--;
+      admit(next, waiter.group);
+      waiter.hasSlot = true;
+      waiter.admitted.signal();
+    }
+  }
+
+  private void admit(Object key, Object group) {
+    inFlight++;
+    if (inFlight >= (int) limit) {
+      saturated = true;
+    }
+    if (key.equals(burstKey)) {
+      burstLength++;
+    } else {
+      burstKey = key;
+      burstLength = 1;
+    }
+    admitted++;
+    if (group == null || !group.equals(lastGroup)) {
+      lastGroup = group;
+      bursts++;
+    }
+  }
+
+  /**
+   * Take a slot only if one is free right away, allowing {@code headroom} requests beyond the limit. Meant for
+   * duplicates of requests that are already in flight, which would otherwise find the slots taken by the very
+   * requests they are meant to rescue.
+   *
+   * @return the permit, or null if the limit plus headroom is reached
+   */
+  public Permit tryAcquire(int headroom) {
+    lock.lock();
+    try {
+      if (inFlight >= (int) limit + headroom) {
+        return null;
+      }
+      inFlight++;
+      return new Permit(System.nanoTime(), generation);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * The request completed normally.
+   */
+  public void onSuccess(Permit permit) {
+    complete(permit, false, false);
+  }
+
+  /**
+   * The request failed for a reason unrelated to server load (e.g. a malformed response).
+   */
+  public void onError(Permit permit) {
+    complete(permit, true, false);
+  }
+
+  /**
+   * The request timed out, could not connect or got a 5xx response.
+   */
+  public void onOverload(Permit permit) {
+    complete(permit, true, true);
+  }
+
+  /**
+   * The request was abandoned by its caller (e.g. a hedged duplicate that lost); it says nothing about the server.
+   */
+  public void onCancelled(Permit permit) {
+    lock.lock();
+    try {
+      inFlight--;
+      dispatch();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public int getLimit() {
+    lock.lock();
+    try {
+      return (int) limit;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Requests holding a slot.
+   */
+  public int getInFlight() {
+    lock.lock();
+    try {
+      return inFlight;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Requests waiting for a slot.
+   */
+  public int getWaiting() {
+    lock.lock();
+    try {
+      return waiters;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * One-line report of the limiter state for the end-of-run summary.
+   */
+  public String summary() {
+    lock.lock();
+    try {
+      return String.format("%s concurrency limit %d%s | %d requests, %d failed, %d overload cuts | p95 %s"
+                           + " | %s dispatch, %d bursts (%.1f requests each)",
+                           name,
+                           (int) limit,
+                           adaptive ? " (adaptive, max " + maxLimit + ")" : " (fixed)",
+                           completed,
+                           failed,
+                           overloads,
+                           formatMillis(lastP95),
+                           grouping ? "grouped" : "FIFO",
+                           bursts,
+                           bursts > 0 ? (double) admitted / bursts : 0.0);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void complete(Permit permit, boolean error, boolean overload) {
+    long now = System.nanoTime();
+    lock.lock();
+    try {
+      inFlight--;
+      completed++;
+      completedSinceLog++;
+      if (error) {
+        failed++;
+      }
+
+      if (adaptive) {
+        if (overload && permit.generation() == generation) {
+          // Requests sent before this cut saw the old limit; their failures must not cut again
+          limit = Math.max(1, limit * OVERLOAD_BACKOFF);
+          generation++;
+          overloads++;
+          resetWindow();
+          log(now, "overload");
+        } else {
+          record(now - permit.startNanos(), error, now);
+        }
+      }
+
+      if (now - lastLogNanos >= LOG_INTERVAL_NANOS) {
+        log(now, null);
+      }
+      dispatch();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void record(long latencyNanos, boolean error, long now) {
+    if (samples == latencies.length) {
+      latencies = Arrays.copyOf(latencies, samples * 2);
+    }
+    latencies[samples++] = latencyNanos;
+    if (error) {
+      errors++;
+    }
+    if (samples < Math.max(MIN_WINDOW, (int) limit)) {
+      return;
+    }
+
+    Arrays.sort(latencies, 0, samples);
+    double p95 = latencies[Math.min(samples - 1, (int) Math.ceil(0.95 * samples) - 1)];
+    double errorRate = (double) errors / samples;
+    boolean wasSaturated = saturated;
+    lastP95 = p95;
+    recentP95[windows++ % BASELINE_WINDOWS] = p95;
+    double baselineP95 = Double.POSITIVE_INFINITY;
+    for (int w = 0; w < Math.min(windows, BASELINE_WINDOWS); w++) {
+      baselineP95 = Math.min(baselineP95, recentP95[w]);
+    }
+    resetWindow();
+
+    double previous = limit;
+    if (p95 > LATENCY_TOLERANCE * baselineP95 || errorRate >= MAX_ERROR_RATE) {
+      limit = Math.max(1, limit * LATENCY_BACKOFF);
+    } else if (wasSaturated) {
+      limit = Math.min(maxLimit, limit + 1);
+    }
+    if ((int) limit != (int) previous) {
+      log(now, null);
+      dispatch();
+    }
+  }
+
+  private void resetWindow() {
+    samples = 0;
+    errors = 0;
+    saturated = false;
+  }
+
+  private void log(long now, String reason) {
+    double seconds = (now - lastLogNanos) / 1e9;
+    System.out.printf("[%s] concurrency limit %d (in flight %d, p95 %s, %.1f req/s)%s%n",
+                      name,
+                      (int) limit,
+                      inFlight,
+                      formatMillis(lastP95),
+                      seconds > 0 ? completedSinceLog / seconds : 0.0,
+                      reason != null ? " after " + reason : "");
+    completedSinceLog = 0;
+    lastLogNanos = now;
+  }
+
+  private static String formatMillis(double nanos) {
+    return Double.isNaN(nanos) ? "n/a" : String.format("%.0f ms", nanos / 1e6);
+  }
+}
@@ -0,0 +1,251 @@
+package org.irlab.ecir26.searcher.util.scorers;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Two-stage judgments: every document is judged by a cheap scorer first, and only those whose {@code probTrue} falls
+ * inside an uncertainty band {@code [low, high]} are judged again by an expensive one, whose verdict replaces the
+ * first. Documents outside the band keep the cheap judgment and never reach the expensive model.
+ * <p>
+ * The cascade reports the expensive scorer's calls during the run against the calls it avoided: distinct documents the
+ * cheap stage answered alone whose expensive judgment is not cached. Separately, it reports the escalation rate of its
+ * lookups, which repeat whenever a configuration or the prefetch looks up the same feedback set again, and how often
+ * the two stages agree inside the band. To estimate what skipping the expensive model costs outside the band, a
+ * fraction of the confident documents can also be judged by both stages ({@code auditRate}); audit judgments are only
+ * counted, never used. The audit sample is chosen by a hash of the query and document, so repeated runs audit (and
+ * cache) the same documents.
+ * <p>
+ * Both stages spend the same judging allowance, escalations before audits. The cascade does not own its stages:
+ * closing it leaves them open.
+ */
+public final class CascadeCache implements LLMCache {
+
+  public static final double DEFAULT_LOW = 0.2;
+  public static final double DEFAULT_HIGH = 0.8;
+
+  private final LLMCache cheap;
+  private final LLMCache expensive;
+  private final String cheapName;
+  private final String expensiveName;
+  private final double low;
+  private final double high;
+  private final double auditRate;
+  private final AbstractLLMCache<?> expensiveJudgments;
+  private final long expensiveCallsBefore;
+
+  private final LongAdder documents = new LongAdder();
+  private final LongAdder escalated = new LongAdder();
+  private final LongAdder escalatedAgreed = new LongAdder();
+  private final LongAdder audited = new LongAdder();
+  private final LongAdder auditedAgreed = new LongAdder();
+  // Expensive keys of the documents answered by the cheap stage alone, each counted once
+  private final Set<Long> confident = ConcurrentHashMap.newKeySet();
+  private final LongAdder avoided = new LongAdder();
+
+  /**
+   * @param expensiveJudgments the cache behind the expensive stage, whose calls and contents the summary reports on
+   * @param low                lowest cheap {@code probTrue} that is escalated
+   * @param high               highest cheap {@code probTrue} that is escalated
+   * @param auditRate          fraction of the documents outside the band also judged by the expensive stage, for
+   *                           the agreement report only
+   */
+  public CascadeCache(LLMCache cheap, String cheapName, LLMCache expensive, String expensiveName,
+                      AbstractLLMCache<?> expensiveJudgments, double low, double high, double auditRate) {
+    if (low > high) {
+      throw new IllegalArgumentException("Empty uncertainty band [" + low + ", " + high + "]");
+    }
+    this.cheap = cheap;
+    this.expensive = expensive;
+    this.cheapName = cheapName;
+    this.expensiveName = expensiveName;
+    this.low = low;
+    this.high = high;
+    this.auditRate = auditRate;
+    this.expensiveJudgments = expensiveJudgments;
+    this.expensiveCallsBefore = expensiveJudgments.getJudged();
+  }
+
+  /**
+   * The band as it should appear in run names and expansion cache keys; the audit does not change results.
+   */
+  public String label() {
+    return String.format("band%.2f-%.2f", low, high);
+  }
+
+  @Override
+  public LLMResult get(String queryText, String narrative, LLMDocument document) throws IOException {
+    LLMResult first = cheap.get(queryText, narrative, document);
+    documents.increment();
+    if (!escalate(first)) {
+      if (audit(queryText, document.docno())) {
+        record(first, expensive.get(queryText, narrative, document), audited, auditedAgreed);
+      }
+      countAvoided(queryText, narrative, document);
+      return first;
+    }
+    LLMResult second = expensive.get(queryText, narrative, document);
+    record(first, second, escalated, escalatedAgreed);
+    return second;
+  }
+
+  @Override
+  public LLMResult[] getAll(String queryText, String narrative, int[] docIds, DocumentLoader documentLoader,
+                            JudgingBudget.Allowance allowance) throws IOException {
+    // Both stages key judgments by content, so each document would otherwise be read twice
+    Int2ObjectOpenHashMap<LLMDocument> loaded = new Int2ObjectOpenHashMap<>(docIds.length);
+    DocumentLoader memo = docId -> {
+      LLMDocument document = loaded.get(docId);
+      if (document == null) {
+        document = documentLoader.load(docId);
+        loaded.put(docId, document);
+      }
+      return document;
+    };
+
+    LLMResult[] results = cheap.getAll(queryText, narrative, docIds, memo, allowance);
+
+    int[] escalate = new int[docIds.length];
+    int escalations = 0;
+    int[] audit = new int[docIds.length];
+    int audits = 0;
+    int answered = 0;
+    for (int i = 0; i < docIds.length; i++) {
+      if (results[i] == null) {
+        continue; // not judged within the budget
+      }
+      answered++;
+      if (escalate(results[i])) {
+        escalate[escalations++] = i;
+      } else if (audit(queryText, memo.load(docIds[i]).docno())) {
+        audit[audits++] = i;
+      }
+    }
+    if (escalations + audits == 0) {
+      documents.add(answered);
+      countAvoided(queryText, narrative, docIds, memo, results);
+      return results;
+    }
+
+    // One lookup for both, so escalated and audited misses share the expensive stage's batches
+    int[] second = new int[escalations + audits];
+    for (int j = 0; j < escalations; j++) {
+      second[j] = docIds[escalate[j]];
+    }
+    for (int j = 0; j < audits; j++) {
+      second[escalations + j] = docIds[audit[j]];
+    }
+    LLMResult[] judged = expensive.getAll(queryText, narrative, second, memo, allowance);
+
+    for (int j = 0; j < escalations; j++) {
+      int i = escalate[j];
+      if (judged[j] != null) {
+        record(results[i], judged[j], escalated, escalatedAgreed);
+      } else {
+        answered--; // left unjudged: the budget ran out before the expensive stage
+      }
+      results[i] = judged[j];
+    }
+    for (int j = 0; j < audits; j++) {
+      if (judged[escalations + j] != null) {
+        record(results[audit[j]], judged[escalations + j], audited, auditedAgreed);
+      }
+    }
+    documents.add(answered);
+    countAvoided(queryText, narrative, docIds, memo, results);
+    return results;
+  }
+
+  /**
+   * Count the documents the cheap stage answered alone that this run has not counted yet and whose expensive
+   * judgment is not cached, each of which would have cost an expensive call without the cascade. Audited documents
+   * are cached by then, so they are not counted.
+   */
+  private void countAvoided(String queryText, String narrative, int[] docIds, DocumentLoader documentLoader,
+                            LLMResult[] results) throws IOException {
+    for (int i = 0; i < docIds.length; i++) {
+      if (results[i] != null && !escalate(results[i])) {
+        countAvoided(queryText, narrative, documentLoader.load(docIds[i]));
+      }
+    }
+  }
+
+  private void countAvoided(String queryText, String narrative, LLMDocument document) throws IOException {
+    if (confident.add(expensiveJudgments.key(queryText, narrative, document))
+        && !expensiveJudgments.contains(queryText, narrative, document)) {
+      avoided.increment();
+    }
+  }
+
+  private boolean escalate(LLMResult first) {
+    return first.probTrue >= low && first.probTrue <= high;
+  }
+
+  private boolean audit(String queryText, String docno) {
+    return JudgmentKey.sampled(auditRate, queryText, docno);
+  }
+
+  private static void record(LLMResult first, LLMResult second, LongAdder count, LongAdder agreed) {
+    count.increment();
+    if (first.isRelevant == second.isRelevant) {
+      agreed.increment();
+    }
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return cheap.isEmpty() && expensive.isEmpty();
+  }
+
+  /**
+   * Expensive calls made and avoided, then escalation rate and agreement of the two stages over the lookups, for the
+   * end-of-run summary.
+   */
+  @Override
+  public String summary() {
+    long total = documents.sum();
+    long up = escalated.sum();
+    long audit = audited.sum();
+    String summary = String.format(
+        "Cascade %s -> %s in [%.2f, %.2f] | %d %s calls made (escalations and audits), %d avoided (distinct"
+        + " documents answered by %s alone, with no %s judgment cached)%n",
+        cheapName,
+        expensiveName,
+        low,
+        high,
+        expensiveJudgments.getJudged() - expensiveCallsBefore,
+        expensiveName,
+        avoided.sum(),
+        cheapName,
+        expensiveName);
+    summary += String.format(
+        "Cascade lookups, with repeats | %d lookups, %d escalated (%s), %d answered by %s alone (%s)"
+        + " | agreement on escalated %s (%d flipped)",
+        total,
+        up,
+        percent(up, total),
+        total - up,
+        cheapName,
+        percent(total - up, total),
+        percent(escalatedAgreed.sum(), up),
+        up - escalatedAgreed.sum());
+    if (auditRate > 0) {
+      summary += String.format(" | audit of confident documents: %d judged, agreement %s",
+                               audit,
+                               percent(auditedAgreed.sum(), audit));
+    }
+    return summary;
+  }
+
+  private static String percent(long part, long whole) {
+    return whole > 0 ? String.format("%.1f%%", 100.0 * part / whole) : "n/a";
+  }
+
+  @Override
+  public void close() {
+  }
+}
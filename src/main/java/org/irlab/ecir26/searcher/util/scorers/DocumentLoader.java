@@ -0,0 +1,13 @@
+package org.irlab.ecir26.searcher.util.scorers;
+
+import java.io.IOException;
+
+/**
+ * Loads the docno and text of a document on demand, so batched lookups can build content-addressed keys without the
+ * caller reading every document up front.
+ */
+@FunctionalInterface
+public interface DocumentLoader {
+
+  LLMDocument load(int docId) throws IOException;
+}
@@ -0,0 +1,348 @@
+package org.irlab.ecir26.searcher.util.scorers;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Replicas of one model service (for example one server per GPU). Each request goes to the endpoint with the fewest
+ * requests in flight, so a replica that is slower, or busy with longer documents, gets less work; ties rotate.
+ * <p>
+ * An endpoint that fails {@value #EJECT_AFTER_FAILURES} requests in a row with a refused connection, a timeout or a
+ * 5xx response is ejected and no longer chosen. While ejected it is probed with {@code GET /health} every
+ * {@value #PROBE_INTERVAL_SECONDS} seconds and re-admitted on the first successful answer. If every endpoint is
+ * ejected, requests still go to the least loaded one rather than failing without being sent.
+ * <p>
+ * The pool also tracks the p95 latency of recent successful requests over all replicas, which is how long
+ * {@link ModelHttpClient} waits before hedging a request, and counts requests, bytes on the wire, retries, hedges and
+ * missed deadlines, with the latency distribution of all requests, for {@link ScorerMetrics}.
+ */
+public final class EndpointPool {
+
+  private static final int EJECT_AFTER_FAILURES = 3;
+  private static final long PROBE_INTERVAL_SECONDS = 2;
+  private static final int LATENCY_SAMPLES = 1024;
+  private static final int MIN_HEDGE_SAMPLES = 20;
+  private static final int HEDGE_DELAY_REFRESH = 64;
+
+  private static final ScheduledExecutorService prober = Executors.newSingleThreadScheduledExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "endpoint-prober");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  /**
+   * One replica: its base URI, the requests in flight to it and its latency statistics.
+   */
+  public static final class Endpoint {
+
+    private final EndpointPool pool;
+    private final URI base;
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private volatile boolean ejected;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private int consecutiveFailures;
+    private long requests;
+    private long failures;
+    private long ejections;
+    private long totalNanos;
+    private final long[] recentNanos = new long[LATENCY_SAMPLES]; // ring buffer for the p95
+    private int recentCount;
+
+    private Endpoint(EndpointPool pool, URI base) {
+      this.pool = pool;
+      this.base = base;
+    }
+
+    public URI resolve(String path) {
+      return base.resolve(path);
+    }
+
+    /**
+     * Record the outcome of a request sent through {@link EndpointPool#acquire()}.
+     *
+     * @param overload true for refused connections, timeouts and 5xx responses, which count towards ejection
+     */
+    void release(long startNanos, boolean error, boolean overload) {
+      long nanos = System.nanoTime() - startNanos;
+      outstanding.decrementAndGet();
+      boolean eject = false;
+      lock.lock();
+      try {
+        requests++;
+        totalNanos += nanos;
+        recentNanos[recentCount++ % LATENCY_SAMPLES] = nanos;
+        pool.requests.increment();
+        pool.latency.record(nanos);
+        if (error) {
+          failures++;
+          pool.failures.increment();
+        } else {
+          pool.recordSuccess(nanos);
+        }
+        if (overload) {
+          consecutiveFailures++;
+          if (consecutiveFailures >= EJECT_AFTER_FAILURES && !ejected) {
+            ejected = true;
+            ejections++;
+            eject = true;
+          }
+        } else if (!error) {
+          consecutiveFailures = 0;
+        }
+      } finally {
+        lock.unlock();
+      }
+      if (eject) {
+        System.err.printf("%s endpoint %s ejected after %d consecutive failures%n",
+                          pool.name, base, EJECT_AFTER_FAILURES);
+        scheduleProbe();
+      }
+    }
+
+    /**
+     * Forget a request sent through {@link EndpointPool#acquire} that was abandoned before it completed.
+     */
+    void cancel() {
+      outstanding.decrementAndGet();
+    }
+
+    private void scheduleProbe() {
+      prober.schedule(this::probe, PROBE_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private void probe() {
+      ModelHttpClient.isHealthy(base.resolve("/health")).thenAccept(healthy -> {
+        if (!healthy) {
+          scheduleProbe();
+          return;
+        }
+        lock.lock();
+        try {
+          consecutiveFailures = 0;
+          ejected = false;
+        } finally {
+          lock.unlock();
+        }
+        System.err.printf("%s endpoint %s re-admitted%n", pool.name, base);
+      });
+    }
+
+    private String summary() {
+      lock.lock();
+      try {
+        int samples = Math.min(recentCount, LATENCY_SAMPLES);
+        long[] sorted = Arrays.copyOf(recentNanos, samples);
+        Arrays.sort(sorted);
+        return String.format("  %s%s | %d requests, %d failed, %d ejections | mean %s, p95 %s",
+                             base,
+                             ejected ? " (ejected)" : "",
+                             requests,
+                             failures,
+                             ejections,
+                             formatMillis(requests > 0 ? totalNanos / (double) requests : Double.NaN),
+                             formatMillis(samples > 0 ? sorted[(int) Math.ceil(0.95 * samples) - 1] : Double.NaN));
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  private final String name;
+  private volatile Endpoint[] endpoints;
+  private final AtomicInteger rotation = new AtomicInteger();
+
+  // Latency of recent successful requests, for the hedge delay
+  private final ReentrantLock latencyLock = new ReentrantLock();
+  private final long[] successNanos = new long[LATENCY_SAMPLES];
+  private int successCount;
+  private volatile long hedgeDelayNanos = -1;
+
+  private final LongAdder requests = new LongAdder();
+  private final LongAdder failures = new LongAdder();
+  private final LatencyHistogram latency = new LatencyHistogram();
+  private final LongAdder bytesSent = new LongAdder();
+  private final LongAdder bytesReceived = new LongAdder();
+  private final LongAdder retries = new LongAdder();
+  private final LongAdder hedges = new LongAdder();
+  private final LongAdder hedgesWon = new LongAdder();
+  private final LongAdder deadlineMisses = new LongAdder();
+
+  /**
+   * @param baseUris comma-separated base URIs of the replicas, e.g. {@code http://gpu0:5000,http://gpu1:5000}
+   */
+  public EndpointPool(String name, String baseUris) {
+    this.name = name;
+    setEndpoints(baseUris);
+  }
+
+  /**
+   * Replace the replicas (statistics start over). Meant for start-up, before requests are sent.
+   */
+  public void setEndpoints(String baseUris) {
+    List<Endpoint> parsed = new ArrayList<>();
+    for (String uri : baseUris.split(",")) {
+      if (!uri.isBlank()) {
+        parsed.add(new Endpoint(this, URI.create(uri.strip())));
+      }
+    }
+    if (parsed.isEmpty()) {
+      throw new IllegalArgumentException("No " + name + " endpoints in '" + baseUris + "'");
+    }
+    endpoints = parsed.toArray(new Endpoint[0]);
+  }
+
+  /**
+   * The admitted endpoint with the fewest requests in flight (or the least loaded of all, if none is admitted),
+   * already counting the caller's request; hand it back with {@link Endpoint#release}.
+   */
+  Endpoint acquire() {
+    return acquire(null);
+  }
+
+  /**
+   * Like {@link #acquire()}, but choose {@code avoid} only if no other endpoint is admitted, so that a retry or a
+   * hedge goes to another replica when there is one.
+   */
+  Endpoint acquire(Endpoint avoid) {
+    Endpoint[] current = endpoints;
+    int start = Math.floorMod(rotation.getAndIncrement(), current.length);
+    Endpoint best = null;
+    Endpoint bestEjected = null;
+    for (int i = 0; i < current.length; i++) {
+      Endpoint endpoint = current[(start + i) % current.length];
+      if (!endpoint.ejected && endpoint != avoid) {
+        if (best == null || endpoint.outstanding.get() < best.outstanding.get()) {
+          best = endpoint;
+        }
+      } else if (bestEjected == null || endpoint.outstanding.get() < bestEjected.outstanding.get()) {
+        bestEjected = endpoint;
+      }
+    }
+    if (best == null && avoid != null && !avoid.ejected) {
+      best = avoid;
+    }
+    Endpoint chosen = best != null ? best : bestEjected;
+    chosen.outstanding.incrementAndGet();
+    return chosen;
+  }
+
+  /**
+   * p95 latency of recent successful requests, or -1 until enough have completed.
+   */
+  long hedgeDelayNanos() {
+    return hedgeDelayNanos;
+  }
+
+  void onSent(int bytes) {
+    bytesSent.add(bytes);
+  }
+
+  void onReceived(int bytes) {
+    bytesReceived.add(bytes);
+  }
+
+  void onRetry() {
+    retries.increment();
+  }
+
+  void onHedge() {
+    hedges.increment();
+  }
+
+  void onHedgeWon() {
+    hedgesWon.increment();
+  }
+
+  void onDeadlineMissed() {
+    deadlineMisses.increment();
+  }
+
+  public long getRequests() {
+    return requests.sum();
+  }
+
+  public long getFailures() {
+    return failures.sum();
+  }
+
+  /**
+   * Latency of every completed request, failed ones included.
+   */
+  public LatencyHistogram getLatency() {
+    return latency;
+  }
+
+  public long getBytesSent() {
+    return bytesSent.sum();
+  }
+
+  public long getBytesReceived() {
+    return bytesReceived.sum();
+  }
+
+  public long getRetries() {
+    return retries.sum();
+  }
+
+  public long getHedges() {
+    return hedges.sum();
+  }
+
+  public long getDeadlineMisses() {
+    return deadlineMisses.sum();
+  }
+
+  private void recordSuccess(long nanos) {
+    latencyLock.lock();
+    try {
+      successNanos[successCount++ % LATENCY_SAMPLES] = nanos;
+      // Refreshed every few successes: sorting the samples on every one would cost more than it saves
+      boolean refresh = successCount == MIN_HEDGE_SAMPLES
+                        || successCount > MIN_HEDGE_SAMPLES && successCount % HEDGE_DELAY_REFRESH == 0;
+      if (refresh) {
+        int samples = Math.min(successCount, LATENCY_SAMPLES);
+        long[] sorted = Arrays.copyOf(successNanos, samples);
+        Arrays.sort(sorted);
+        hedgeDelayNanos = sorted[(int) Math.ceil(0.95 * samples) - 1];
+      }
+    } finally {
+      latencyLock.unlock();
+    }
+  }
+
+  /**
+   * Retries, hedges, latency percentiles and traffic, and per-endpoint request counts and latencies, for the
+   * end-of-run summary.
+   */
+  public String summary() {
+    StringBuilder summary = new StringBuilder(name).append(String.format(
+        " endpoints: %d retries, %d hedged requests (%d won), %d missed deadlines | latency p50 %s, p99 %s, p99.9 %s"
+        + " | %.1f MB sent, %.1f MB received",
+        retries.sum(),
+        hedges.sum(),
+        hedgesWon.sum(),
+        deadlineMisses.sum(),
+        formatMillis(latency.percentileNanos(0.5)),
+        formatMillis(latency.percentileNanos(0.99)),
+        formatMillis(latency.percentileNanos(0.999)),
+        bytesSent.sum() / 1e6,
+        bytesReceived.sum() / 1e6));
+    for (Endpoint endpoint : endpoints) {
+      summary.append(System.lineSeparator()).append(endpoint.summary());
+    }
+    return summary.toString();
+  }
+
+  private static String formatMillis(double nanos) {
+    return Double.isNaN(nanos) ? "n/a" : String.format("%.0f ms", nanos / 1e6);
+  }
+}
@@ -0,0 +1,166 @@
+package org.irlab.ecir26.searcher.util.scorers;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * How many scorer calls the feedback judgments of a search may cost, and when a topic has been judged enough.
+ * <p>
+ * Cache hits are free; every document sent to a scorer costs one call. Calls come out of a budget for the whole search
+ * and out of a budget for each topic, shared by all the depths it is searched at, and are spent in retrieval-rank
+ * order: a document is only sent once every document ranked above it has been judged. Documents the budget cannot pay
+ * for are not judged, the feedback set (the top k documents of a topic at one depth) is incomplete, and its topic
+ * fails with {@link ExhaustedException}; the judgments made until then are cached, so rerunning the same command with a
+ * new allowance continues where the last one stopped. Budgets therefore decide how far a search gets, never what it
+ * writes.
+ * <p>
+ * The stop rule does change results: once {@code stopAfterRelevant} documents of a feedback set have been judged
+ * relevant, the documents ranked below are not judged and not used. To keep the judgments past the stop rank few,
+ * feedback sets with a stop rule are looked up {@code step} documents at a time.
+ */
+public final class JudgingBudget {
+
+  /**
+   * Thrown when a feedback set could not be judged completely within the budget.
+   */
+  public static final class ExhaustedException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public ExhaustedException(String message) {
+      super(message);
+    }
+  }
+
+  private final long calls;
+  private final AtomicLong remaining;
+  private final int topicCalls;
+  private final int stopAfterRelevant;
+  private final int step;
+  private final ConcurrentHashMap<String, Allowance> topics = new ConcurrentHashMap<>();
+
+  private final LongAdder spent = new LongAdder();
+  private final LongAdder refused = new LongAdder();
+  private final LongAdder exhausted = new LongAdder();
+  private final LongAdder stopped = new LongAdder();
+  private final LongAdder notJudged = new LongAdder();
+
+  /**
+   * @param calls             scorer calls for the whole search; 0 for no limit
+   * @param topicCalls        scorer calls for each topic; 0 for no limit
+   * @param stopAfterRelevant stop judging a feedback set after this many relevant documents; 0 to judge to depth k
+   * @param step              documents looked up at a time when there is a stop rule
+   */
+  public JudgingBudget(long calls, int topicCalls, int stopAfterRelevant, int step) {
+    this.calls = Math.max(0, calls);
+    this.remaining = new AtomicLong(this.calls > 0 ? this.calls : Long.MAX_VALUE);
+    this.topicCalls = Math.max(0, topicCalls);
+    this.stopAfterRelevant = Math.max(0, stopAfterRelevant);
+    this.step = Math.max(1, step);
+  }
+
+  /**
+   * No budget and no stop rule.
+   */
+  public static JudgingBudget unlimited() {
+    return new JudgingBudget(0, 0, 0, 1);
+  }
+
+  public boolean isLimited() {
+    return calls > 0 || topicCalls > 0;
+  }
+
+  public int getStopAfterRelevant() {
+    return stopAfterRelevant;
+  }
+
+  /**
+   * Documents to look up at a time for a feedback set of {@code depth} documents.
+   */
+  public int getStep(int depth) {
+    return stopAfterRelevant > 0 ? step : Math.max(1, depth);
+  }
+
+  /**
+   * Calls the topic may still spend, within what is left of the search budget.
+   *
+   * @param topic identifies the topic, e.g. its query text
+   */
+  public Allowance allowance(String topic) {
+    return topics.computeIfAbsent(topic, t -> new Allowance());
+  }
+
+  /**
+   * Record that the stop rule left the {@code skipped} documents ranked below it unjudged.
+   */
+  public void onStopped(int skipped) {
+    stopped.increment();
+    notJudged.add(skipped);
+  }
+
+  /**
+   * Record a feedback set that ran out of budget at {@code rank} (1-based) of {@code depth}, and build the exception
+   * that fails its topic.
+   */
+  public ExhaustedException exhausted(int rank, int depth) {
+    exhausted.increment();
+    return new ExhaustedException(String.format(
+        "Judging budget exhausted at rank %d of %d; the judgments made so far are cached, rerun to continue",
+        rank,
+        depth));
+  }
+
+  private int take(int wanted) {
+    while (true) {
+      long left = remaining.get();
+      int granted = (int) Math.min(wanted, left);
+      if (granted == 0 || remaining.compareAndSet(left, left - granted)) {
+        return granted;
+      }
+    }
+  }
+
+  /**
+   * Calls spent, feedback sets that ran out of budget and feedback sets cut short by the stop rule, for the end-of-run
+   * summary.
+   */
+  public String summary() {
+    return String.format("Judging budget %s calls, %s per topic, %s | %d calls spent, %d refused,"
+                         + " %d feedback sets out of budget | %d feedback sets stopped early, %d documents not judged",
+                         calls > 0 ? String.valueOf(calls) : "unlimited",
+                         topicCalls > 0 ? String.valueOf(topicCalls) : "unlimited",
+                         stopAfterRelevant > 0 ? "stop after " + stopAfterRelevant + " relevant" : "no stop rule",
+                         spent.sum(),
+                         refused.sum(),
+                         exhausted.sum(),
+                         stopped.sum(),
+                         notJudged.sum());
+  }
+
+  /**
+   * The calls one topic may still spend.
+   */
+  public final class Allowance {
+
+    private final AtomicInteger left = new AtomicInteger(topicCalls > 0 ? topicCalls : Integer.MAX_VALUE);
+
+    private Allowance() {
+    }
+
+    /**
+     * Spend up to {@code wanted} calls and return how many were granted; callers judge that many documents, in rank
+     * order, and leave the rest unjudged.
+     */
+    public int reserve(int wanted) {
+      int fromTopic = left.getAndUpdate(l -> l - Math.min(wanted, l));
+      int granted = take(Math.min(wanted, fromTopic));
+      left.addAndGet(Math.min(wanted, fromTopic) - granted); // what the search budget could not match goes back
+      spent.add(granted);
+      refused.add(wanted - granted);
+      return granted;
+    }
+  }
+}
@@ -0,0 +1,138 @@
+package org.irlab.ecir26.searcher.util.scorers;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.store.FSDirectory;
+import org.irlab.ecir26.searcher.TRECSearcherLucene;
+import org.irlab.ecir26.searcher.util.TRECUtils;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Offline maintenance of the binary LLM judgment caches.
+ * <ul>
+ *   <li>{@code import --tsv <file>} appends the judgments of a TSV file written by {@code export}</li>
+ *   <li>{@code export --tsv <file>} writes every log record as a TSV line (key in hexadecimal, then the result)</li>
+ *   <li>{@code compact} drops superseded records (run it while no search is using the cache)</li>
+ *   <li>{@code stats} prints the number of records and distinct judgments</li>
+ *   <li>{@code migrate --index <path> --topics <file> --search_by <query type>} carries over a cache of an older
+ *   version, keyed by topic number and Lucene doc id, resolving its keys through the given index and topics</li>
+ * </ul>
+ * The cache is selected with {@code --cache_dir} and {@code --scorer monot5|vllm}. Migration is never automatic: the
+ * legacy keys can only be resolved through the index they were made on and the formulation they were judged for,
+ * which only the user knows.
+ */
+public class JudgmentCacheTool {
+
+  public static void main(String[] args) throws IOException {
+    if (args.length == 0) {
+      printUsage();
+      System.exit(1);
+    }
+
+    String action = args[0];
+    String cacheDir = null;
+    String scorer = "monot5";
+    String tsv = null;
+    String indexPath = null;
+    String topicsPath = null;
+    String searchBy = null;
+
+    for (int i = 1; i < args.length; i++) {
+      switch (args[i]) {
+        case "--cache_dir":
+          cacheDir = args[++i];
+          break;
+        case "--scorer":
+          scorer = args[++i].toLowerCase();
+          break;
+        case "--tsv":
+          tsv = args[++i];
+          break;
+        case "--index":
+          indexPath = args[++i];
+          break;
+        case "--topics":
+          topicsPath = args[++i];
+          break;
+        case "--search_by":
+          searchBy = args[++i];
+          break;
+        default:
+          System.err.println("Unknown argument: " + args[i]);
+          printUsage();
+          System.exit(1);
+      }
+    }
+
+    if (cacheDir == null || ((action.equals("import") || action.equals("export")) && tsv == null)
+        || (action.equals("migrate") && (indexPath == null || topicsPath == null || searchBy == null))) {
+      printUsage();
+      System.exit(1);
+    }
+
+    AbstractLLMCache<?> cache = switch (scorer) {
+      case "monot5" -> MonoT5Cache.open(cacheDir);
+      case "vllm" -> VLLMCache.open(cacheDir);
+      default -> throw new IllegalArgumentException("Unknown scorer: " + scorer);
+    };
+
+    try (cache) {
+      long start = System.currentTimeMillis();
+      switch (action) {
+        case "import":
+          System.out.println("Imported " + cache.importTsv(Paths.get(tsv)) + " judgments from " + tsv);
+          break;
+        case "export":
+          System.out.println("Exported " + cache.exportTsv(Paths.get(tsv)) + " judgments to " + tsv);
+          break;
+        case "compact":
+          System.out.println("Removed " + cache.compact() + " superseded records from " + cache.cacheFile);
+          break;
+        case "stats":
+          break;
+        case "migrate":
+          migrate(cache, scorer, indexPath, topicsPath, searchBy);
+          break;
+        default:
+          System.err.println("Unknown action: " + action);
+          printUsage();
+          System.exit(1);
+      }
+      System.out.printf("%s: %d records, %d distinct judgments (%d ms)%n",
+                        cache.cacheFile,
+                        cache.getLogRecords(),
+                        cache.size(),
+                        System.currentTimeMillis() - start);
+    }
+  }
+
+  private static void migrate(AbstractLLMCache<?> cache, String scorer, String indexPath, String topicsPath,
+                              String searchBy) throws IOException {
+    String legacyBaseName;
+    if (scorer.equals("monot5")) {
+      legacyBaseName = MonoT5Cache.LEGACY_BASE_NAME;
+      System.out.println("Note: " + legacyBaseName + " was shared by every query formulation; its judgments are "
+                         + "attributed to --search_by " + searchBy);
+    } else {
+      legacyBaseName = VLLMCache.legacyBaseName(searchBy);
+    }
+    try (DirectoryReader reader = DirectoryReader.open(FSDirectory.open(Paths.get(indexPath)))) {
+      IndexSearcher searcher = new IndexSearcher(reader);
+      List<TRECUtils.Topic> topics = TRECUtils.parseTRECTopics(topicsPath);
+      LegacyJudgmentResolver resolver = TRECSearcherLucene.legacyJudgmentResolver(searcher, topics, searchBy);
+      cache.migrateLegacy(legacyBaseName,
+                          resolver,
+                          "index " + indexPath + ", topics " + topicsPath + ", --search_by " + searchBy);
+    }
+  }
+
+  private static void printUsage() {
+    System.out.println("Usage: judgments <import|export|compact|stats> --cache_dir <dir> [--scorer monot5|vllm]"
+                       + " [--tsv <file>]");
+    System.out.println("       judgments migrate --cache_dir <dir> [--scorer monot5|vllm] --index <path>"
+                       + " --topics <file> --search_by <query type>");
+  }
+}
@@ -0,0 +1,181 @@
+package org.irlab.ecir26.searcher.util.scorers;
+
+import it.unimi.dsi.fastutil.HashCommon;
+import it.unimi.dsi.fastutil.longs.Long2LongMap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Memory-mapped hash index over a {@link JudgmentLog}: an open-addressing table of (key, log ordinal) slots with
+ * linear probing, stored next to the log and looked up in place, so opening it costs the same whatever its size and
+ * every process on the machine shares its pages. The header records how many log records the index covers; records
+ * appended afterwards are held in memory by the caller and folded in by {@link #merge}, which writes a new file and
+ * swaps it in atomically (readers that mapped the old one keep a consistent view).
+ */
+final class JudgmentIndex {
+
+  private static final int MAGIC = 0x4C4C4D49; // "LLMI"
+  private static final int VERSION = 1;
+  private static final int HEADER_BYTES = 32;
+  private static final int SLOT_BYTES = 16;
+  private static final long SEGMENT_SLOTS = 1L << 26; // 1 GB per mapping
+  private static final long EMPTY = 0; // ordinals are stored plus one
+
+  private final MappedByteBuffer[] segments;
+  private final long capacity;
+  private final long entries;
+  private final long coveredRecords;
+
+  private JudgmentIndex(MappedByteBuffer[] segments, long capacity, long entries, long coveredRecords) {
+    this.segments = segments;
+    this.capacity = capacity;
+    this.entries = entries;
+    this.coveredRecords = coveredRecords;
+  }
+
+  /**
+   * Empty index covering no records, for logs that have none yet.
+   */
+  static JudgmentIndex empty() {
+    return new JudgmentIndex(new MappedByteBuffer[0], 0, 0, 0);
+  }
+
+  /**
+   * Map an existing index, or return {@link #empty()} if there is none or it does not match a log of
+   * {@code logRecords} records.
+   */
+  static JudgmentIndex open(Path path, long logRecords) throws IOException {
+    if (!Files.exists(path)) {
+      return empty();
+    }
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+      channel.read(header, 0);
+      header.flip();
+      if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC || header.getInt() != VERSION) {
+        System.err.println("Ignoring unreadable judgment index " + path);
+        return empty();
+      }
+      long capacity = header.getLong();
+      long entries = header.getLong();
+      long covered = header.getLong();
+      if (covered > logRecords || channel.size() != HEADER_BYTES + capacity * SLOT_BYTES) {
+        // The log was replaced or compacted behind the index's back
+        System.err.println("Ignoring stale judgment index " + path);
+        return empty();
+      }
+      return new JudgmentIndex(map(channel, capacity, FileChannel.MapMode.READ_ONLY), capacity, entries, covered);
+    }
+  }
+
+  /**
+   * Write a new index holding the slots of {@code base} plus {@code delta} (key to log ordinal, later ordinals win),
+   * covering the first {@code coveredRecords} log records, and atomically replace {@code path} with it.
+   */
+  static JudgmentIndex merge(Path path, JudgmentIndex base, Long2LongMap delta, long coveredRecords) throws IOException {
+    long capacity = Math.max(16, HashCommon.nextPowerOfTwo(2 * (base.entries + delta.size())));
+    Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+    Files.deleteIfExists(tmp);
+
+    long entries = 0;
+    try (FileChannel channel = FileChannel.open(tmp,
+                                                StandardOpenOption.CREATE_NEW,
+                                                StandardOpenOption.READ,
+                                                StandardOpenOption.WRITE)) {
+      MappedByteBuffer[] table = map(channel, capacity, FileChannel.MapMode.READ_WRITE);
+      for (long slot = 0; slot < base.capacity; slot++) {
+        long ordinal = base.ordinalAt(slot);
+        if (ordinal != EMPTY) {
+          entries += insert(table, capacity, base.keyAt(slot), ordinal);
+        }
+      }
+      for (Long2LongMap.Entry entry : delta.long2LongEntrySet()) {
+        entries += insert(table, capacity, entry.getLongKey(), entry.getLongValue() + 1);
+      }
+      for (MappedByteBuffer segment : table) {
+        segment.force();
+      }
+
+      ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+      header.putInt(MAGIC).putInt(VERSION).putLong(capacity).putLong(entries).putLong(coveredRecords).flip();
+      channel.write(header, 0);
+      channel.force(true);
+    }
+
+    Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    return open(path, coveredRecords);
+  }
+
+  /**
+   * Log ordinal of the latest record for {@code key} among the covered records, or -1.
+   */
+  long find(long key) {
+    if (capacity == 0) {
+      return -1;
+    }
+    long mask = capacity - 1;
+    for (long slot = HashCommon.mix(key) & mask; ; slot = (slot + 1) & mask) {
+      long ordinal = ordinalAt(slot);
+      if (ordinal == EMPTY) {
+        return -1;
+      }
+      if (keyAt(slot) == key) {
+        return ordinal - 1;
+      }
+    }
+  }
+
+  long getEntries() {
+    return entries;
+  }
+
+  long getCoveredRecords() {
+    return coveredRecords;
+  }
+
+  private long keyAt(long slot) {
+    return segments[(int) (slot / SEGMENT_SLOTS)].getLong((int) (slot % SEGMENT_SLOTS * SLOT_BYTES));
+  }
+
+  private long ordinalAt(long slot) {
+    return segments[(int) (slot / SEGMENT_SLOTS)].getLong((int) (slot % SEGMENT_SLOTS * SLOT_BYTES) + Long.BYTES);
+  }
+
+  /**
+   * Put (key, storedOrdinal) into the table, replacing an older ordinal of the same key.
+   *
+   * @return 1 if the key was new, 0 otherwise
+   */
+  private static int insert(MappedByteBuffer[] table, long capacity, long key, long storedOrdinal) {
+    long mask = capacity - 1;
+    for (long slot = HashCommon.mix(key) & mask; ; slot = (slot + 1) & mask) {
+      MappedByteBuffer segment = table[(int) (slot / SEGMENT_SLOTS)];
+      int offset = (int) (slot % SEGMENT_SLOTS * SLOT_BYTES);
+      long existing = segment.getLong(offset + Long.BYTES);
+      if (existing == EMPTY || segment.getLong(offset) == key) {
+        segment.putLong(offset, key);
+        segment.putLong(offset + Long.BYTES, Math.max(existing, storedOrdinal));
+        return existing == EMPTY ? 1 : 0;
+      }
+    }
+  }
+
+  private static MappedByteBuffer[] map(FileChannel channel, long capacity, FileChannel.MapMode mode)
+      throws IOException {
+    int count = (int) ((capacity + SEGMENT_SLOTS - 1) / SEGMENT_SLOTS);
+    MappedByteBuffer[] segments = new MappedByteBuffer[count];
+    for (int i = 0; i < count; i++) {
+      long first = i * SEGMENT_SLOTS;
+      long slots = Math.min(SEGMENT_SLOTS, capacity - first);
+      segments[i] = channel.map(mode, HEADER_BYTES + first * SLOT_BYTES, slots * SLOT_BYTES);
+    }
+    return segments;
+  }
+}
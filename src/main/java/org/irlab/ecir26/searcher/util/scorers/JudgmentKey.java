@@ -0,0 +1,82 @@
+package org.irlab.ecir26.searcher.util.scorers;
+
+import it.unimi.dsi.fastutil.HashCommon;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Content-addressed keys of LLM judgments. A judgment depends only on what the model was asked, so its key is built
+ * from the scorer fingerprint (model and prompt template), a hash of the query text and narrative, the docno and a
+ * hash of the exact document text sent, and not from topic numbers or Lucene doc ids. Caches therefore stay valid
+ * across re-indexing and can be shared between index variants of a collection and between machines.
+ * <p>
+ * Keys are the first 64 bits of a SHA-256 digest over those components; with millions of judgments the chance of a
+ * collision stays below one in a million.
+ */
+public final class JudgmentKey {
+
+  private JudgmentKey() {
+  }
+
+  /**
+   * @param fingerprint model and prompt identity of the scorer
+   * @param narrative   assessor instructions sent with the query, or null
+   */
+  public static long of(String fingerprint, String queryText, String narrative, String docno, String docText) {
+    MessageDigest digest = sha256();
+    update(digest, fingerprint);
+    digest.update(queryHash(queryText, narrative));
+    update(digest, docno);
+    digest.update(textHash(docText));
+    return ByteBuffer.wrap(digest.digest()).getLong();
+  }
+
+  /**
+   * Whether a document belongs to a sample of about {@code rate} of all query-document pairs. The sample is fixed by a
+   * hash of the query and docno, so repeated runs sample (and cache) the same documents.
+   */
+  static boolean sampled(double rate, String queryText, String docno) {
+    if (rate <= 0) {
+      return false;
+    }
+    long mixed = HashCommon.mix(((long) queryText.hashCode() << 32) ^ docno.hashCode());
+    return (mixed >>> 11) * 0x1.0p-53 < rate;
+  }
+
+  private static byte[] queryHash(String queryText, String narrative) {
+    MessageDigest digest = sha256();
+    update(digest, queryText);
+    update(digest, narrative);
+    return digest.digest();
+  }
+
+  private static byte[] textHash(String text) {
+    MessageDigest digest = sha256();
+    update(digest, text);
+    return digest.digest();
+  }
+
+  /**
+   * Length-prefixed, so that adjacent fields cannot run into each other; null is distinct from the empty string.
+   */
+  private static void update(MessageDigest digest, String value) {
+    if (value == null) {
+      digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(-1).array());
+      return;
+    }
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(bytes.length).array());
+    digest.update(bytes);
+  }
+
+  private static MessageDigest sha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not available", e);
+    }
+  }
+}
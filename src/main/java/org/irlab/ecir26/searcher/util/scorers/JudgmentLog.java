@@ -0,0 +1,589 @@
+package org.irlab.ecir26.searcher.util.scorers;
+
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Append-only binary file of fixed-width LLM judgment records. A 16-byte header (magic, version, record width) is
+ * followed by records made of a 64-bit key and a scorer-specific payload. A later record for the same
+ * key supersedes earlier ones until {@link #compact()} rewrites the file with one record per key. Records are
+ * addressed by their ordinal in the file; {@link #payload(long)} reads them through a read-only memory mapping, so
+ * lookups share the page cache with every other process reading the same log.
+ * <p>
+ * Appends only queue the record and return its ordinal. A background writer thread group-commits the queue with one
+ * write once it holds {@value #GROUP_COMMIT_RECORDS} records or its oldest record has waited
+ * {@value #GROUP_COMMIT_MILLIS} ms, followed by an fsync under {@link FsyncPolicy#COMMIT}. Appenders block only when
+ * the writer falls {@value #MAX_PENDING_RECORDS} records behind. Scans, compaction and {@link #flush()} wait for the
+ * queue to be written; {@link #payload(long)} only reaches written records. A record cut short by a crash is dropped
+ * when the log is opened, so appends stay aligned.
+ * <p>
+ * Only the process holding an exclusive {@link FileLock} on the log may append to it or repair its tail. A log whose
+ * lock is held by another process is opened read-only ({@link #isReadOnly()}): its records can be read, including
+ * those the other process keeps appending (see {@link #writtenRecords()}) until it compacts the log into a new file,
+ * but {@link #append} and {@link #compact()} are refused, and a partial record at its end is left alone, since it may
+ * be one the owner is still writing.
+ * <p>
+ * Locks are {@link ReentrantLock}s rather than monitors, so virtual threads waiting on the writer do not pin their
+ * carriers.
+ */
+public final class JudgmentLog implements Closeable {
+
+  private static final int MAGIC = 0x4C4C4D4A; // "LLMJ"
+  private static final int VERSION = 1;
+  private static final int HEADER_BYTES = 16;
+  private static final int READ_RECORDS = 16384;
+  private static final long MAX_SEGMENT_BYTES = 1L << 30;
+  private static final int GROUP_COMMIT_RECORDS = 512;
+  private static final long GROUP_COMMIT_MILLIS = 20;
+  private static final int MAX_PENDING_RECORDS = 16 * GROUP_COMMIT_RECORDS;
+
+  /**
+   * Whether group commits are forced to the storage device.
+   */
+  public enum FsyncPolicy {
+    /** Leave written records to the operating system; a machine crash may lose the last seconds of judgments. */
+    NONE,
+    /** fsync after every group commit. */
+    COMMIT
+  }
+
+  private static volatile FsyncPolicy fsyncPolicy = FsyncPolicy.NONE;
+
+  /**
+   * Receives one record; {@code payload} is positioned at the start of the payload and may be read freely.
+   */
+  @FunctionalInterface
+  public interface RecordVisitor {
+    void visit(long ordinal, long key, ByteBuffer payload) throws IOException;
+  }
+
+  /**
+   * Puts the payload of one record into {@code buffer}.
+   */
+  @FunctionalInterface
+  public interface PayloadWriter {
+    void write(ByteBuffer buffer);
+  }
+
+  private final Path path;
+  private final int recordBytes;
+  private final long segmentRecords;
+
+  // Guards the channel and the mappings
+  private final ReentrantLock ioLock = new ReentrantLock();
+  private FileChannel channel;
+  // Exclusive lock on the log, or null if another process holds it and this one only reads
+  private FileLock fileLock;
+  // Read-only mappings of the first mappedRecords records, segmentRecords records each
+  private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+  private volatile long mappedRecords;
+
+  // Guards the queue of records waiting for the writer thread
+  private final ReentrantLock queueLock = new ReentrantLock();
+  private final Condition commitNeeded = queueLock.newCondition();
+  private final Condition commitDone = queueLock.newCondition();
+  private ByteBuffer pending;
+  private long firstPendingNanos;
+  private long nextOrdinal;
+  private long writtenOrdinal;
+  private boolean flushRequested;
+  private boolean closing;
+  private IOException writeFailure;
+  private final Thread writer;
+
+  /**
+   * Open (or create) the log at {@code path} for records with {@code payloadBytes} bytes after the key, read-only if
+   * another process holds its lock.
+   */
+  public JudgmentLog(Path path, int payloadBytes) throws IOException {
+    this.path = path;
+    this.recordBytes = Long.BYTES + payloadBytes;
+    this.segmentRecords = MAX_SEGMENT_BYTES / recordBytes;
+    this.channel = openLocked();
+    this.pending = ByteBuffer.allocate(MAX_PENDING_RECORDS * recordBytes);
+    this.nextOrdinal = Math.max(0, (channel.size() - HEADER_BYTES) / recordBytes);
+    this.writtenOrdinal = nextOrdinal;
+    this.writer = Thread.ofPlatform()
+        .name("judgment-writer-" + path.getFileName())
+        .daemon(true)
+        .start(this::writeLoop);
+  }
+
+  /**
+   * Set whether the group commits of every log are forced to disk ({@link FsyncPolicy#NONE} by default).
+   */
+  public static void setFsyncPolicy(FsyncPolicy policy) {
+    fsyncPolicy = policy;
+  }
+
+  /**
+   * Topic number of a key of the legacy caches, which packed (topic number, Lucene doc id) into a long.
+   */
+  public static int queryId(long key) {
+    return (int) (key >>> 32);
+  }
+
+  /**
+   * Lucene doc id of a key of the legacy caches.
+   */
+  public static int docId(long key) {
+    return (int) key;
+  }
+
+  public Path getPath() {
+    return path;
+  }
+
+  /**
+   * Whether another process holds the lock of the log, so this one may only read it.
+   */
+  public boolean isReadOnly() {
+    return fileLock == null;
+  }
+
+  /**
+   * Number of records in the log, superseded ones and those still queued for the writer included.
+   */
+  public long size() {
+    queueLock.lock();
+    try {
+      return nextOrdinal;
+    } finally {
+      queueLock.unlock();
+    }
+  }
+
+  /**
+   * Number of complete records on disk. For a read-only log this grows as the owner appends, which {@link #size()}
+   * does not follow.
+   */
+  public long writtenRecords() throws IOException {
+    ioLock.lock();
+    try {
+      return Math.max(0, (channel.size() - HEADER_BYTES) / recordBytes);
+    } finally {
+      ioLock.unlock();
+    }
+  }
+
+  /**
+   * Visit every record in file order.
+   */
+  public void forEach(RecordVisitor visitor) throws IOException {
+    forEach(0, visitor);
+  }
+
+  /**
+   * Visit the records from ordinal {@code first} to the end of the log, in file order.
+   */
+  public void forEach(long first, RecordVisitor visitor) throws IOException {
+    flush();
+    ioLock.lock();
+    try {
+      forEachWritten(first, visitor);
+    } finally {
+      ioLock.unlock();
+    }
+  }
+
+  private void forEachWritten(long first, RecordVisitor visitor) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(recordBytes * READ_RECORDS);
+    long position = HEADER_BYTES + first * recordBytes;
+    long ordinal = first;
+    long end = channel.size();
+    while (position < end) {
+      buffer.clear();
+      buffer.limit((int) Math.min(buffer.capacity(), end - position));
+      while (buffer.hasRemaining()) {
+        int read = channel.read(buffer, position + buffer.position());
+        if (read < 0) {
+          throw new IOException("Unexpected end of " + path);
+        }
+      }
+      buffer.flip();
+      while (buffer.remaining() >= recordBytes) {
+        int next = buffer.position() + recordBytes;
+        long key = buffer.getLong();
+        visitor.visit(ordinal++, key, buffer);
+        buffer.position(next);
+      }
+      position += buffer.limit();
+    }
+  }
+
+  /**
+   * Payload of the record with the given ordinal, as a read-only view of the mapped log.
+   */
+  public ByteBuffer payload(long ordinal) throws IOException {
+    if (ordinal >= mappedRecords) {
+      remap(ordinal);
+    }
+    MappedByteBuffer segment = segments[(int) (ordinal / segmentRecords)];
+    int offset = (int) (ordinal % segmentRecords * recordBytes) + Long.BYTES;
+    return segment.slice(offset, recordBytes - Long.BYTES);
+  }
+
+  private void remap(long ordinal) throws IOException {
+    ioLock.lock();
+    try {
+      long records = (channel.size() - HEADER_BYTES) / recordBytes;
+      if (ordinal >= records) {
+        throw new IOException("No record " + ordinal + " in " + path);
+      }
+      if (ordinal < mappedRecords) {
+        return;
+      }
+      // Full segments never change, so only the last (partial) one is mapped again
+      int count = (int) ((records + segmentRecords - 1) / segmentRecords);
+      MappedByteBuffer[] remapped = Arrays.copyOf(segments, count);
+      for (int i = Math.max(0, segments.length - 1); i < count; i++) {
+        long start = i * segmentRecords;
+        long length = Math.min(segmentRecords, records - start) * recordBytes;
+        remapped[i] = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES + start * recordBytes, length);
+      }
+      segments = remapped;
+      mappedRecords = records;
+    } finally {
+      ioLock.unlock();
+    }
+  }
+
+  /**
+   * Queue one record for the writer thread; {@code payload} must put exactly the payload bytes.
+   *
+   * @return the ordinal of the new record
+   * @throws IOException if an earlier group commit failed
+   */
+  public long append(long key, PayloadWriter payload) throws IOException {
+    if (isReadOnly()) {
+      throw new IOException(path + " is locked by another process");
+    }
+    queueLock.lock();
+    try {
+      checkWriteFailure();
+      while (pending.remaining() < recordBytes) {
+        commitNeeded.signal();
+        commitDone.awaitUninterruptibly();
+        checkWriteFailure();
+      }
+      int start = pending.position();
+      ByteBuffer record = pending.slice(start, recordBytes);
+      record.putLong(key);
+      payload.write(record);
+      if (record.position() != recordBytes) {
+        throw new IllegalStateException("Record of " + record.position() + " bytes, expected " + recordBytes);
+      }
+      pending.position(start + recordBytes);
+      if (start == 0) {
+        firstPendingNanos = System.nanoTime();
+        commitNeeded.signal();
+      } else if (pending.position() >= GROUP_COMMIT_RECORDS * recordBytes) {
+        commitNeeded.signal();
+      }
+      return nextOrdinal++;
+    } finally {
+      queueLock.unlock();
+    }
+  }
+
+  /**
+   * Wait until every record appended so far has been written (and forced, under {@link FsyncPolicy#COMMIT}).
+   */
+  public void flush() throws IOException {
+    queueLock.lock();
+    try {
+      long target = nextOrdinal;
+      while (writtenOrdinal < target) {
+        checkWriteFailure();
+        flushRequested = true;
+        commitNeeded.signal();
+        commitDone.awaitUninterruptibly();
+      }
+      checkWriteFailure();
+    } finally {
+      queueLock.unlock();
+    }
+  }
+
+  private void checkWriteFailure() throws IOException {
+    if (writeFailure != null) {
+      throw new IOException("Writing judgments to " + path + " failed", writeFailure);
+    }
+  }
+
+  private void writeLoop() {
+    ByteBuffer spare = ByteBuffer.allocate(pending.capacity());
+    while (true) {
+      long upTo;
+      queueLock.lock();
+      try {
+        while (!commitDue()) {
+          if (pending.position() == 0) {
+            commitNeeded.await();
+          } else {
+            long waited = System.nanoTime() - firstPendingNanos;
+            commitNeeded.awaitNanos(TimeUnit.MILLISECONDS.toNanos(GROUP_COMMIT_MILLIS) - waited);
+          }
+        }
+        if (pending.position() == 0) {
+          return; // closing with nothing left to write
+        }
+        ByteBuffer full = pending;
+        pending = spare;
+        spare = full;
+        upTo = nextOrdinal;
+        flushRequested = false;
+      } catch (InterruptedException e) {
+        return;
+      } finally {
+        queueLock.unlock();
+      }
+
+      IOException failure = null;
+      ioLock.lock();
+      try {
+        spare.flip();
+        while (spare.hasRemaining()) {
+          channel.write(spare);
+        }
+        if (fsyncPolicy == FsyncPolicy.COMMIT) {
+          channel.force(false);
+        }
+      } catch (IOException e) {
+        failure = e;
+      } finally {
+        ioLock.unlock();
+        spare.clear();
+      }
+
+      queueLock.lock();
+      try {
+        if (failure != null) {
+          writeFailure = failure;
+        } else {
+          writtenOrdinal = upTo;
+        }
+        commitDone.signalAll();
+      } finally {
+        queueLock.unlock();
+      }
+    }
+  }
+
+  private boolean commitDue() {
+    int queued = pending.position() / recordBytes;
+    if (queued == 0) {
+      return closing;
+    }
+    return closing
+           || flushRequested
+           || queued >= GROUP_COMMIT_RECORDS
+           || System.nanoTime() - firstPendingNanos >= TimeUnit.MILLISECONDS.toNanos(GROUP_COMMIT_MILLIS);
+  }
+
+  /**
+   * Rewrite the log keeping only the last record of each key, in their original order. Must not run concurrently
+   * with appends.
+   *
+   * @return number of superseded records removed
+   */
+  public long compact() throws IOException {
+    if (isReadOnly()) {
+      throw new IOException(path + " is locked by another process");
+    }
+    flush();
+    queueLock.lock();
+    ioLock.lock();
+    try {
+      if (writtenOrdinal != nextOrdinal) {
+        throw new IllegalStateException("Records appended while compacting " + path);
+      }
+      long removed = compactWritten();
+      nextOrdinal = writtenOrdinal = (channel.size() - HEADER_BYTES) / recordBytes;
+      return removed;
+    } finally {
+      ioLock.unlock();
+      queueLock.unlock();
+    }
+  }
+
+  private long compactWritten() throws IOException {
+    // Index of the last record of every key
+    Long2LongOpenHashMap last = new Long2LongOpenHashMap();
+    forEachWritten(0, (ordinal, key, payload) -> last.put(key, ordinal));
+    long removed = (channel.size() - HEADER_BYTES) / recordBytes - last.size();
+    if (removed == 0) {
+      return 0;
+    }
+
+    Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+    Files.deleteIfExists(tmp);
+    FileChannel out = open(tmp, recordBytes);
+    FileLock outLock;
+    try {
+      // The compacted log is locked before it replaces this one, so no other process can take it over in between
+      outLock = tryLock(out);
+      if (outLock == null) {
+        throw new IOException("Could not lock " + tmp);
+      }
+      ByteBuffer batch = ByteBuffer.allocate(recordBytes * READ_RECORDS);
+      forEachWritten(0, (ordinal, key, payload) -> {
+        if (last.get(key) == ordinal) {
+          if (batch.remaining() < recordBytes) {
+            drain(batch, out);
+          }
+          batch.putLong(key);
+          batch.put(payload.slice(payload.position(), recordBytes - Long.BYTES));
+        }
+      });
+      drain(batch, out);
+      out.force(true);
+      Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException | RuntimeException e) {
+      out.close();
+      throw e;
+    }
+
+    channel.close();
+    channel = out;
+    fileLock = outLock;
+    segments = new MappedByteBuffer[0];
+    mappedRecords = 0;
+    return removed;
+  }
+
+  /**
+   * Write the queued records, stop the writer thread and close the file.
+   */
+  @Override
+  public void close() throws IOException {
+    queueLock.lock();
+    try {
+      closing = true;
+      commitNeeded.signal();
+    } finally {
+      queueLock.unlock();
+    }
+    try {
+      writer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while writing judgments to " + path);
+    }
+
+    ioLock.lock();
+    try {
+      channel.close();
+    } finally {
+      ioLock.unlock();
+    }
+    queueLock.lock();
+    try {
+      checkWriteFailure();
+    } finally {
+      queueLock.unlock();
+    }
+  }
+
+  private static void drain(ByteBuffer batch, FileChannel out) throws IOException {
+    batch.flip();
+    while (batch.hasRemaining()) {
+      out.write(batch);
+    }
+    batch.clear();
+  }
+
+  /**
+   * Open the log and try to take its lock. Without it, the header is only checked if the owner has written it yet,
+   * and the tail is not repaired.
+   */
+  private FileChannel openLocked() throws IOException {
+    FileChannel opened = FileChannel.open(path,
+                                          StandardOpenOption.CREATE,
+                                          StandardOpenOption.READ,
+                                          StandardOpenOption.WRITE);
+    try {
+      fileLock = tryLock(opened);
+      if (fileLock != null) {
+        initialize(opened, path, recordBytes);
+      } else if (opened.size() >= HEADER_BYTES) {
+        checkHeader(opened, path, recordBytes);
+      }
+      return opened;
+    } catch (IOException e) {
+      opened.close();
+      throw e;
+    }
+  }
+
+  private static FileLock tryLock(FileChannel channel) throws IOException {
+    try {
+      return channel.tryLock();
+    } catch (OverlappingFileLockException e) {
+      return null; // held through another channel of this process
+    }
+  }
+
+  private static FileChannel open(Path path, int recordBytes) throws IOException {
+    FileChannel channel = FileChannel.open(path,
+                                           StandardOpenOption.CREATE,
+                                           StandardOpenOption.READ,
+                                           StandardOpenOption.WRITE);
+    try {
+      initialize(channel, path, recordBytes);
+      return channel;
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Write the header of a new log, or check that of an existing one and drop a record cut short at its end.
+   */
+  private static void initialize(FileChannel channel, Path path, int recordBytes) throws IOException {
+    if (channel.size() < HEADER_BYTES) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+      header.putInt(MAGIC).putInt(VERSION).putInt(recordBytes).putInt(0).flip();
+      channel.truncate(0);
+      channel.write(header, 0);
+    } else {
+      checkHeader(channel, path, recordBytes);
+      long complete = HEADER_BYTES + (channel.size() - HEADER_BYTES) / recordBytes * recordBytes;
+      if (complete != channel.size()) {
+        System.err.println("Dropping truncated record at the end of " + path);
+        channel.truncate(complete);
+      }
+    }
+    channel.position(channel.size());
+  }
+
+  private static void checkHeader(FileChannel channel, Path path, int recordBytes) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+    channel.read(header, 0);
+    header.flip();
+    if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+      throw new IOException(path + " is not a judgment log of version " + VERSION);
+    }
+    int storedRecordBytes = header.getInt();
+    if (storedRecordBytes != recordBytes) {
+      throw new IOException(path + " has " + storedRecordBytes + "-byte records, expected " + recordBytes);
+    }
+  }
+}
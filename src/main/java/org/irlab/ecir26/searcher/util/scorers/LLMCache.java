@@ -1,37 +1,67 @@
 package org.irlab.ecir26.searcher.util.scorers;
 
+import java.io.Closeable;
 import java.io.IOException;
 
 /**
  * Common interface for LLM-based relevance judgment caches.
- * Implementations include MonoT5Cache and VLLMCache.
+ * Implementations include MonoT5Cache and VLLMCache, and must be safe to use from concurrent topics.
  */
-public interface LLMCache {
+public interface LLMCache extends Closeable {
   /**
    * Get or compute LLM relevance judgment for a query-document pair.
+   * Judgments are cached by content (query text, narrative, docno and document text), not by ids.
    *
-   * @param queryId   Query identifier
-   * @param docId     Document identifier
    * @param queryText Query text
    * @param narrative Narrative or instructions for the query (can be null)
-   * @param docText   Document text
+   * @param document  Docno and text of the document
    * @return LLMResult containing relevance judgment and probabilities
    * @throws IOException if there's an error accessing the cache or LLM
    */
-  LLMResult get(int queryId, int docId, String queryText, String narrative, String docText) throws IOException;
+  LLMResult get(String queryText, String narrative, LLMDocument document) throws IOException;
+
+  /**
+   * Get or compute LLM relevance judgments for several documents of the same query.
+   * Cache hits are answered directly; misses are sent to the scorer in batches.
+   *
+   * @param queryText Query text
+   * @param narrative Narrative or instructions for the query (can be null)
+   * @param docIds    Lucene document ids
+   * @param documents Loads the docno and text of a document, which make up its cache key
+   * @return LLMResults aligned with docIds
+   * @throws IOException if there's an error accessing the cache or LLM
+   */
+  default LLMResult[] getAll(String queryText, String narrative, int[] docIds, DocumentLoader documents)
+      throws IOException {
+    return getAll(queryText, narrative, docIds, documents, null);
+  }
+
+  /**
+   * Like {@link #getAll(String, String, int[], DocumentLoader)}, but misses are only sent to the scorer as far as
+   * {@code allowance} pays for them, in the order of {@code docIds}; the documents it cannot pay for are left null.
+   *
+   * @param allowance scorer calls the lookup may spend, or null for no limit
+   */
+  LLMResult[] getAll(String queryText, String narrative, int[] docIds, DocumentLoader documents,
+                     JudgingBudget.Allowance allowance) throws IOException;
 
   /**
    * Check if the cache is empty (no entries).
-   * Used to determine if sequential processing is needed to avoid overloading.
    *
    * @return true if cache has no entries, false otherwise
    */
   boolean isEmpty();
 
+  /**
+   * One-line report of cache hits, judged misses and misses coalesced with a judgment already in flight.
+   */
+  String summary();
+
   /**
    * Close the cache and release resources.
    *
    * @throws IOException if there's an error closing the cache
    */
+  @Override
   void close() throws IOException;
 }
@@ -0,0 +1,7 @@
+package org.irlab.ecir26.searcher.util.scorers;
+
+/**
+ * A document as sent to an LLM scorer: its collection identifier and the exact text judged.
+ */
+public record LLMDocument(String docno, String text) {
+}
@@ -0,0 +1,84 @@
+package org.irlab.ecir26.searcher.util.scorers;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency distribution of every request over a whole run, in the manner of an HDR histogram: log-linear buckets of
+ * microseconds that keep {@value #SUB_BUCKET_BITS} significant bits, so any percentile is reported within about 3% of
+ * the recorded value, from a microsecond to days, in a fixed ten kilobytes. Recording is lock-free.
+ */
+public final class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 6;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int HALF = SUB_BUCKETS / 2;
+  private static final int MAX_MAGNITUDE = 40; // 2^40 us, about 12 days
+  private static final long MAX_MICROS = (1L << MAX_MAGNITUDE) - 1;
+
+  private static final int BUCKETS = SUB_BUCKETS + (MAX_MAGNITUDE - SUB_BUCKET_BITS + 1) * HALF;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final LongAdder count = new LongAdder();
+  private final LongAdder totalNanos = new LongAdder();
+
+  public void record(long nanos) {
+    long micros = Math.min(MAX_MICROS, Math.max(0, nanos / 1000));
+    counts.incrementAndGet(index(micros));
+    count.increment();
+    totalNanos.add(Math.max(0, nanos));
+  }
+
+  public long getCount() {
+    return count.sum();
+  }
+
+  public long getTotalNanos() {
+    return totalNanos.sum();
+  }
+
+  /**
+   * Latency below which a fraction {@code quantile} of the requests completed (the upper end of its bucket), in
+   * nanoseconds, or NaN before any request.
+   */
+  public double percentileNanos(double quantile) {
+    long[] snapshot = new long[counts.length()];
+    long total = 0;
+    for (int i = 0; i < snapshot.length; i++) {
+      snapshot[i] = counts.get(i);
+      total += snapshot[i];
+    }
+    if (total == 0) {
+      return Double.NaN;
+    }
+    long rank = Math.max(1, (long) Math.ceil(quantile * total));
+    long seen = 0;
+    for (int i = 0; i < snapshot.length; i++) {
+      seen += snapshot[i];
+      if (seen >= rank) {
+        return upperMicros(i) * 1000.0;
+      }
+    }
+    return upperMicros(snapshot.length - 1) * 1000.0;
+  }
+
+  /**
+   * Values below {@code SUB_BUCKETS} have a bucket each; above, every power of two is split in {@code HALF} buckets.
+   */
+  private static int index(long micros) {
+    if (micros < SUB_BUCKETS) {
+      return (int) micros;
+    }
+    int shift = 63 - Long.numberOfLeadingZeros(micros) - SUB_BUCKET_BITS + 1;
+    return SUB_BUCKETS + (shift - 1) * HALF + (int) (micros >>> shift) - HALF;
+  }
+
+  private static long upperMicros(int index) {
+    if (index < SUB_BUCKETS) {
+      return index;
+    }
+    int shift = (index - SUB_BUCKETS) / HALF + 1;
+    long lower = (long) ((index - SUB_BUCKETS) % HALF + HALF) << shift;
+    return lower + (1L << shift) - 1;
+  }
+}
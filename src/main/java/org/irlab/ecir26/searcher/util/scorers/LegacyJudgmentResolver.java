@@ -0,0 +1,22 @@
+package org.irlab.ecir26.searcher.util.scorers;
+
+import java.io.IOException;
+
+/**
+ * Maps the (topic number, Lucene doc id) keys of the legacy judgment caches back to what was judged, so their
+ * judgments can be migrated to content-addressed keys. Only valid against the index the legacy cache was built on.
+ */
+@FunctionalInterface
+public interface LegacyJudgmentResolver {
+
+  /**
+   * What a legacy judgment was made for.
+   */
+  record Pair(String queryText, String narrative, LLMDocument document) {
+  }
+
+  /**
+   * @return the judged pair, or null if the topic or document is unknown
+   */
+  Pair resolve(int queryId, int docId) throws IOException;
+}
@@ -0,0 +1,62 @@
+package org.irlab.ecir26.searcher.util.scorers;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes the {@link ScorerMetrics} of a search to a Prometheus text file every {@code interval}, and a last time when
+ * closed, for the node exporter's textfile collector or any other scraper. Each write goes to a temporary file that is
+ * moved into place, so readers never see a partial file.
+ */
+public final class MetricsFile implements AutoCloseable {
+
+  public static final int DEFAULT_INTERVAL_SECONDS = 15;
+
+  private final Path file;
+  private final List<ScorerMetrics> scorers;
+  private final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "metrics-file");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  public MetricsFile(Path file, Duration interval, List<ScorerMetrics> scorers) {
+    this.file = file;
+    this.scorers = scorers;
+    long millis = Math.max(1, interval.toMillis());
+    writer.scheduleAtFixedRate(this::writeQuietly, millis, millis, TimeUnit.MILLISECONDS);
+  }
+
+  private void writeQuietly() {
+    try {
+      write();
+    } catch (IOException e) {
+      System.err.println("Could not write metrics to " + file + ": " + e.getMessage());
+    }
+  }
+
+  private synchronized void write() throws IOException {
+    Path parent = file.toAbsolutePath().getParent();
+    Files.createDirectories(parent);
+    Path tmp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+    Files.writeString(tmp, ScorerMetrics.prometheus(scorers), StandardCharsets.UTF_8);
+    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Stop the periodic writes and write the final values.
+   */
+  @Override
+  public void close() throws IOException {
+    writer.shutdownNow();
+    write();
+  }
+}
@@ -0,0 +1,364 @@
+package org.irlab.ecir26.searcher.util.scorers;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Local stand-in for the MonoT5 ({@code /eval}, {@code /eval_batch}) and VLLM ({@code /prob}, {@code /prob_batch})
+ * services, so the scorer and cache code can be exercised without a GPU. Scores are derived from a hash of the request
+ * text, so the same (query, document) pair always gets the same judgment. Both also answer {@code GET /health}, and
+ * several instances on different ports stand in for replicas.
+ * <p>
+ * By default requests are answered at once. A {@link Behaviour} makes the server behave more like a GPU service: each
+ * request takes a latency drawn from a distribution plus a cost per document, only a few requests are worked on at a
+ * time (the others queue, as on a busy GPU), and a fraction of the requests fail with a 503 or hang past the client's
+ * timeout. Latencies and failures are drawn from a seeded generator; judgments never depend on them.
+ */
+public class MockModelServer implements Closeable {
+
+  private static final ObjectMapper objectMapper = new ObjectMapper();
+
+  /**
+   * Shape of the latency of a request, around its mean.
+   */
+  public enum LatencyDistribution {
+    CONSTANT, UNIFORM, EXPONENTIAL, LOGNORMAL
+  }
+
+  /**
+   * How the server answers: latency of a request ({@code latencyMillis} on average, drawn from {@code distribution},
+   * {@code sigma} being the spread of the log-normal one, plus {@code perDocumentMillis} for each document it
+   * judges), requests worked on at once ({@code slots}, 0 for no limit) and the fractions of requests that fail with
+   * a 503 ({@code errorRate}) or are answered only after {@code hangMillis} ({@code hangRate}).
+   */
+  public record Behaviour(LatencyDistribution distribution, double latencyMillis, double sigma,
+                          double perDocumentMillis, int slots, double errorRate, double hangRate, long hangMillis,
+                          long seed) {
+
+    public static Behaviour immediate() {
+      return new Behaviour(LatencyDistribution.CONSTANT, 0, 0, 0, 0, 0, 0, 0, 0);
+    }
+
+    /**
+     * The behaviour set by the {@code --mock_*} arguments among {@code args}; other arguments are ignored.
+     */
+    public static Behaviour fromArgs(String[] args) {
+      LatencyDistribution distribution = LatencyDistribution.CONSTANT;
+      double latencyMillis = 0;
+      double sigma = 0.5;
+      double perDocumentMillis = 0;
+      int slots = 0;
+      double errorRate = 0;
+      double hangRate = 0;
+      long hangMillis = 600_000;
+      long seed = 42;
+      for (int i = 0; i < args.length; i++) {
+        switch (args[i]) {
+          case "--mock_latency":
+            distribution = LatencyDistribution.valueOf(args[++i].toUpperCase(Locale.ROOT));
+            break;
+          case "--mock_latency_ms":
+            latencyMillis = Double.parseDouble(args[++i]);
+            break;
+          case "--mock_latency_sigma":
+            sigma = Double.parseDouble(args[++i]);
+            break;
+          case "--mock_per_doc_ms":
+            perDocumentMillis = Double.parseDouble(args[++i]);
+            break;
+          case "--mock_slots":
+            slots = Integer.parseInt(args[++i]);
+            break;
+          case "--mock_error_rate":
+            errorRate = Double.parseDouble(args[++i]);
+            break;
+          case "--mock_hang_rate":
+            hangRate = Double.parseDouble(args[++i]);
+            break;
+          case "--mock_hang_ms":
+            hangMillis = Long.parseLong(args[++i]);
+            break;
+          case "--mock_seed":
+            seed = Long.parseLong(args[++i]);
+            break;
+        }
+      }
+      return new Behaviour(distribution, latencyMillis, sigma, perDocumentMillis, slots, errorRate, hangRate,
+                           hangMillis, seed);
+    }
+
+    @Override
+    public String toString() {
+      return String.format(Locale.ROOT,
+                           "%s latency %.0f ms + %.1f ms/doc, %s, %.1f%% errors, %.1f%% hangs",
+                           distribution.name().toLowerCase(Locale.ROOT),
+                           latencyMillis,
+                           perDocumentMillis,
+                           slots > 0 ? slots + " slots" : "unlimited slots",
+                           100 * errorRate,
+                           100 * hangRate);
+    }
+  }
+
+  private final HttpServer monoT5Server;
+  private final HttpServer vllmServer;
+  private final ExecutorService executor;
+  private final Behaviour behaviour;
+  private final Random random;
+  private final Semaphore slots;
+  private final LongAdder errorsInjected = new LongAdder();
+  private final LongAdder hangsInjected = new LongAdder();
+
+  public MockModelServer(int monoT5Port, int vllmPort) throws IOException {
+    this(monoT5Port, vllmPort, Behaviour.immediate());
+  }
+
+  /**
+   * @param monoT5Port port of the MonoT5 API, 0 for any free port (see {@link #getMonoT5Port()})
+   * @param vllmPort   port of the VLLM API, 0 for any free port
+   */
+  public MockModelServer(int monoT5Port, int vllmPort, Behaviour behaviour) throws IOException {
+    this.executor = Executors.newCachedThreadPool();
+    this.behaviour = behaviour;
+    this.random = new Random(behaviour.seed());
+    this.slots = behaviour.slots() > 0 ? new Semaphore(behaviour.slots(), true) : null;
+
+    this.monoT5Server = HttpServer.create(new InetSocketAddress("localhost", monoT5Port), 0);
+    monoT5Server.createContext("/eval", jsonHandler(MockModelServer::evalMonoT5));
+    monoT5Server.createContext("/eval_batch", jsonHandler(MockModelServer::evalMonoT5Batch));
+    monoT5Server.createContext("/health", MockModelServer::health);
+    monoT5Server.setExecutor(executor);
+
+    this.vllmServer = HttpServer.create(new InetSocketAddress("localhost", vllmPort), 0);
+    vllmServer.createContext("/prob", jsonHandler(MockModelServer::probVLLM));
+    vllmServer.createContext("/prob_batch", jsonHandler(MockModelServer::probVLLMBatch));
+    vllmServer.createContext("/health", MockModelServer::health);
+    vllmServer.setExecutor(executor);
+  }
+
+  public void start() {
+    monoT5Server.start();
+    vllmServer.start();
+  }
+
+  public int getMonoT5Port() {
+    return monoT5Server.getAddress().getPort();
+  }
+
+  public int getVllmPort() {
+    return vllmServer.getAddress().getPort();
+  }
+
+  public long getErrorsInjected() {
+    return errorsInjected.sum();
+  }
+
+  public long getHangsInjected() {
+    return hangsInjected.sum();
+  }
+
+  @Override
+  public void close() {
+    monoT5Server.stop(0);
+    vllmServer.stop(0);
+    executor.shutdownNow();
+  }
+
+  public static void main(String[] args) throws IOException {
+    int monoT5Port = 5000;
+    int vllmPort = 8080;
+
+    for (int i = 0; i < args.length; i++) {
+      switch (args[i]) {
+        case "--monot5_port":
+          monoT5Port = Integer.parseInt(args[++i]);
+          break;
+        case "--vllm_port":
+          vllmPort = Integer.parseInt(args[++i]);
+          break;
+      }
+    }
+
+    Behaviour behaviour = Behaviour.fromArgs(args);
+    MockModelServer server = new MockModelServer(monoT5Port, vllmPort, behaviour);
+    server.start();
+    System.out.printf("Mock model server listening: MonoT5 on port %d, VLLM on port %d (%s)%n",
+                      monoT5Port,
+                      vllmPort,
+                      behaviour);
+  }
+
+  /**
+   * Deterministic pseudo-probability in [0, 1) from a 64-bit FNV-1a hash of the given texts.
+   */
+  static double hashProbability(String... texts) {
+    long hash = 0xcbf29ce484222325L;
+    for (String text : texts) {
+      for (byte b : (text == null ? "" : text).getBytes(StandardCharsets.UTF_8)) {
+        hash ^= b;
+        hash *= 0x100000001b3L;
+      }
+      hash ^= 0xff;
+      hash *= 0x100000001b3L;
+    }
+    return (hash >>> 11) * 0x1.0p-53;
+  }
+
+  private static JsonNode evalMonoT5(JsonNode request) {
+    return monoT5Result(request.path("query").asText(), request.path("document").asText());
+  }
+
+  private static JsonNode evalMonoT5Batch(JsonNode request) {
+    ObjectNode response = objectMapper.createObjectNode();
+    ArrayNode results = response.putArray("results");
+    String query = request.path("query").asText();
+    request.path("documents").forEach(doc -> results.add(monoT5Result(query, doc.asText())));
+    return response;
+  }
+
+  private static JsonNode probVLLM(JsonNode request) {
+    return vllmResult(request.path("prompt").asText());
+  }
+
+  private static JsonNode probVLLMBatch(JsonNode request) {
+    ObjectNode response = objectMapper.createObjectNode();
+    ArrayNode results = response.putArray("results");
+    request.path("prompts").forEach(prompt -> results.add(vllmResult(prompt.asText())));
+    return response;
+  }
+
+  private static ObjectNode monoT5Result(String query, String document) {
+    double probTrue = hashProbability(query, document);
+    ObjectNode result = objectMapper.createObjectNode();
+    result.put("prediction", probTrue > 0.5 ? "true" : "false");
+    result.put("score", probTrue);
+    result.put("logit_true", Math.log(probTrue));
+    result.put("logit_false", Math.log1p(-probTrue));
+    result.put("prob_true", probTrue);
+    result.put("prob_false", 1.0 - probTrue);
+    return result;
+  }
+
+  private static ObjectNode vllmResult(String prompt) {
+    double probTrue = hashProbability(prompt);
+    ObjectNode result = objectMapper.createObjectNode();
+    result.put("p_true", probTrue);
+    result.put("p_false", 1.0 - probTrue);
+    return result;
+  }
+
+  private interface JsonEndpoint {
+    JsonNode handle(JsonNode request) throws IOException;
+  }
+
+  private HttpHandler jsonHandler(JsonEndpoint endpoint) {
+    return exchange -> {
+      try {
+        JsonNode request = objectMapper.readTree(exchange.getRequestBody());
+        if (!work(documents(request))) {
+          respond(exchange, 503, "{\"error\":\"injected failure\"}".getBytes(StandardCharsets.UTF_8));
+          return;
+        }
+        respond(exchange, 200, objectMapper.writeValueAsBytes(endpoint.handle(request)));
+      } catch (Exception e) {
+        ObjectNode error = objectMapper.createObjectNode();
+        error.put("error", String.valueOf(e.getMessage()));
+        respond(exchange, 500, objectMapper.writeValueAsBytes(error));
+      } finally {
+        exchange.close();
+      }
+    };
+  }
+
+  private static int documents(JsonNode request) {
+    if (request.has("documents")) {
+      return request.get("documents").size();
+    }
+    return request.has("prompts") ? request.get("prompts").size() : 1;
+  }
+
+  /**
+   * Spend the time a request for {@code documents} documents takes, holding a slot, and decide whether it fails.
+   *
+   * @return false if the request is to fail with a 503
+   */
+  private boolean work(int documents) throws InterruptedException {
+    double draw;
+    double gaussian;
+    double failure;
+    synchronized (random) {
+      draw = random.nextDouble();
+      gaussian = random.nextGaussian();
+      failure = random.nextDouble();
+    }
+    double mean = behaviour.latencyMillis();
+    double millis = switch (behaviour.distribution()) {
+      case CONSTANT -> mean;
+      case UNIFORM -> 2 * mean * draw;
+      case EXPONENTIAL -> -mean * Math.log1p(-draw);
+      case LOGNORMAL -> mean * Math.exp(behaviour.sigma() * gaussian - behaviour.sigma() * behaviour.sigma() / 2);
+    };
+    millis += behaviour.perDocumentMillis() * documents;
+
+    boolean error = failure < behaviour.errorRate();
+    boolean hang = !error && failure < behaviour.errorRate() + behaviour.hangRate();
+    if (slots != null) {
+      slots.acquire();
+    }
+    try {
+      sleep(millis);
+    } finally {
+      if (slots != null) {
+        slots.release();
+      }
+    }
+    if (hang) {
+      hangsInjected.increment();
+      sleep(behaviour.hangMillis()); // a stuck connection, which holds no slot
+    }
+    if (error) {
+      errorsInjected.increment();
+    }
+    return !error;
+  }
+
+  private static void sleep(double millis) throws InterruptedException {
+    long nanos = (long) (millis * 1e6);
+    if (nanos > 0) {
+      Thread.sleep(nanos / 1_000_000, (int) (nanos % 1_000_000));
+    }
+  }
+
+  private static void health(HttpExchange exchange) throws IOException {
+    try {
+      respond(exchange, 200, "{\"status\":\"ok\"}".getBytes(StandardCharsets.UTF_8));
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private static void respond(HttpExchange exchange, int code, byte[] body) throws IOException {
+    exchange.getResponseHeaders().set("Content-Type", "application/json");
+    exchange.sendResponseHeaders(code, body.length);
+    try (OutputStream os = exchange.getResponseBody()) {
+      os.write(body);
+    }
+  }
+}
@@ -0,0 +1,361 @@
+package org.irlab.ecir26.searcher.util.scorers;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shared HTTP transport of the model scorers. A single {@link HttpClient} keeps connections to the model services
+ * alive across judgments, requests are sent asynchronously with a per-request timeout, and JSON responses are bound
+ * directly to the scorer result types. Each service has its own {@link AdaptiveConcurrencyLimiter}, which is told
+ * about the latency and outcome of every request, and an {@link EndpointPool} that picks the replica to send it to.
+ * <p>
+ * A call may take several requests. Transient failures (transport errors, timeouts, 429 and 5xx responses) are
+ * retried up to {@link #setMaxRetries} times, preferably on another replica, after a random backoff of up to
+ * {@value #BACKOFF_BASE_MILLIS} ms doubling with every retry (at most {@value #BACKOFF_CAP_MILLIS} ms), so that
+ * callers that failed together do not come back together. With hedging on, a call still unanswered after the p95
+ * latency of the service sends one duplicate request, within a small headroom over the concurrency limit, and takes
+ * whichever answer comes first. Every attempt must finish within the call's deadline; a call that cannot be answered
+ * fails, and is never turned into a made-up judgment.
+ */
+public final class ModelHttpClient {
+
+  public static final Duration DEFAULT_REQUEST_TIMEOUT = Duration.ofSeconds(120);
+  public static final Duration DEFAULT_CALL_DEADLINE = Duration.ofSeconds(300);
+  public static final int DEFAULT_MAX_RETRIES = 3;
+  private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(10);
+  private static final Duration HEALTH_TIMEOUT = Duration.ofSeconds(5);
+  private static final long BACKOFF_BASE_MILLIS = 200;
+  private static final long BACKOFF_CAP_MILLIS = 10_000;
+
+  static final ObjectMapper objectMapper = new ObjectMapper()
+      .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+  // HTTP/1.1 explicitly: the Python services do not speak h2c and would otherwise see upgrade headers
+  private static final HttpClient client = HttpClient.newBuilder()
+      .version(HttpClient.Version.HTTP_1_1)
+      .connectTimeout(CONNECT_TIMEOUT)
+      .build();
+
+  // Retries wait for a limiter slot, which must not hold up the client's own threads
+  private static final Executor virtualThreads = runnable -> Thread.ofVirtual().start(runnable);
+
+  private static volatile Duration requestTimeout = DEFAULT_REQUEST_TIMEOUT;
+  private static volatile Duration callDeadline = DEFAULT_CALL_DEADLINE;
+  private static volatile int maxRetries = DEFAULT_MAX_RETRIES;
+  private static volatile boolean hedging = false;
+
+  private ModelHttpClient() {
+  }
+
+  /**
+   * Set how long a single request (including model inference) may take before it fails.
+   */
+  public static void setRequestTimeout(Duration timeout) {
+    requestTimeout = timeout;
+  }
+
+  public static Duration getRequestTimeout() {
+    return requestTimeout;
+  }
+
+  /**
+   * Set how long a call may take overall, including retries, backoff and waiting for a limiter slot to retry.
+   */
+  public static void setCallDeadline(Duration deadline) {
+    callDeadline = deadline;
+  }
+
+  /**
+   * Set how many times a transient failure is retried before the call fails; 0 disables retries.
+   */
+  public static void setMaxRetries(int retries) {
+    maxRetries = Math.max(0, retries);
+  }
+
+  /**
+   * Send a duplicate of calls that take longer than the p95 latency of their service.
+   */
+  public static void setHedging(boolean enabled) {
+    hedging = enabled;
+  }
+
+  /**
+   * POST a JSON payload to {@code path} on one of the endpoints of {@code pool} and bind the JSON response to
+   * {@code responseType}, retrying and hedging as described above. Blocks until {@code limiter} has a free slot for
+   * the first request, then returns without waiting for the response.
+   *
+   * @param group requests sharing a prompt prefix, admitted by {@code limiter} together (null for none)
+   * @return a future failing with an {@link IOException} once the call cannot succeed: a non-transient error, a
+   *     transient one with no retries left, or the deadline
+   */
+  static <T> CompletableFuture<T> postAsync(AdaptiveConcurrencyLimiter limiter, EndpointPool pool, String path,
+                                            Object group, Object payload, Class<T> responseType) {
+    byte[] body;
+    try {
+      body = objectMapper.writeValueAsBytes(payload);
+    } catch (JsonProcessingException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+
+    AdaptiveConcurrencyLimiter.Permit permit;
+    try {
+      permit = limiter.acquire(group);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return CompletableFuture.failedFuture(new InterruptedIOException("Interrupted while waiting for " + path));
+    }
+    // The deadline starts with the first request; queueing for the first slot is the caller's backpressure
+    Call<T> call = new Call<>(limiter, pool, path, group, body, responseType);
+    call.send(permit, null, false);
+    call.scheduleHedge();
+    return call.result;
+  }
+
+  /**
+   * Wait for a scorer future, rethrowing its {@link IOException}.
+   */
+  static <T> T join(CompletableFuture<T> future) throws IOException {
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof IOException io) {
+        throw io;
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * The attempts of one call. Attempts run concurrently only while a hedge is in flight; the first success completes
+   * {@link #result} and cancels the others, and a failure is retried only when no other attempt is still running.
+   */
+  private static final class Call<T> {
+
+    private final AdaptiveConcurrencyLimiter limiter;
+    private final EndpointPool pool;
+    private final String path;
+    private final Object group;
+    private final byte[] body;
+    private final Class<T> responseType;
+    private final long deadlineNanos = System.nanoTime() + callDeadline.toNanos();
+
+    final CompletableFuture<T> result = new CompletableFuture<>();
+    private final List<CompletableFuture<?>> attempts = new CopyOnWriteArrayList<>();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger sentCount = new AtomicInteger();
+    private final AtomicInteger retries = new AtomicInteger();
+    private final AtomicBoolean hedged = new AtomicBoolean();
+    private volatile EndpointPool.Endpoint lastEndpoint;
+
+    Call(AdaptiveConcurrencyLimiter limiter, EndpointPool pool, String path, Object group, byte[] body,
+         Class<T> responseType) {
+      this.limiter = limiter;
+      this.pool = pool;
+      this.path = path;
+      this.group = group;
+      this.body = body;
+      this.responseType = responseType;
+      result.whenComplete((value, error) -> attempts.forEach(attempt -> attempt.cancel(true)));
+    }
+
+    void send(AdaptiveConcurrencyLimiter.Permit permit, EndpointPool.Endpoint avoid, boolean hedge) {
+      long remaining = deadlineNanos - System.nanoTime();
+      if (remaining <= 0 || result.isDone()) {
+        limiter.onCancelled(permit);
+        if (!hedge && running.get() == 0) {
+          missDeadline(null);
+        }
+        return;
+      }
+
+      EndpointPool.Endpoint endpoint = pool.acquire(avoid);
+      lastEndpoint = endpoint;
+      URI uri = endpoint.resolve(path);
+      Duration timeout = requestTimeout.toNanos() < remaining ? requestTimeout : Duration.ofNanos(remaining);
+      HttpRequest request = HttpRequest.newBuilder(uri)
+          .timeout(timeout)
+          .header("Content-Type", "application/json; charset=UTF-8")
+          .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+          .build();
+
+      running.incrementAndGet();
+      sentCount.incrementAndGet();
+      CompletableFuture<HttpResponse<byte[]>> sent;
+      try {
+        sent = client.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray());
+      } catch (RuntimeException e) {
+        running.decrementAndGet();
+        limiter.onError(permit);
+        endpoint.release(permit.startNanos(), true, false);
+        result.completeExceptionally(e);
+        return;
+      }
+      pool.onSent(body.length);
+      attempts.add(sent);
+      if (result.isDone()) {
+        sent.cancel(true); // answered by another attempt in the meantime
+      }
+      sent.whenComplete((response, error) -> complete(permit, endpoint, uri, hedge, response, error));
+    }
+
+    /**
+     * After {@link EndpointPool#hedgeDelayNanos()}, send one duplicate to another replica if the call is still
+     * unanswered. Duplicates may exceed the concurrency limit by a tenth of it (at least one), and are not sent
+     * beyond that, so that hedging cannot double the load of a service that is merely busy.
+     */
+    void scheduleHedge() {
+      long delay = pool.hedgeDelayNanos();
+      if (!hedging || delay < 0) {
+        return;
+      }
+      CompletableFuture.delayedExecutor(delay, TimeUnit.NANOSECONDS).execute(() -> {
+        if (result.isDone() || running.get() == 0 || hedged.get()) {
+          return; // answered, or failed and waiting to retry
+        }
+        AdaptiveConcurrencyLimiter.Permit permit = limiter.tryAcquire(Math.max(1, limiter.getLimit() / 10));
+        if (permit == null) {
+          return;
+        }
+        hedged.set(true);
+        pool.onHedge();
+        send(permit, lastEndpoint, true);
+      });
+    }
+
+    private void complete(AdaptiveConcurrencyLimiter.Permit permit, EndpointPool.Endpoint endpoint, URI uri,
+                          boolean hedge, HttpResponse<byte[]> response, Throwable error) {
+      Throwable cause = unwrap(error);
+      if (cause instanceof CancellationException) {
+        running.decrementAndGet();
+        limiter.onCancelled(permit);
+        endpoint.cancel();
+        return;
+      }
+
+      int status = response != null ? response.statusCode() : 0;
+      if (response != null) {
+        pool.onReceived(response.body().length);
+      }
+      boolean overload = error != null ? isOverload(cause) : status >= 500;
+      boolean failed = error != null || status < 200 || status >= 300;
+      endpoint.release(permit.startNanos(), failed, overload);
+      if (overload) {
+        limiter.onOverload(permit);
+      } else if (failed) {
+        limiter.onError(permit);
+      } else {
+        limiter.onSuccess(permit);
+      }
+      int stillRunning = running.decrementAndGet();
+      if (result.isDone()) {
+        return;
+      }
+
+      IOException failure;
+      boolean transientFailure;
+      if (!failed) {
+        try {
+          if (result.complete(objectMapper.readValue(response.body(), responseType)) && hedge) {
+            pool.onHedgeWon();
+          }
+          return;
+        } catch (IOException e) {
+          failure = e;
+          transientFailure = false;
+        }
+      } else if (error != null) {
+        failure = cause instanceof IOException io ? io : new IOException(uri + " failed", cause);
+        transientFailure = cause instanceof IOException;
+      } else {
+        failure = new IOException(uri + " returned HTTP " + status + ": "
+                                  + new String(response.body(), StandardCharsets.UTF_8));
+        transientFailure = status >= 500 || status == 429;
+      }
+
+      if (stillRunning > 0) {
+        return; // the hedge (or the original) may still succeed, and retries if it does not
+      }
+      retry(failure, transientFailure);
+    }
+
+    private void retry(IOException failure, boolean transientFailure) {
+      int retry = retries.getAndIncrement();
+      if (!transientFailure || retry >= maxRetries) {
+        result.completeExceptionally(failure);
+        return;
+      }
+      long backoffNanos = TimeUnit.MILLISECONDS.toNanos(
+          ThreadLocalRandom.current().nextLong(Math.min(BACKOFF_CAP_MILLIS, BACKOFF_BASE_MILLIS << retry) + 1));
+      if (System.nanoTime() + backoffNanos >= deadlineNanos) {
+        missDeadline(failure);
+        return;
+      }
+
+      pool.onRetry();
+      CompletableFuture.delayedExecutor(backoffNanos, TimeUnit.NANOSECONDS, virtualThreads).execute(() -> {
+        AdaptiveConcurrencyLimiter.Permit permit;
+        try {
+          permit = limiter.acquire(group);
+        } catch (InterruptedException e) {
+          result.completeExceptionally(new InterruptedIOException("Interrupted while retrying " + path));
+          return;
+        }
+        send(permit, lastEndpoint, false);
+      });
+    }
+
+    private void missDeadline(IOException lastFailure) {
+      IOException timeout = new HttpTimeoutException(String.format(
+          "%s missed its deadline of %d s after %d attempts%s",
+          path,
+          callDeadline.toSeconds(),
+          sentCount.get(),
+          lastFailure != null ? " (last: " + lastFailure.getMessage() + ")" : ""));
+      if (result.completeExceptionally(timeout)) {
+        pool.onDeadlineMissed();
+      }
+    }
+  }
+
+  /**
+   * GET a health-check URI; completes with true on a 2xx response and false on anything else, never exceptionally.
+   */
+  static CompletableFuture<Boolean> isHealthy(URI uri) {
+    HttpRequest request = HttpRequest.newBuilder(uri).timeout(HEALTH_TIMEOUT).GET().build();
+    return client.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+        .handle((response, error) -> error == null && response.statusCode() >= 200 && response.statusCode() < 300);
+  }
+
+  /**
+   * Timeouts and refused connections mean the service cannot keep up (or is down); back off in both cases.
+   */
+  private static boolean isOverload(Throwable cause) {
+    return cause instanceof HttpTimeoutException || cause instanceof ConnectException;
+  }
+
+  private static Throwable unwrap(Throwable error) {
+    return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+  }
+}
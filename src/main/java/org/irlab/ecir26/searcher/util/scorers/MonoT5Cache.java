@@ -1,92 +1,116 @@
 package org.irlab.ecir26.searcher.util.scorers;
 
-import java.io.*;
-import java.util.HashMap;
-import java.util.Map;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Cache manager for MonoT5 scorer results.
  * Manages persistent cache with all MonoT5 metrics.
+ * Binary record: prediction (1 byte, 1 = "true") then logit_true, logit_false, prob_true, prob_false, score as doubles
+ * TSV format: key \t prediction \t logit_true \t logit_false \t prob_true \t prob_false \t score
+ * The narrative is not part of the MonoT5 input, so it is left out of the keys.
  */
-public class MonoT5Cache implements LLMCache {
-  private final String cacheDir;
-  private final String cacheFile;
-
-  private Map<String, LLMResult> cache;
-  private BufferedWriter cacheWriter;
-
-  public MonoT5Cache(String cacheDirectory) throws IOException {
-    this.cacheDir = cacheDirectory;
-    this.cacheFile = cacheDir + "/t5_cache.tsv";
-
-    new File(cacheDir).mkdirs();
-    this.cache = new HashMap<>();
-
-    // Load existing cache: query_id \t doc_id \t prediction \t logit_true \t logit_false \t prob_true \t prob_false \t score
-    File cacheFileObj = new File(cacheFile);
-    if (cacheFileObj.exists()) {
-      try (BufferedReader reader = new BufferedReader(new FileReader(cacheFileObj))) {
-        String line;
-        while ((line = reader.readLine()) != null) {
-          String[] parts = line.split("\t");
-          if (parts.length >= 8) {
-            String cacheKey = parts[0] + "_" + parts[1];
-            String prediction = parts[2];
-            boolean isRelevant = "true".equalsIgnoreCase(prediction);
-            double probTrue = Double.parseDouble(parts[5]);
-            double score = Double.parseDouble(parts[7]);
-            cache.put(cacheKey, new LLMResult(isRelevant, probTrue, score));
-          }
-        }
-      }
-    }
-    System.out.println("Loaded MonoT5 cache with " + cache.size() + " entries from " + cacheFile);
-    // Open for appending
-    this.cacheWriter = new BufferedWriter(new FileWriter(cacheFile, true));
+public class MonoT5Cache extends AbstractLLMCache<MonoT5Scorer.MonoT5Result> {
+
+  /**
+   * Base name of the caches of older versions, keyed by topic number and Lucene doc id.
+   */
+  public static final String LEGACY_BASE_NAME = "t5_cache";
+
+  private static final int PAYLOAD_BYTES = 1 + 5 * Double.BYTES;
+
+  private MonoT5Cache(String cacheDirectory, int batchSize) throws IOException {
+    super(cacheDirectory, "monot5_judgments", PAYLOAD_BYTES, batchSize);
+  }
+
+  public static MonoT5Cache open(String cacheDirectory) throws IOException {
+    return open(cacheDirectory, DEFAULT_BATCH_SIZE);
+  }
+
+  public static MonoT5Cache open(String cacheDirectory, int batchSize) throws IOException {
+    return load(new MonoT5Cache(cacheDirectory, batchSize));
+  }
+
+  @Override
+  public long key(String queryText, String narrative, LLMDocument document) {
+    return super.key(queryText, null, document);
+  }
+
+  @Override
+  protected String getName() {
+    return "MonoT5";
   }
 
   @Override
-  public LLMResult get(int queryId, int docId, String queryText, String narrative, String docText) throws IOException {
-    String cacheKey = queryId + "_" + docId;
+  protected String fingerprint() {
+    return MonoT5Scorer.fingerprint();
+  }
 
-    if (cache.containsKey(cacheKey)) {
-      return cache.get(cacheKey);
+  @Override
+  protected MonoT5Scorer.MonoT5Result parseResult(String[] parts, int first) {
+    if (parts.length < first + 6) {
+      return null;
     }
+    boolean isRelevant = "true".equalsIgnoreCase(parts[first]);
+    return new MonoT5Scorer.MonoT5Result(isRelevant,
+                                         Double.parseDouble(parts[first + 1]),
+                                         Double.parseDouble(parts[first + 2]),
+                                         Double.parseDouble(parts[first + 3]),
+                                         Double.parseDouble(parts[first + 4]),
+                                         Double.parseDouble(parts[first + 5]),
+                                         parts[first]);
+  }
 
-    // Not in cache, evaluate with MonoT5
-    MonoT5Scorer.MonoT5Result monoResult = MonoT5Scorer.evaluate(queryText, docText);
-
-    // Write to cache file: query_id \t doc_id \t prediction \t logit_true \t logit_false \t prob_true \t prob_false \t score
-    cacheWriter.write(String.format("%d\t%d\t%s\t%.16f\t%.16f\t%.16f\t%.16f\t%.16f\n",
-                                    queryId,
-                                    docId,
-                                    monoResult.prediction,
-                                    monoResult.logitTrue,
-                                    monoResult.logitFalse,
-                                    monoResult.probTrue,
-                                    monoResult.probFalse,
-                                    monoResult.score));
-    cacheWriter.flush();
-
-    // Convert to LLMResult and store in memory cache
-    LLMResult result = new LLMResult(monoResult.isRelevant, monoResult.probTrue, monoResult.score);
-    cache.put(cacheKey, result);
-
-    return result;
+  @Override
+  protected String formatResult(MonoT5Scorer.MonoT5Result monoResult) {
+    return String.format("%s\t%.16f\t%.16f\t%.16f\t%.16f\t%.16f",
+                         monoResult.prediction,
+                         monoResult.logitTrue,
+                         monoResult.logitFalse,
+                         monoResult.probTrue,
+                         monoResult.probFalse,
+                         monoResult.score);
   }
 
-  /**
-   * Returns true if the cache is empty (no entries loaded).
-   */
   @Override
-  public boolean isEmpty() {
-    return cache.isEmpty();
+  protected void writePayload(MonoT5Scorer.MonoT5Result monoResult, ByteBuffer buffer) {
+    // Only the relevance decision of the decoded prediction is kept
+    buffer.put((byte) (monoResult.isRelevant ? 1 : 0))
+        .putDouble(monoResult.logitTrue)
+        .putDouble(monoResult.logitFalse)
+        .putDouble(monoResult.probTrue)
+        .putDouble(monoResult.probFalse)
+        .putDouble(monoResult.score);
   }
 
   @Override
-  public void close() throws IOException {
-    if (cacheWriter != null) {
-      cacheWriter.close();
-    }
+  protected MonoT5Scorer.MonoT5Result readPayload(ByteBuffer buffer) {
+    boolean isRelevant = buffer.get() == 1;
+    return new MonoT5Scorer.MonoT5Result(isRelevant,
+                                         buffer.getDouble(),
+                                         buffer.getDouble(),
+                                         buffer.getDouble(),
+                                         buffer.getDouble(),
+                                         buffer.getDouble(),
+                                         isRelevant ? "true" : "false");
+  }
+
+  @Override
+  protected LLMResult toLLMResult(MonoT5Scorer.MonoT5Result monoResult) {
+    return new LLMResult(monoResult.isRelevant, monoResult.probTrue, monoResult.score);
+  }
+
+  @Override
+  protected CompletableFuture<MonoT5Scorer.MonoT5Result> evaluateAsync(String queryText, String narrative,
+                                                            String docText) {
+    return MonoT5Scorer.evaluateAsync(queryText, docText);
+  }
+
+  @Override
+  protected CompletableFuture<List<MonoT5Scorer.MonoT5Result>> evaluateBatchAsync(String queryText, String narrative,
+                                                                           List<String> docTexts) {
+    return MonoT5Scorer.evaluateBatchAsync(queryText, docTexts);
   }
 }
@@ -1,26 +1,37 @@
 package org.irlab.ecir26.searcher.util.scorers;
 
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ObjectNode;
-
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URI;
-import java.net.URL;
-import java.util.Map;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
- * Simple helper to call the MonoT5 Flask service running on localhost:5000
+ * Simple helper to call the MonoT5 Flask service running on localhost:5000 (or on the replicas set with
+ * {@link #getEndpoints()})
  * Expects the service at POST /eval with JSON {"query":..., "document":...}
  * and a JSON response containing all evaluation metrics.
+ * Batches go to POST /eval_batch with JSON {"query":..., "documents":[...]}
+ * and come back as {"results":[...]} in the same order.
  */
 public class MonoT5Scorer {
 
-  private static final String SERVICE_URL = "http://localhost:5000/eval";
-  private static final ObjectMapper objectMapper = new ObjectMapper();
+  public static final String DEFAULT_ENDPOINTS = "http://localhost:5000";
+  private static final String SERVICE_PATH = "/eval";
+  private static final String BATCH_SERVICE_PATH = "/eval_batch";
+
+  private static final String INPUT_TEMPLATE = "Query: {query} Document: {document} Relevant:";
+  public static final String DEFAULT_MODEL = "castorini/monot5-base-msmarco";
+  // mono_t5.py truncates query and document together to 512 tokens
+  public static final int DEFAULT_MAX_DOC_TOKENS = 512;
+
+  private static final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("MonoT5");
+  private static final EndpointPool endpoints = new EndpointPool("MonoT5", DEFAULT_ENDPOINTS);
+  private static final PromptBudget budget = new PromptBudget("MonoT5", DEFAULT_MAX_DOC_TOKENS);
+  private static volatile String modelName = DEFAULT_MODEL;
 
   /**
    * Result from MonoT5 evaluation with all metrics
@@ -44,75 +55,113 @@ public class MonoT5Scorer {
       this.score = score;
       this.prediction = prediction;
     }
+
+    /**
+     * Bind one JSON result of the service; missing metrics become -Infinity.
+     */
+    @JsonCreator
+    static MonoT5Result fromJson(@JsonProperty("prediction") String prediction,
+                                 @JsonProperty("logit_true") Double logitTrue,
+                                 @JsonProperty("logit_false") Double logitFalse,
+                                 @JsonProperty("prob_true") Double probTrue,
+                                 @JsonProperty("prob_false") Double probFalse,
+                                 @JsonProperty("score") Double score) {
+      String decoded = prediction != null ? prediction : "false";
+      return new MonoT5Result("true".equalsIgnoreCase(decoded), orMissing(logitTrue), orMissing(logitFalse),
+                              orMissing(probTrue), orMissing(probFalse), orMissing(score), decoded);
+    }
+
+    private static double orMissing(Double value) {
+      return value != null ? value : Double.NEGATIVE_INFINITY;
+    }
   }
 
   /**
-   * Evaluate document relevance and return full result with all metrics
+   * Name of the model loaded by the service (see mono_t5.py), used only to tell judgments of different models apart.
    */
-  public static MonoT5Result evaluate(String query, String document) {
-    try {
-      URL url = URI.create(SERVICE_URL).toURL();
-      HttpURLConnection con = (HttpURLConnection) url.openConnection();
-      con.setRequestMethod("POST");
-      con.setRequestProperty("Content-Type", "application/json; charset=UTF-8");
-      con.setDoOutput(true);
-
-      // Create JSON payload using Jackson
-      ObjectNode payload = objectMapper.createObjectNode();
-      payload.put("query", query);
-      payload.put("document", document);
-
-      try (OutputStream os = con.getOutputStream()) {
-        byte[] input = objectMapper.writeValueAsBytes(payload);
-        os.write(input);
-      }
-
-      int code = con.getResponseCode();
-      InputStreamReader isr = new InputStreamReader(code >= 200
-                                                    && code < 300 ? con.getInputStream() : con.getErrorStream(),
-                                                    "utf-8");
-      try (BufferedReader br = new BufferedReader(isr)) {
-        StringBuilder resp = new StringBuilder();
-        String line;
-        while ((line = br.readLine()) != null) {
-          resp.append(line);
-        }
-        return parseResponse(resp.toString());
-      }
-    } catch (Exception e) {
-      System.err.println("MonoT5Scorer error: " + e.getMessage());
-      return new MonoT5Result(false, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, 0.0, 0.0, 0.0, "false");
-    }
+  public static void setModelName(String name) {
+    modelName = name;
   }
 
+  /**
+   * Model, input format and document budget, identifying the judgments of this scorer in the caches.
+   */
+  public static String fingerprint() {
+    return "MonoT5\n" + modelName + "\n" + INPUT_TEMPLATE + "\nmax_doc_tokens=" + budget.getMaxTokens();
+  }
 
-  private static MonoT5Result parseResponse(String json) {
-    try {
-      Map<String, Object> response = objectMapper.readValue(json, new TypeReference<>() {
-      });
+  /**
+   * Cuts documents before they are sent to the MonoT5 service.
+   */
+  public static PromptBudget getBudget() {
+    return budget;
+  }
 
-      String prediction = (String) response.getOrDefault("prediction", "false");
-      boolean isRelevant = "true".equalsIgnoreCase(prediction);
+  /**
+   * Limits the requests in flight to the MonoT5 service.
+   */
+  public static AdaptiveConcurrencyLimiter getLimiter() {
+    return limiter;
+  }
 
-      double logitTrue = getDoubleValue(response, "logit_true");
-      double logitFalse = getDoubleValue(response, "logit_false");
-      double probTrue = getDoubleValue(response, "prob_true");
-      double probFalse = getDoubleValue(response, "prob_false");
-      double score = getDoubleValue(response, "score");
+  /**
+   * Replicas of the MonoT5 service that requests are spread over.
+   */
+  public static EndpointPool getEndpoints() {
+    return endpoints;
+  }
 
-      return new MonoT5Result(isRelevant, logitTrue, logitFalse, probTrue, probFalse, score, prediction);
+  record EvalRequest(String query, String document) {
+  }
 
-    } catch (Exception e) {
-      System.err.println("Error parsing MonoT5 response: " + e.getMessage());
-      return new MonoT5Result(false, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, 0.0, 0.0, 0.0, "false");
-    }
+  record EvalBatchRequest(String query, List<String> documents) {
+  }
+
+  record EvalBatchResponse(List<MonoT5Result> results) {
+  }
+
+  /**
+   * Evaluate document relevance and return full result with all metrics
+   */
+  public static MonoT5Result evaluate(String query, String document) throws IOException {
+    return ModelHttpClient.join(evaluateAsync(query, document));
+  }
+
+  /**
+   * Asynchronous {@link #evaluate}; the future fails with an {@link IOException} if the service cannot answer.
+   */
+  public static CompletableFuture<MonoT5Result> evaluateAsync(String query, String document) {
+    return ModelHttpClient.postAsync(limiter, endpoints, SERVICE_PATH, query,
+                                     new EvalRequest(query, budget.fit(document)), MonoT5Result.class);
+  }
+
+  /**
+   * Evaluate several documents against the same query in a single request.
+   *
+   * @return one result per document, in the same order
+   */
+  public static List<MonoT5Result> evaluateBatch(String query, List<String> documents) throws IOException {
+    return ModelHttpClient.join(evaluateBatchAsync(query, documents));
   }
 
-  private static double getDoubleValue(Map<String, Object> map, String key) {
-    Object value = map.get(key);
-    if (value instanceof Number) {
-      return ((Number) value).doubleValue();
+  /**
+   * Asynchronous {@link #evaluateBatch}; the future fails with an {@link IOException} if the service cannot answer.
+   */
+  public static CompletableFuture<List<MonoT5Result>> evaluateBatchAsync(String query, List<String> documents) {
+    List<String> fitted = new ArrayList<>(documents.size());
+    for (String document : documents) {
+      fitted.add(budget.fit(document));
     }
-    return Double.NEGATIVE_INFINITY;
+
+    // Grouped by query, like the VLLM prompts; the query comes first in the MonoT5 input as well
+    return ModelHttpClient.postAsync(limiter, endpoints, BATCH_SERVICE_PATH, query,
+                                     new EvalBatchRequest(query, fitted), EvalBatchResponse.class)
+        .thenApply(response -> {
+          if (response.results() == null || response.results().size() != documents.size()) {
+            int got = response.results() == null ? 0 : response.results().size();
+            throw new CompletionException(new IOException("expected " + documents.size() + " results, got " + got));
+          }
+          return response.results();
+        });
   }
 }
@@ -0,0 +1,191 @@
+package org.irlab.ecir26.searcher.util.scorers;
+
+import org.irlab.ecir26.searcher.util.SimHash;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Judgments shared between near-duplicate documents. Within one lookup (the feedback set of a topic, or one step of it
+ * with a stop rule), documents are taken in rank order: one whose {@link SimHash} signature is more than
+ * {@code maxDistance} bits away from every representative ranked above it becomes a representative itself and is
+ * judged (or found in the cache), and any other reuses the judgment of the closest representative above it, the best
+ * ranked one on ties, whatever the cache holds for the document itself. Which documents share a judgment therefore
+ * depends only on the ranking and the signatures, and since only documents ranked above are considered, a document is
+ * grouped the same way at every feedback depth.
+ * <p>
+ * To check that reuse does not change verdicts, a fraction of the documents that reuse a judgment can also be judged
+ * themselves ({@code auditRate}); audit judgments are only counted, never used, and the summary reports how often they
+ * agree with the reused ones. The audit sample is chosen by a hash of the query and document, so repeated runs audit
+ * the same documents. Representatives spend the judging allowance before audits. The wrapper does not own its cache:
+ * closing it leaves the cache open.
+ */
+public final class NearDuplicateCache implements LLMCache {
+
+  /**
+   * SimHash signatures of indexed documents.
+   */
+  @FunctionalInterface
+  public interface Signatures {
+
+    long signature(int docId) throws IOException;
+  }
+
+  private final AbstractLLMCache<?> cache;
+  private final String name;
+  private final Signatures signatures;
+  private final int maxDistance;
+  private final double auditRate;
+
+  // Documents answered and those that reused a judgment, by query and doc id: configurations repeat the lookups
+  private final Set<String> documents = ConcurrentHashMap.newKeySet();
+  private final Set<String> reused = ConcurrentHashMap.newKeySet();
+  private final LongAdder audited = new LongAdder();
+  private final LongAdder auditedAgreed = new LongAdder();
+
+  /**
+   * @param maxDistance largest number of differing signature bits between documents that share a judgment
+   * @param auditRate   fraction of the near-duplicates also judged themselves, only to report agreement
+   */
+  public NearDuplicateCache(AbstractLLMCache<?> cache, String name, Signatures signatures, int maxDistance,
+                            double auditRate) {
+    this.cache = cache;
+    this.name = name;
+    this.signatures = signatures;
+    this.maxDistance = maxDistance;
+    this.auditRate = auditRate;
+  }
+
+  /**
+   * The threshold as it should appear in run names and expansion cache keys.
+   */
+  public static String label(int maxDistance) {
+    return "neardup" + maxDistance;
+  }
+
+  @Override
+  public LLMResult get(String queryText, String narrative, LLMDocument document) throws IOException {
+    return cache.get(queryText, narrative, document);
+  }
+
+  @Override
+  public LLMResult[] getAll(String queryText, String narrative, int[] docIds, DocumentLoader documentLoader,
+                            JudgingBudget.Allowance allowance) throws IOException {
+    long[] signature = new long[docIds.length];
+    for (int i = 0; i < docIds.length; i++) {
+      signature[i] = signatures.signature(docIds[i]);
+    }
+
+    // Representatives in rank order, and the representative every other document reuses
+    int[] source = new int[docIds.length];
+    int[] representatives = new int[docIds.length];
+    int count = 0;
+    for (int i = 0; i < docIds.length; i++) {
+      source[i] = closest(signature, representatives, count, i);
+      if (source[i] < 0) {
+        representatives[count++] = i;
+      }
+    }
+
+    int[] representativeIds = new int[count];
+    for (int r = 0; r < count; r++) {
+      representativeIds[r] = docIds[representatives[r]];
+    }
+    LLMResult[] judged = cache.getAll(queryText, narrative, representativeIds, documentLoader, allowance);
+    LLMResult[] results = new LLMResult[docIds.length];
+    for (int r = 0; r < count; r++) {
+      results[representatives[r]] = judged[r];
+    }
+
+    int audits = 0;
+    int[] audit = new int[docIds.length];
+    for (int i = 0; i < docIds.length; i++) {
+      if (source[i] >= 0) {
+        results[i] = results[source[i]];
+        // Each document is audited once, and its text is only loaded if audits are on
+        if (results[i] != null && reused.add(queryText + '\t' + docIds[i]) && auditRate > 0
+            && JudgmentKey.sampled(auditRate, queryText, documentLoader.load(docIds[i]).docno())) {
+          audit[audits++] = i;
+        }
+      }
+      if (results[i] != null) {
+        documents.add(queryText + '\t' + docIds[i]);
+      }
+    }
+
+    if (audits > 0) {
+      int[] auditIds = new int[audits];
+      for (int a = 0; a < audits; a++) {
+        auditIds[a] = docIds[audit[a]];
+      }
+      LLMResult[] own = cache.getAll(queryText, narrative, auditIds, documentLoader, allowance);
+      for (int a = 0; a < audits; a++) {
+        if (own[a] != null) {
+          audited.increment();
+          if (own[a].isRelevant == results[audit[a]].isRelevant) {
+            auditedAgreed.increment();
+          }
+        }
+      }
+    }
+    return results;
+  }
+
+  /**
+   * The representative ranked above document {@code i} closest to it within the threshold, the best ranked one on
+   * ties, or -1 if there is none.
+   */
+  private int closest(long[] signature, int[] representatives, int count, int i) {
+    int best = -1;
+    int bestDistance = maxDistance + 1;
+    for (int r = 0; r < count; r++) {
+      int j = representatives[r];
+      int distance = SimHash.distance(signature[i], signature[j]);
+      if (distance < bestDistance) {
+        best = j;
+        bestDistance = distance;
+      }
+    }
+    return best;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return cache.isEmpty();
+  }
+
+  /**
+   * Reuse rate over distinct feedback documents and, with audits, agreement between reused and own judgments, for the
+   * end-of-run summary.
+   */
+  @Override
+  public String summary() {
+    long total = documents.size();
+    long shared = reused.size();
+    String summary = String.format("%s near-duplicates within %d bits | %d distinct feedback documents, %d reused"
+                                   + " a judgment (%s)",
+                                   name,
+                                   maxDistance,
+                                   total,
+                                   shared,
+                                   percent(shared, total));
+    if (auditRate > 0) {
+      long audit = audited.sum();
+      summary += String.format(" | audit: %d also judged themselves, agreement %s (%d would flip)",
+                               audit,
+                               percent(auditedAgreed.sum(), audit),
+                               audit - auditedAgreed.sum());
+    }
+    return summary;
+  }
+
+  private static String percent(long part, long whole) {
+    return whole > 0 ? String.format("%.1f%%", 100.0 * part / whole) : "n/a";
+  }
+
+  @Override
+  public void close() {
+  }
+}
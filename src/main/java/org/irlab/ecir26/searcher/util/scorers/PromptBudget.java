@@ -0,0 +1,92 @@
+package org.irlab.ecir26.searcher.util.scorers;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Approximate token budget for the document part of a scorer's input. Documents are cut on the client, before they
+ * are serialized, so the text a model server would truncate after tokenizing is never sent or parsed.
+ * <p>
+ * Tokens are approximated by whitespace-separated words. Every word is at least one token for the MonoT5 and Llama
+ * tokenizers, so cutting at N words never removes text that an N-token truncation on the server would have kept.
+ */
+public final class PromptBudget {
+
+  private final String name;
+  private volatile int maxTokens;
+
+  private final LongAdder documents = new LongAdder();
+  private final LongAdder trimmed = new LongAdder();
+  private final LongAdder charsIn = new LongAdder();
+  private final LongAdder charsSent = new LongAdder();
+
+  /**
+   * @param maxTokens documents are cut after this many words; 0 disables the budget
+   */
+  public PromptBudget(String name, int maxTokens) {
+    this.name = name;
+    this.maxTokens = maxTokens;
+  }
+
+  public void setMaxTokens(int maxTokens) {
+    this.maxTokens = Math.max(0, maxTokens);
+  }
+
+  public int getMaxTokens() {
+    return maxTokens;
+  }
+
+  /**
+   * Cut {@code document} after the budgeted number of words (dropping the whitespace that follows) and record how
+   * much was trimmed.
+   */
+  public String fit(String document) {
+    String sent = cut(document, maxTokens);
+    documents.increment();
+    charsIn.add(document.length());
+    charsSent.add(sent.length());
+    if (sent.length() < document.length()) {
+      trimmed.increment();
+    }
+    return sent;
+  }
+
+  static String cut(String text, int maxWords) {
+    if (maxWords <= 0 || text.length() <= maxWords) {
+      return text; // shorter than the budget even at one character per word
+    }
+    int words = 0;
+    boolean inWord = false;
+    int end = 0;
+    for (int i = 0; i < text.length(); i++) {
+      if (Character.isWhitespace(text.charAt(i))) {
+        if (inWord) {
+          inWord = false;
+          end = i;
+        }
+      } else if (!inWord) {
+        if (words == maxWords) {
+          return text.substring(0, end);
+        }
+        words++;
+        inWord = true;
+      }
+    }
+    return text;
+  }
+
+  /**
+   * One-line report of the documents sent and the characters trimmed, for the end-of-run summary.
+   */
+  public String summary() {
+    long in = charsIn.sum();
+    long sent = charsSent.sum();
+    return String.format("%s prompt budget %s | %d documents, %d trimmed | %.1f MB of text, %.1f MB sent (%.0f%%)",
+                         name,
+                         maxTokens > 0 ? maxTokens + " tokens" : "off",
+                         documents.sum(),
+                         trimmed.sum(),
+                         in / 1e6,
+                         sent / 1e6,
+                         in > 0 ? 100.0 * sent / in : 100.0);
+  }
+}
@@ -0,0 +1,283 @@
+package org.irlab.ecir26.searcher.util.scorers;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Client-side throughput of the judgment caches: drives {@link MonoT5Cache} or {@link VLLMCache} with synthetic
+ * queries and documents, every query on its own virtual thread as in a search, for each combination of batch size and
+ * concurrency limit. By default the scorer is an in-JVM {@link MockModelServer}, whose latency and failures are set
+ * with the {@code --mock_*} arguments, so batching, the concurrency limit, retries and hedging can be measured on a
+ * CPU-only machine; {@code --endpoints} points the benchmark at running services instead, to size GPU capacity.
+ * <p>
+ * Every trial starts from an empty cache. The judgments of each trial are compared with those of the first, and the
+ * benchmark exits with status 1 if any differ or if a trial lost judgments, so it doubles as a regression test.
+ */
+public class ScorerBenchmark {
+
+  private static final int VOCABULARY = 5000;
+
+  public static void main(String[] args) throws Exception {
+    String scorer = "vllm";
+    int[] concurrencies = { 1, 4, 16, 64 };
+    int[] batchSizes = { 1, AbstractLLMCache.DEFAULT_BATCH_SIZE };
+    int queries = 50;
+    int documents = 100;
+    int documentWords = 300;
+    boolean adaptive = false;
+    String endpoints = null;
+    long seed = 42;
+
+    for (int i = 0; i < args.length; i++) {
+      switch (args[i]) {
+        case "--scorer":
+          scorer = args[++i].toLowerCase();
+          break;
+        case "--concurrency":
+          concurrencies = parseInts(args[++i]);
+          break;
+        case "--batch_sizes":
+          batchSizes = parseInts(args[++i]);
+          break;
+        case "--queries":
+          queries = Integer.parseInt(args[++i]);
+          break;
+        case "--docs":
+          documents = Integer.parseInt(args[++i]);
+          break;
+        case "--doc_words":
+          documentWords = Integer.parseInt(args[++i]);
+          break;
+        case "--adaptive":
+          adaptive = true;
+          break;
+        case "--endpoints":
+          endpoints = args[++i];
+          break;
+        case "--seed":
+          seed = Long.parseLong(args[++i]);
+          break;
+        case "--llm_timeout_sec":
+          ModelHttpClient.setRequestTimeout(Duration.ofSeconds(Long.parseLong(args[++i])));
+          break;
+        case "--llm_deadline_sec":
+          ModelHttpClient.setCallDeadline(Duration.ofSeconds(Long.parseLong(args[++i])));
+          break;
+        case "--llm_retries":
+          ModelHttpClient.setMaxRetries(Integer.parseInt(args[++i]));
+          break;
+        case "--llm_hedge":
+          ModelHttpClient.setHedging(true);
+          break;
+      }
+    }
+    if (!scorer.equals("monot5") && !scorer.equals("vllm")) {
+      throw new IllegalArgumentException("Unknown scorer: " + scorer);
+    }
+    boolean monoT5 = scorer.equals("monot5");
+    AdaptiveConcurrencyLimiter limiter = monoT5 ? MonoT5Scorer.getLimiter() : VLLMScorer.getLimiter();
+    EndpointPool pool = monoT5 ? MonoT5Scorer.getEndpoints() : VLLMScorer.getEndpoints();
+
+    MockModelServer mock = null;
+    if (endpoints == null) {
+      MockModelServer.Behaviour behaviour = MockModelServer.Behaviour.fromArgs(args);
+      mock = new MockModelServer(0, 0, behaviour);
+      mock.start();
+      endpoints = "http://localhost:" + (monoT5 ? mock.getMonoT5Port() : mock.getVllmPort());
+      System.out.println("Mock scorer: " + behaviour);
+    }
+    pool.setEndpoints(endpoints);
+
+    String[] queryTexts = new String[queries];
+    String[] documentTexts = new String[queries * documents];
+    Random random = new Random(seed);
+    for (int q = 0; q < queries; q++) {
+      queryTexts[q] = words(random, 3) + " " + q;
+    }
+    for (int d = 0; d < documentTexts.length; d++) {
+      documentTexts[d] = words(random, documentWords);
+    }
+    DocumentLoader loader = docId -> new LLMDocument("BENCH-" + docId, documentTexts[docId]);
+
+    System.out.printf("%s benchmark: %d queries x %d documents of %d words, %s concurrency limits%n",
+                      monoT5 ? "MonoT5" : "VLLM",
+                      queries,
+                      documents,
+                      documentWords,
+                      adaptive ? "adaptive" : "fixed");
+    System.out.printf("%6s %6s %10s %8s %12s %9s %8s %8s %8s %11s %11s %12s%n",
+                      "batch",
+                      "limit",
+                      "judgments",
+                      "seconds",
+                      "judgments/s",
+                      "requests",
+                      "retries",
+                      "errors",
+                      "lost",
+                      "lookup p50",
+                      "lookup p99",
+                      "request avg");
+
+    LLMResult[][] reference = null;
+    boolean regression = false;
+    try {
+      for (int batchSize : batchSizes) {
+        for (int concurrency : concurrencies) {
+          limiter.configure(concurrency, adaptive);
+          Trial trial = runTrial(monoT5, batchSize, queryTexts, documents, loader, pool);
+          System.out.printf("%6d %6d %10d %8.2f %12.1f %9d %8d %8d %8d %11s %11s %12s%n",
+                            batchSize,
+                            concurrency,
+                            trial.judged,
+                            trial.seconds,
+                            trial.judged / trial.seconds,
+                            trial.requests,
+                            trial.retries,
+                            trial.errors,
+                            trial.lost,
+                            formatMillis(trial.lookups.percentileNanos(0.5)),
+                            formatMillis(trial.lookups.percentileNanos(0.99)),
+                            formatMillis(trial.requests > 0 ? trial.requestNanos / (double) trial.requests
+                                                            : Double.NaN));
+          if (trial.lost > 0) {
+            regression = true;
+          }
+          if (reference == null) {
+            reference = trial.results;
+          } else {
+            int mismatches = mismatches(reference, trial.results);
+            if (mismatches > 0) {
+              System.out.printf("  %d judgments differ from the first trial%n", mismatches);
+              regression = true;
+            }
+          }
+        }
+      }
+    } finally {
+      if (mock != null) {
+        System.out.printf("Mock scorer injected %d errors and %d hangs%n",
+                          mock.getErrorsInjected(),
+                          mock.getHangsInjected());
+        mock.close();
+      }
+    }
+    System.out.println(limiter.summary());
+    System.out.println(pool.summary());
+    if (regression) {
+      System.exit(1);
+    }
+  }
+
+  private record Trial(long judged, double seconds, long requests, long retries, long errors, long lost,
+                       double requestNanos, LatencyHistogram lookups, LLMResult[][] results) {
+  }
+
+  /**
+   * Judge every query once against an empty cache; a query whose lookup fails counts all its documents as lost.
+   */
+  private static Trial runTrial(boolean monoT5, int batchSize, String[] queryTexts, int documents,
+                                DocumentLoader loader, EndpointPool pool) throws IOException {
+    Path directory = Files.createTempDirectory("llm-bench");
+    long requestsBefore = pool.getRequests();
+    long retriesBefore = pool.getRetries();
+    long errorsBefore = pool.getFailures();
+    long requestNanosBefore = pool.getLatency().getTotalNanos();
+    LatencyHistogram lookups = new LatencyHistogram();
+    LLMResult[][] results = new LLMResult[queryTexts.length][];
+    LongAdder lost = new LongAdder();
+    AtomicInteger failures = new AtomicInteger();
+
+    long start = System.nanoTime();
+    try (AbstractLLMCache<?> cache = monoT5 ? MonoT5Cache.open(directory.toString(), batchSize)
+                                            : VLLMCache.open(directory.toString(), batchSize);
+         ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      for (int q = 0; q < queryTexts.length; q++) {
+        int query = q;
+        executor.execute(() -> {
+          int[] docIds = new int[documents];
+          for (int d = 0; d < documents; d++) {
+            docIds[d] = query * documents + d;
+          }
+          long lookupStart = System.nanoTime();
+          try {
+            results[query] = cache.getAll(queryTexts[query], null, docIds, loader);
+          } catch (IOException e) {
+            lost.add(documents);
+            if (failures.getAndIncrement() == 0) {
+              System.err.println("  lookup failed: " + e.getMessage());
+            }
+          }
+          lookups.record(System.nanoTime() - lookupStart);
+        });
+      }
+    }
+    double seconds = (System.nanoTime() - start) / 1e9;
+    deleteRecursively(directory);
+
+    long requests = pool.getRequests() - requestsBefore;
+    return new Trial((long) queryTexts.length * documents - lost.sum(),
+                     seconds,
+                     requests,
+                     pool.getRetries() - retriesBefore,
+                     pool.getFailures() - errorsBefore,
+                     lost.sum(),
+                     pool.getLatency().getTotalNanos() - requestNanosBefore,
+                     lookups,
+                     results);
+  }
+
+  private static int mismatches(LLMResult[][] expected, LLMResult[][] actual) {
+    int mismatches = 0;
+    for (int q = 0; q < expected.length; q++) {
+      if (expected[q] == null || actual[q] == null) {
+        continue; // lost, and reported as such
+      }
+      for (int d = 0; d < expected[q].length; d++) {
+        if (expected[q][d].isRelevant != actual[q][d].isRelevant
+            || Double.compare(expected[q][d].probTrue, actual[q][d].probTrue) != 0) {
+          mismatches++;
+        }
+      }
+    }
+    return mismatches;
+  }
+
+  private static String words(Random random, int count) {
+    StringBuilder text = new StringBuilder();
+    for (int w = 0; w < count; w++) {
+      if (w > 0) {
+        text.append(' ');
+      }
+      // Skewed towards frequent words, like text
+      text.append('w').append((int) (VOCABULARY * Math.pow(random.nextDouble(), 3)));
+    }
+    return text.toString();
+  }
+
+  private static int[] parseInts(String list) {
+    return Arrays.stream(list.split(",")).map(String::trim).mapToInt(Integer::parseInt).toArray();
+  }
+
+  private static void deleteRecursively(Path directory) throws IOException {
+    try (Stream<Path> paths = Files.walk(directory)) {
+      for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+        Files.delete(path);
+      }
+    }
+  }
+
+  private static String formatMillis(double nanos) {
+    return Double.isNaN(nanos) ? "n/a" : String.format("%.0f ms", nanos / 1e6);
+  }
+}
@@ -0,0 +1,218 @@
+package org.irlab.ecir26.searcher.util.scorers;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.ToLongFunction;
+
+/**
+ * Live metrics of one scorer and its judgment cache: cache hits and misses, requests, errors, retries and hedges,
+ * bytes sent and received, requests in flight and waiting, and the request latency distribution. They are read from
+ * the counters the cache, the {@link AdaptiveConcurrencyLimiter} and the {@link EndpointPool} keep anyway, so
+ * collecting them costs nothing between reads. {@link #register} publishes them over JMX, and {@link #prometheus}
+ * formats those of every scorer in the Prometheus text format, which {@link MetricsFile} writes periodically.
+ */
+public final class ScorerMetrics implements ScorerMetricsMXBean {
+
+  private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+  private record Metric(String name, String type, String help, ToLongFunction<ScorerMetrics> value) {
+  }
+
+  private static final List<Metric> METRICS = List.of(
+      new Metric("llmprf_cache_hits_total", "counter", "Judgments answered by the cache",
+                 ScorerMetrics::getCacheHits),
+      new Metric("llmprf_cache_misses_total", "counter", "Judgments sent to the scorer",
+                 ScorerMetrics::getCacheMisses),
+      new Metric("llmprf_cache_coalesced_total", "counter", "Lookups that waited for a judgment already in flight",
+                 ScorerMetrics::getCoalescedLookups),
+      new Metric("llmprf_judgments_failed_total", "counter", "Judgments that failed and were not cached",
+                 ScorerMetrics::getFailedJudgments),
+      new Metric("llmprf_requests_total", "counter", "HTTP requests completed, retries and hedges included",
+                 ScorerMetrics::getRequests),
+      new Metric("llmprf_request_errors_total", "counter", "HTTP requests that failed",
+                 ScorerMetrics::getRequestErrors),
+      new Metric("llmprf_request_retries_total", "counter", "Requests sent again after a transient failure",
+                 ScorerMetrics::getRetries),
+      new Metric("llmprf_request_hedges_total", "counter", "Duplicate requests sent for slow ones",
+                 ScorerMetrics::getHedges),
+      new Metric("llmprf_request_deadline_misses_total", "counter", "Calls that missed their deadline",
+                 ScorerMetrics::getDeadlineMisses),
+      new Metric("llmprf_request_bytes_total", "counter", "Request body bytes sent", ScorerMetrics::getBytesSent),
+      new Metric("llmprf_response_bytes_total", "counter", "Response body bytes received",
+                 ScorerMetrics::getBytesReceived),
+      new Metric("llmprf_requests_in_flight", "gauge", "Requests holding a concurrency slot",
+                 metrics -> metrics.getInFlight()),
+      new Metric("llmprf_requests_waiting", "gauge", "Requests waiting for a concurrency slot",
+                 metrics -> metrics.getWaiting()),
+      new Metric("llmprf_concurrency_limit", "gauge", "Current concurrency limit",
+                 metrics -> metrics.getConcurrencyLimit()));
+
+  private final String name;
+  private final AbstractLLMCache<?> cache;
+  private final AdaptiveConcurrencyLimiter limiter;
+  private final EndpointPool endpoints;
+
+  public ScorerMetrics(String name, AbstractLLMCache<?> cache, AdaptiveConcurrencyLimiter limiter,
+                       EndpointPool endpoints) {
+    this.name = name;
+    this.cache = cache;
+    this.limiter = limiter;
+    this.endpoints = endpoints;
+  }
+
+  /**
+   * Metrics of {@code cache} and its scorer, published as {@code org.irlab.ecir26:type=Scorer,name=<name>} on the
+   * platform MBean server; a failed registration is reported and the metrics are still returned.
+   */
+  public static ScorerMetrics register(String name, AbstractLLMCache<?> cache, AdaptiveConcurrencyLimiter limiter,
+                                       EndpointPool endpoints) {
+    ScorerMetrics metrics = new ScorerMetrics(name, cache, limiter, endpoints);
+    try {
+      ObjectName objectName = ObjectName.getInstance("org.irlab.ecir26:type=Scorer,name=" + ObjectName.quote(name));
+      if (!ManagementFactory.getPlatformMBeanServer().isRegistered(objectName)) {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, objectName);
+      }
+    } catch (JMException e) {
+      System.err.println("Could not publish " + name + " metrics over JMX: " + e.getMessage());
+    }
+    return metrics;
+  }
+
+  /**
+   * Metrics of every scorer in the Prometheus text exposition format, labelled {@code scorer="<name>"}; latencies are
+   * a summary in seconds.
+   */
+  public static String prometheus(List<ScorerMetrics> scorers) {
+    StringBuilder text = new StringBuilder();
+    for (Metric metric : METRICS) {
+      text.append("# HELP ").append(metric.name()).append(' ').append(metric.help()).append('\n');
+      text.append("# TYPE ").append(metric.name()).append(' ').append(metric.type()).append('\n');
+      for (ScorerMetrics scorer : scorers) {
+        text.append(metric.name()).append(scorer.label()).append(' ')
+            .append(metric.value().applyAsLong(scorer)).append('\n');
+      }
+    }
+    String latency = "llmprf_request_latency_seconds";
+    text.append("# HELP ").append(latency).append(" Latency of completed HTTP requests\n");
+    text.append("# TYPE ").append(latency).append(" summary\n");
+    for (ScorerMetrics scorer : scorers) {
+      LatencyHistogram histogram = scorer.endpoints.getLatency();
+      for (double quantile : QUANTILES) {
+        double nanos = histogram.percentileNanos(quantile);
+        text.append(latency)
+            .append(String.format(Locale.ROOT, "{scorer=\"%s\",quantile=\"%s\"} ", scorer.name, quantile))
+            .append(Double.isNaN(nanos) ? "NaN" : String.format(Locale.ROOT, "%.6f", nanos / 1e9))
+            .append('\n');
+      }
+      text.append(latency).append("_sum").append(scorer.label()).append(' ')
+          .append(String.format(Locale.ROOT, "%.6f", histogram.getTotalNanos() / 1e9)).append('\n');
+      text.append(latency).append("_count").append(scorer.label()).append(' ')
+          .append(histogram.getCount()).append('\n');
+    }
+    return text.toString();
+  }
+
+  private String label() {
+    return "{scorer=\"" + name + "\"}";
+  }
+
+  @Override
+  public long getCacheHits() {
+    return cache.getHits();
+  }
+
+  @Override
+  public long getCacheMisses() {
+    return cache.getJudged();
+  }
+
+  @Override
+  public long getCoalescedLookups() {
+    return cache.getCoalesced();
+  }
+
+  @Override
+  public long getFailedJudgments() {
+    return cache.getFailed();
+  }
+
+  @Override
+  public long getRequests() {
+    return endpoints.getRequests();
+  }
+
+  @Override
+  public long getRequestErrors() {
+    return endpoints.getFailures();
+  }
+
+  @Override
+  public long getRetries() {
+    return endpoints.getRetries();
+  }
+
+  @Override
+  public long getHedges() {
+    return endpoints.getHedges();
+  }
+
+  @Override
+  public long getDeadlineMisses() {
+    return endpoints.getDeadlineMisses();
+  }
+
+  @Override
+  public long getBytesSent() {
+    return endpoints.getBytesSent();
+  }
+
+  @Override
+  public long getBytesReceived() {
+    return endpoints.getBytesReceived();
+  }
+
+  @Override
+  public int getInFlight() {
+    return limiter.getInFlight();
+  }
+
+  @Override
+  public int getWaiting() {
+    return limiter.getWaiting();
+  }
+
+  @Override
+  public int getConcurrencyLimit() {
+    return limiter.getLimit();
+  }
+
+  @Override
+  public double getLatencyMeanMillis() {
+    LatencyHistogram histogram = endpoints.getLatency();
+    long count = histogram.getCount();
+    return count > 0 ? histogram.getTotalNanos() / 1e6 / count : Double.NaN;
+  }
+
+  @Override
+  public double getLatencyP50Millis() {
+    return endpoints.getLatency().percentileNanos(0.5) / 1e6;
+  }
+
+  @Override
+  public double getLatencyP90Millis() {
+    return endpoints.getLatency().percentileNanos(0.9) / 1e6;
+  }
+
+  @Override
+  public double getLatencyP99Millis() {
+    return endpoints.getLatency().percentileNanos(0.99) / 1e6;
+  }
+
+  @Override
+  public double getLatencyP999Millis() {
+    return endpoints.getLatency().percentileNanos(0.999) / 1e6;
+  }
+}
@@ -0,0 +1,47 @@
+package org.irlab.ecir26.searcher.util.scorers;
+
+/**
+ * JMX view of {@link ScorerMetrics}: one bean per scorer, named {@code org.irlab.ecir26:type=Scorer,name=<scorer>}.
+ * Counters are totals since the search started; latencies are in milliseconds over every request, NaN before the
+ * first.
+ */
+public interface ScorerMetricsMXBean {
+
+  long getCacheHits();
+
+  long getCacheMisses();
+
+  long getCoalescedLookups();
+
+  long getFailedJudgments();
+
+  long getRequests();
+
+  long getRequestErrors();
+
+  long getRetries();
+
+  long getHedges();
+
+  long getDeadlineMisses();
+
+  long getBytesSent();
+
+  long getBytesReceived();
+
+  int getInFlight();
+
+  int getWaiting();
+
+  int getConcurrencyLimit();
+
+  double getLatencyMeanMillis();
+
+  double getLatencyP50Millis();
+
+  double getLatencyP90Millis();
+
+  double getLatencyP99Millis();
+
+  double getLatencyP999Millis();
+}
@@ -1,89 +1,94 @@
 package org.irlab.ecir26.searcher.util.scorers;
 
-import java.io.*;
-import java.util.HashMap;
-import java.util.Map;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Cache manager for VLLM scorer results.
  * Manages persistent cache with probability scores.
+ * Binary record: is_relevant (1 byte) then prob_true, prob_false as doubles
+ * TSV format: key \t is_relevant \t prob_true \t prob_false
+ * Keys cover the whole prompt input, so one cache serves every query formulation ({@code --search_by}).
  */
-public class VLLMCache implements LLMCache {
-  private final String cacheDir;
-  private final String cacheFile;
-
-  private Map<String, LLMResult> cache;
-  private BufferedWriter cacheWriter;
-
-  public VLLMCache(String cacheDirectory, String queryType) throws IOException {
-    this.cacheDir = cacheDirectory;
-    this.cacheFile = cacheDir + "/vllm_cache_" + queryType + ".tsv";
-
-    new File(cacheDir).mkdirs();
-    this.cache = new HashMap<>();
-
-    // Load existing cache: query_id \t doc_id \t is_relevant \t prob_true \t prob_false
-    File cacheFileObj = new File(cacheFile);
-    if (cacheFileObj.exists()) {
-      try (BufferedReader reader = new BufferedReader(new FileReader(cacheFileObj))) {
-        String line;
-        while ((line = reader.readLine()) != null) {
-          String[] parts = line.split("\t");
-          if (parts.length >= 5) {
-            String cacheKey = parts[0] + "_" + parts[1];
-            boolean isRelevant = Boolean.parseBoolean(parts[2]);
-            double probTrue = Double.parseDouble(parts[3]);
-            // For LLMResult, score is probTrue
-            cache.put(cacheKey, new LLMResult(isRelevant, probTrue, probTrue));
-          }
-        }
-      }
-    }
-    System.out.println("Loaded VLLM cache with " + cache.size() + " entries from " + cacheFile);
+public class VLLMCache extends AbstractLLMCache<VLLMScorer.VLLMResult> {
+
+  private static final int PAYLOAD_BYTES = 1 + 2 * Double.BYTES;
+
+  private VLLMCache(String cacheDirectory, int batchSize) throws IOException {
+    super(cacheDirectory, "vllm_judgments", PAYLOAD_BYTES, batchSize);
+  }
 
-    // Open for appending
-    this.cacheWriter = new BufferedWriter(new FileWriter(cacheFile, true));
+  public static VLLMCache open(String cacheDirectory) throws IOException {
+    return open(cacheDirectory, DEFAULT_BATCH_SIZE);
+  }
+
+  public static VLLMCache open(String cacheDirectory, int batchSize) throws IOException {
+    return load(new VLLMCache(cacheDirectory, batchSize));
+  }
+
+  /**
+   * Base name of the caches of older versions for one query formulation, keyed by topic number and Lucene doc id.
+   */
+  public static String legacyBaseName(String queryType) {
+    return "vllm_cache_" + queryType;
+  }
+
+  @Override
+  protected String getName() {
+    return "VLLM";
   }
 
   @Override
-  public LLMResult get(int queryId, int docId, String queryText, String narrative, String docText) throws IOException {
-    String cacheKey = queryId + "_" + docId;
+  protected String fingerprint() {
+    return VLLMScorer.fingerprint();
+  }
 
-    if (cache.containsKey(cacheKey)) {
-      return cache.get(cacheKey);
+  @Override
+  protected VLLMScorer.VLLMResult parseResult(String[] parts, int first) {
+    if (parts.length < first + 3) {
+      return null;
     }
+    boolean isRelevant = Boolean.parseBoolean(parts[first]);
+    return new VLLMScorer.VLLMResult(isRelevant,
+                                     Double.parseDouble(parts[first + 1]),
+                                     Double.parseDouble(parts[first + 2]));
+  }
 
-    // Not in cache, evaluate with VLLM
-    VLLMScorer.VLLMResult vllmResult = VLLMScorer.evaluate(queryText, narrative, docText);
+  @Override
+  protected String formatResult(VLLMScorer.VLLMResult vllmResult) {
+    return String.format("%s\t%.16f\t%.16f",
+                         vllmResult.isRelevant,
+                         vllmResult.probTrue,
+                         vllmResult.probFalse);
+  }
 
-    // Write to cache file: query_id \t doc_id \t is_relevant \t prob_true \t prob_false
-    cacheWriter.write(String.format("%d\t%d\t%s\t%.16f\t%.16f\n",
-                                    queryId,
-                                    docId,
-                                    vllmResult.isRelevant,
-                                    vllmResult.probTrue,
-                                    vllmResult.probFalse));
-    cacheWriter.flush();
+  @Override
+  protected void writePayload(VLLMScorer.VLLMResult vllmResult, ByteBuffer buffer) {
+    buffer.put((byte) (vllmResult.isRelevant ? 1 : 0)).putDouble(vllmResult.probTrue).putDouble(vllmResult.probFalse);
+  }
 
-    // Convert to LLMResult and store in memory cache
-    LLMResult result = new LLMResult(vllmResult.isRelevant, vllmResult.probTrue, vllmResult.probTrue);
-    cache.put(cacheKey, result);
+  @Override
+  protected VLLMScorer.VLLMResult readPayload(ByteBuffer buffer) {
+    return new VLLMScorer.VLLMResult(buffer.get() == 1, buffer.getDouble(), buffer.getDouble());
+  }
 
-    return result;
+  @Override
+  protected LLMResult toLLMResult(VLLMScorer.VLLMResult vllmResult) {
+    // For LLMResult, score is probTrue
+    return new LLMResult(vllmResult.isRelevant, vllmResult.probTrue, vllmResult.probTrue);
   }
 
-  /**
-   * Returns true if the cache is empty (no entries loaded).
-   */
   @Override
-  public boolean isEmpty() {
-    return cache.isEmpty();
+  protected CompletableFuture<VLLMScorer.VLLMResult> evaluateAsync(String queryText, String narrative,
+                                                            String docText) {
+    return VLLMScorer.evaluateAsync(queryText, narrative, docText);
   }
 
   @Override
-  public void close() throws IOException {
-    if (cacheWriter != null) {
-      cacheWriter.close();
-    }
+  protected CompletableFuture<List<VLLMScorer.VLLMResult>> evaluateBatchAsync(String queryText, String narrative,
+                                                                           List<String> docTexts) {
+    return VLLMScorer.evaluateBatchAsync(queryText, narrative, docTexts);
   }
 }
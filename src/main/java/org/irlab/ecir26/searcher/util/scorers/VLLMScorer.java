@@ -1,26 +1,45 @@
 package org.irlab.ecir26.searcher.util.scorers;
 
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ObjectNode;
-
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URI;
-import java.net.URL;
-import java.util.Map;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
- * Helper to call the VLLM service running on localhost:8080
+ * Helper to call the VLLM service running on localhost:8080 (or on the replicas set with {@link #getEndpoints()})
  * Expects the service at POST /prob with JSON {"prompt":...}
  * and a JSON response containing {"p_true":..., "p_false":...}
+ * Batches go to POST /prob_batch with JSON {"prompts":[...]}
+ * and come back as {"results":[...]} in the same order.
  */
 public class VLLMScorer {
 
-  private static final String SERVICE_URL = "http://localhost:8080/prob";
-  private static final ObjectMapper objectMapper = new ObjectMapper();
+  public static final String DEFAULT_ENDPOINTS = "http://localhost:8080";
+  private static final String SERVICE_PATH = "/prob";
+  private static final String BATCH_SERVICE_PATH = "/prob_batch";
+
+  public static final String DEFAULT_MODEL = "meta-llama/Llama-3.1-8B-Instruct";
+  // serve_vllm.py truncates the whole prompt to 7900 tokens
+  public static final int DEFAULT_MAX_DOC_TOKENS = 7900;
+
+  private static final String PROMPT_HEAD = "You are an expert TREC assessor. Your task is to judge relevance.\n\n"
+                                            + "Instructions:\n"
+                                            + "\t1. Read the query carefully.\n"
+                                            + "\t2. Read the document.\n"
+                                            + "\t3. Decide if the document provides information that answers or helps"
+                                            + " address the query.\n"
+                                            + "\t4. Respond with 'true' if the document is relevant, or 'false' if it is"
+                                            + " not.\n\n"
+                                            + "Query: ";
+
+  private static final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("VLLM");
+  private static final EndpointPool endpoints = new EndpointPool("VLLM", DEFAULT_ENDPOINTS);
+  private static final PromptBudget budget = new PromptBudget("VLLM", DEFAULT_MAX_DOC_TOKENS);
+  private static volatile String modelName = DEFAULT_MODEL;
 
   /**
    * Result from VLLM evaluation with probability scores
@@ -35,6 +54,62 @@ public class VLLMScorer {
       this.probTrue = probTrue;
       this.probFalse = probFalse;
     }
+
+    /**
+     * Bind one JSON result of the service, e.g. {"p_true": 0.679..., "p_false": 0.320...}.
+     * Document is relevant if probability of "true" is higher than "false".
+     */
+    @JsonCreator
+    static VLLMResult fromJson(@JsonProperty("p_true") double probTrue, @JsonProperty("p_false") double probFalse) {
+      return new VLLMResult(probTrue > probFalse, probTrue, probFalse);
+    }
+  }
+
+  /**
+   * Name of the model loaded by the service (see serve_vllm.py), used only to tell judgments of different models
+   * apart.
+   */
+  public static void setModelName(String name) {
+    modelName = name;
+  }
+
+  /**
+   * Model, prompt template and document budget, identifying the judgments of this scorer in the caches. Editing the
+   * prompt therefore starts a fresh set of judgments instead of mixing them with the old ones.
+   */
+  public static String fingerprint() {
+    return "VLLM\n" + modelName + "\n" + buildPrompt("{query}", "{narrative}", "{document}")
+           + buildPrompt("{query}", null, "{document}") + "\nmax_doc_tokens=" + budget.getMaxTokens();
+  }
+
+  /**
+   * Cuts documents before they are put into prompts.
+   */
+  public static PromptBudget getBudget() {
+    return budget;
+  }
+
+  /**
+   * Limits the requests in flight to the VLLM service.
+   */
+  public static AdaptiveConcurrencyLimiter getLimiter() {
+    return limiter;
+  }
+
+  /**
+   * Replicas of the VLLM service that requests are spread over.
+   */
+  public static EndpointPool getEndpoints() {
+    return endpoints;
+  }
+
+  record ProbRequest(String prompt) {
+  }
+
+  record ProbBatchRequest(List<String> prompts) {
+  }
+
+  record ProbBatchResponse(List<VLLMResult> results) {
   }
 
   /**
@@ -44,96 +119,113 @@ public class VLLMScorer {
    * @param document The document text to evaluate
    * @return VLLMResult containing relevance decision and probabilities
    */
-  public static VLLMResult evaluate(String query, String narrative, String document) {
-    try {
-      URL url = URI.create(SERVICE_URL).toURL();
-      HttpURLConnection con = (HttpURLConnection) url.openConnection();
-      con.setRequestMethod("POST");
-      con.setRequestProperty("Content-Type", "application/json; charset=UTF-8");
-      con.setDoOutput(true);
-      // We eliminate any line breaks and excessive spaces
-      String processedDocument = document.replaceAll("\\s+", " ").trim();
-      // we also replace "|" and "-" with " "
-      processedDocument = processedDocument.replaceAll("[|\\-]+", " ");
-      // Create prompt in the format: [document] ... [query] ... Relevant:
-      String prompt = String.format("You are an expert TREC assessor. Your task is to judge relevance.\n\n"
-                                    + "Instructions:\n"
-                                    + "\t1. Read the query carefully.\n"
-                                    + "\t2. Read the document.\n"
-                                    + "\t3. Decide if the document provides information that answers or helps address the query.\n"
-                                    + "\t4. Respond with 'true' if the document is relevant, or 'false' if it is not.\n\n"
-                                    + "Query: %s\n\n"
-                                    + (narrative != null && !narrative.isEmpty() ? String.format(
-          "Assessor instructions:\n%s\n\n",
-          narrative) : "")
-                                    + "Document:\n%s\n", query.trim(), processedDocument);
-
-      // Create JSON payload using Jackson
-      ObjectNode payload = objectMapper.createObjectNode();
-      payload.put("prompt", prompt);
-
-      try (OutputStream os = con.getOutputStream()) {
-        byte[] input = objectMapper.writeValueAsBytes(payload);
-        os.write(input);
-      }
+  public static VLLMResult evaluate(String query, String narrative, String document) throws IOException {
+    return ModelHttpClient.join(evaluateAsync(query, narrative, document));
+  }
 
-      int code = con.getResponseCode();
-      InputStreamReader isr = new InputStreamReader(code >= 200
-                                                    && code < 300 ? con.getInputStream() : con.getErrorStream(),
-                                                    "utf-8");
-      try (BufferedReader br = new BufferedReader(isr)) {
-        StringBuilder resp = new StringBuilder();
-        String line;
-        while ((line = br.readLine()) != null) {
-          resp.append(line);
-        }
-        return parseResponse(resp.toString());
-      }
-    } catch (Exception e) {
-      System.err.println("VLLMScorer error: " + e.getMessage());
-      return new VLLMResult(false, 0.0, 1.0);
-    }
+  /**
+   * Asynchronous {@link #evaluate}; the future fails with an {@link IOException} if the service cannot answer.
+   */
+  public static CompletableFuture<VLLMResult> evaluateAsync(String query, String narrative, String document) {
+    String prefix = promptPrefix(query, narrative);
+    return ModelHttpClient.postAsync(limiter, endpoints, SERVICE_PATH, prefix,
+                                     new ProbRequest(prefix + documentSection(budget.fit(document))),
+                                     VLLMResult.class);
   }
 
   /**
-   * Convenience method: returns only boolean relevance
-   * Document is considered relevant if p_true > p_false
+   * Evaluate several documents against the same query in a single request.
+   *
+   * @return one result per document, in the same order
    */
-  public static boolean isRelevant(String query, String narrative, String document) {
-    return evaluate(query, narrative, document).isRelevant;
+  public static List<VLLMResult> evaluateBatch(String query, String narrative, List<String> documents)
+      throws IOException {
+    return ModelHttpClient.join(evaluateBatchAsync(query, narrative, documents));
   }
 
   /**
-   * Parse the JSON response from VLLM service
-   * Expected format: {"p_true": 0.679..., "p_false": 0.320...}
+   * Asynchronous {@link #evaluateBatch}; the future fails with an {@link IOException} if the service cannot answer.
    */
-  private static VLLMResult parseResponse(String json) {
-    try {
-      Map<String, Object> response = objectMapper.readValue(json, new TypeReference<>() {
-      });
+  public static CompletableFuture<List<VLLMResult>> evaluateBatchAsync(String query, String narrative,
+                                                                       List<String> documents) {
+    String prefix = promptPrefix(query, narrative);
+    List<String> prompts = new ArrayList<>(documents.size());
+    for (String document : documents) {
+      prompts.add(prefix + documentSection(budget.fit(document)));
+    }
 
-      double probTrue = getDoubleValue(response, "p_true");
-      double probFalse = getDoubleValue(response, "p_false");
+    // Requests sharing the prefix are admitted together, so the service can reuse its cached prefix
+    return ModelHttpClient.postAsync(limiter, endpoints, BATCH_SERVICE_PATH, prefix, new ProbBatchRequest(prompts),
+                                     ProbBatchResponse.class)
+        .thenApply(response -> {
+          if (response.results() == null || response.results().size() != documents.size()) {
+            int got = response.results() == null ? 0 : response.results().size();
+            throw new CompletionException(new IOException("expected " + documents.size() + " results, got " + got));
+          }
+          return response.results();
+        });
+  }
 
-      // Document is relevant if probability of "true" is higher than "false"
-      boolean isRelevant = probTrue > probFalse;
+  /**
+   * Convenience method: returns only boolean relevance
+   * Document is considered relevant if p_true > p_false
+   */
+  public static boolean isRelevant(String query, String narrative, String document) throws IOException {
+    return evaluate(query, narrative, document).isRelevant;
+  }
 
-      return new VLLMResult(isRelevant, probTrue, probFalse);
+  private static String buildPrompt(String query, String narrative, String document) {
+    return promptPrefix(query, narrative) + documentSection(document);
+  }
 
-    } catch (Exception e) {
-      System.err.println("Error parsing VLLM response: " + e.getMessage());
-      return new VLLMResult(false, 0.0, 1.0);
+  /**
+   * Everything before the document: the fixed instructions, then the query and its narrative. The document comes
+   * last so that all prompts of a query share this prefix, which a server with prefix caching computes once.
+   */
+  private static String promptPrefix(String query, String narrative) {
+    StringBuilder prompt = new StringBuilder(PROMPT_HEAD.length() + query.length() + 64);
+    prompt.append(PROMPT_HEAD).append(query.trim()).append("\n\n");
+    if (narrative != null && !narrative.isEmpty()) {
+      prompt.append("Assessor instructions:\n").append(narrative).append("\n\n");
     }
+    return prompt.append("Document:\n").toString();
+  }
+
+  private static String documentSection(String document) {
+    return normalizeDocument(document) + '\n';
   }
 
   /**
-   * Extract double value from response map, handling various numeric types
+   * Collapse whitespace runs into one space and trim the ends, then turn every run of '|' and '-' into one space:
+   * the output of {@code replaceAll("\\s+", " ").trim()} followed by {@code replaceAll("[|\\-]+", " ")}, in a single
+   * pass without regular expressions.
    */
-  private static double getDoubleValue(Map<String, Object> map, String key) {
-    Object value = map.get(key);
-    if (value instanceof Number) {
-      return ((Number) value).doubleValue();
+  static String normalizeDocument(String document) {
+    StringBuilder out = new StringBuilder(document.length());
+    boolean pendingSpace = false;
+    boolean inDashes = false;
+    for (int i = 0; i < document.length(); i++) {
+      char c = document.charAt(i);
+      if (c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r') {
+        // Deferred, so that trailing whitespace is dropped; leading whitespace never becomes pending
+        pendingSpace = out.length() > 0;
+        inDashes = false;
+        continue;
+      }
+      if (pendingSpace) {
+        out.append(' ');
+        pendingSpace = false;
+      }
+      if (c == '|' || c == '-') {
+        if (!inDashes) {
+          out.append(' ');
+          inDashes = true;
+        }
+      } else {
+        out.append(c);
+        inDashes = false;
+      }
     }
-    return 0.0;
+    return out.toString();
   }
 }
@@ -1,4 +1,6 @@
+import argparse
 from flask import Flask, request, jsonify
+from werkzeug.serving import WSGIRequestHandler
 from transformers import AutoTokenizer, AutoModelForSeq2SeqLM
 from transformers import T5Tokenizer, T5ForConditionalGeneration
 import torch
@@ -10,16 +12,16 @@ model_name = "castorini/monot5-base-msmarco"
 tokenizer = T5Tokenizer.from_pretrained(model_name)
 model = T5ForConditionalGeneration.from_pretrained(model_name)
 
-@app.route("/eval", methods=["POST"])
-def eval():
-    data = request.json
-    query = data["query"]
-    doc = data["document"]
+true_id = tokenizer.encode("true", add_special_tokens=False)[0]
+false_id = tokenizer.encode("false", add_special_tokens=False)[0]
+
+
+def score_batch(query, docs):
     # Replace all line breaks with spaces in the document text
-    doc = doc.replace("\n", " ").replace("\r", " ")
+    docs = [doc.replace("\n", " ").replace("\r", " ") for doc in docs]
     # Input format for MonoT5
-    prompt = f"Query: {query} Document: {doc} Relevant:"
-    inputs = tokenizer(prompt, return_tensors="pt", truncation=True, max_length=512)
+    prompts = [f"Query: {query} Document: {doc} Relevant:" for doc in docs]
+    inputs = tokenizer(prompts, return_tensors="pt", truncation=True, max_length=512, padding=True)
 
     # Generate output with scores
     with torch.no_grad():
@@ -30,36 +32,57 @@ def eval():
             output_scores=True
         )
 
-    # Decoded sequence ("true" or "false")
-    decoded = tokenizer.decode(outputs.sequences[0], skip_special_tokens=True)
-
-    # Get logits from the first generated token
-    logits = outputs.scores[0][0]  # scores for the first generated token
-    true_id = tokenizer.encode("true", add_special_tokens=False)[0]
-    false_id = tokenizer.encode("false", add_special_tokens=False)[0]
-    
-    # Calculate probabilities
-    probs = torch.softmax(logits, dim=-1)
-    prob_true = probs[true_id].item()
-    prob_false = probs[false_id].item()
-    
-    # Individual logits
-    logit_true = logits[true_id].item()
-    logit_false = logits[false_id].item()
-    
-    # Score (probability of "true")
-    score = prob_true
-
-    result = {
-        "prediction": decoded.strip(),
-        "score": score,
-        "logit_true": logit_true,
-        "logit_false": logit_false,
-        "prob_true": prob_true,
-        "prob_false": prob_false
-    }
-
-    return jsonify(result)
+    results = []
+    for i in range(len(docs)):
+        # Decoded sequence ("true" or "false")
+        decoded = tokenizer.decode(outputs.sequences[i], skip_special_tokens=True)
+
+        # Get logits from the first generated token
+        logits = outputs.scores[0][i]  # scores for the first generated token
+
+        # Calculate probabilities
+        probs = torch.softmax(logits, dim=-1)
+        prob_true = probs[true_id].item()
+        prob_false = probs[false_id].item()
+
+        # Individual logits
+        logit_true = logits[true_id].item()
+        logit_false = logits[false_id].item()
+
+        # Score (probability of "true")
+        results.append({
+            "prediction": decoded.strip(),
+            "score": prob_true,
+            "logit_true": logit_true,
+            "logit_false": logit_false,
+            "prob_true": prob_true,
+            "prob_false": prob_false
+        })
+
+    return results
+
+
+@app.route("/health", methods=["GET"])
+def health():
+    return jsonify({"status": "ok"})
+
+
+@app.route("/eval", methods=["POST"])
+def eval():
+    data = request.json
+    return jsonify(score_batch(data["query"], [data["document"]])[0])
+
+
+@app.route("/eval_batch", methods=["POST"])
+def eval_batch():
+    data = request.json
+    return jsonify({"results": score_batch(data["query"], data["documents"])})
 
 if __name__ == "__main__":
-    app.run(host="0.0.0.0", port=5000)
\ No newline at end of file
+    parser = argparse.ArgumentParser()
+    # One replica per GPU: start several with different ports and list them in --monot5_endpoints
+    parser.add_argument("--port", type=int, default=5000)
+    args = parser.parse_args()
+    # Keep connections alive between judgments (the development server defaults to HTTP/1.0)
+    WSGIRequestHandler.protocol_version = "HTTP/1.1"
+    app.run(host="0.0.0.0", port=args.port)
\ No newline at end of file
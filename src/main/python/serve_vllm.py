@@ -1,3 +1,4 @@
+import argparse
 import json
 import math
 
@@ -18,7 +19,10 @@ app = FastAPI(title="vLLM Logit Server")
 MODEL_NAME = "meta-llama/Llama-3.1-8B-Instruct"
 MAX_MODEL_LEN = 8192  # Context window for Llama 3.1 8B
 MAX_PROMPT_TOKENS = 7900  # Leave room for response and system message
-llm = LLM(model=MODEL_NAME, max_logprobs=1000, max_model_len=MAX_MODEL_LEN, gpu_memory_utilization=.4')
+# Prompts of a query share everything but the document, which comes last; the client sends them in bursts per query,
+# so their common prefix is computed once and reused from the KV cache
+llm = LLM(model=MODEL_NAME, max_logprobs=1000, max_model_len=MAX_MODEL_LEN, gpu_memory_utilization=.4,
+          enable_prefix_caching=True)
 tokenizer = llm.get_tokenizer()
 
 
@@ -26,12 +30,14 @@ class LogitRequest(BaseModel):
     prompt: str
 
 
-@app.post("/prob")
-def get_true_false_probs(request: LogitRequest):
-    guided_decoding_params = StructuredOutputsParams(json=json_schema)
+class BatchLogitRequest(BaseModel):
+    prompts: list[str]
+
+
+SYSTEM_PROMPT = """You are a strict TREC assessor that outputs machine-readable judgments. Return only a JSON object in the format: { "relevance": true } or { "relevance": false } Do not include any other text, explanation, or reasoning."""
 
-    user_prompt = request.prompt
 
+def build_messages(user_prompt):
     print(f"Original user prompt: {user_prompt}")
 
     tokens = tokenizer.encode(user_prompt)
@@ -41,23 +47,42 @@ def get_true_false_probs(request: LogitRequest):
 
     print(f"Truncated user prompt: {user_prompt}")
 
-    messages = [
-        {
-            "role": "system",
-            "content": """You are a strict TREC assessor that outputs machine-readable judgments. Return only a JSON object in the format: { "relevance": true } or { "relevance": false } Do not include any other text, explanation, or reasoning.""",
-        },
+    return [
+        {"role": "system", "content": SYSTEM_PROMPT},
         {"role": "user", "content": user_prompt},
     ]
-    sampling_params = SamplingParams(
+
+
+def sampling_params():
+    guided_decoding_params = StructuredOutputsParams(json=json_schema)
+    return SamplingParams(
         temperature=0.0,
         max_tokens=20,
         logprobs=1000,
         guided_decoding=guided_decoding_params,
     )
 
-    response = llm.chat([messages], sampling_params)
-    logprobs = response[0].outputs[0].logprobss
 
+@app.get("/health")
+def health():
+    return {"status": "ok"}
+
+
+@app.post("/prob")
+def get_true_false_probs(request: LogitRequest):
+    response = llm.chat([build_messages(request.prompt)], sampling_params())
+    return true_false_probs(response[0].outputs[0].logprobs)
+
+
+@app.post("/prob_batch")
+def get_true_false_probs_batch(request: BatchLogitRequest):
+    # One chat call for the whole batch lets vLLM schedule the prompts together
+    conversations = [build_messages(prompt) for prompt in request.prompts]
+    responses = llm.chat(conversations, sampling_params())
+    return {"results": [true_false_probs(r.outputs[0].logprobs) for r in responses]}
+
+
+def true_false_probs(logprobs):
     target_pos = None
     for pos in range(len(logprobs)):
         for token_id, entry in logprobs[pos].items():
@@ -129,4 +154,14 @@ def get_true_false_probs(request: LogitRequest):
     return {
         "p_true": p_true,
         "p_false": p_false,
-    }
\ No newline at end of file
+    }
+
+
+if __name__ == "__main__":
+    import uvicorn
+
+    parser = argparse.ArgumentParser()
+    # One replica per GPU: start several with different ports and list them in --vllm_endpoints
+    parser.add_argument("--port", type=int, default=8080)
+    args = parser.parse_args()
+    uvicorn.run(app, host="0.0.0.0", port=args.port)
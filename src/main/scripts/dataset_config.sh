@@ -41,6 +41,7 @@ NC='\033[0m' # No Color
 DEPTHS=(100 5 10 25 50 75)
 E_VALUES=(5 10 15 20 25 30)
 RF_STRATEGY_VALUES=("PRF" "MONOT5" "MONOT5-PROB" "VLLM" "VLLM-PROB" "ORACLE" "ORACLE-K")
+# Also available: "CASCADE" "CASCADE-PROB" (MonoT5, escalating uncertain documents to VLLM; see --cascade_band)
 LAMBDA_VALUES=(0.1 0.2 0.3 0.4 0.5 0.6 0.7 0.8 0.9)
 
 # Model parameters
@@ -75,7 +75,7 @@ if [ "$SKIP_RERANK" = true ]; then
     TOTAL_RERANK=0
     TOTAL_EXPERIMENTS=$((TOTAL_BASELINE + TOTAL_PRF))
 else
-    TOTAL_RERANK=${#DEPTHS[@]}
+    TOTAL_RERANK=1  # Every depth from one judgment pass
     TOTAL_EXPERIMENTS=$((TOTAL_BASELINE + TOTAL_PRF + TOTAL_RERANK))
 fi
 
@@ -90,7 +90,7 @@ echo "  - PRF Grid Searches: $TOTAL_PRF (covering $TOTAL_PRF_CONFIGS configurati
 if [ "$SKIP_RERANK" = true ]; then
     echo -e "  - MonoT5 Reranker: ${YELLOW}SKIPPED${NC}"
 else
-    echo "  - MonoT5 Reranker: $TOTAL_RERANK"
+    echo "  - MonoT5 Reranker: $TOTAL_RERANK (covering ${#DEPTHS[@]} depths)"
 fi
 echo ""
 
@@ -127,25 +127,26 @@ if [ "$SKIP_RERANK" = false ]; then
     echo -e "${BLUE}=== Part 2: MonoT5 Reranker (no PRF) ===${NC}"
     echo ""
 
-    # Run MonoT5 Reranker experiments (no PRF, just reranking)
-    for depth in "${DEPTHS[@]}"; do
-        COUNTER=$((COUNTER + 1))
-        echo -e "${GREEN}[$COUNTER/$TOTAL_EXPERIMENTS]${NC} Running MonoT5 Reranker with depth=$depth"
-        
-        java -cp "$JAR_PATH" org.irlab.ecir26.searcher.TRECSearcherLucene \
-            --index "$INDEX_PATH" \
-            --topics "$TOPICS_PATH" \
-            --qrels "$QRELS_PATH" \
-            --trec_run_folder "$RUN_FOLDER" \
-            --search_by "$SEARCH_BY" \
-            --rerank_method monot5 \
-            --rerank_depth $depth \
-            --cache_dir "$CACHE_DIR" \
-            --mu $MU
-
-        echo -e "${GREEN}✓${NC} Completed MonoT5 Reranker depth=$depth"
-        echo ""
-    done
+    # Run MonoT5 Reranker experiments (no PRF, just reranking): each topic is judged once to the deepest
+    # depth and the runs of all depths are derived from those judgments
+    RERANK_DEPTHS_STR=$(IFS=,; echo "${DEPTHS[*]}")
+    COUNTER=$((COUNTER + 1))
+    echo -e "${GREEN}[$COUNTER/$TOTAL_EXPERIMENTS]${NC} Running MonoT5 Reranker with depths=$RERANK_DEPTHS_STR"
+
+    java -cp "$JAR_PATH" org.irlab.ecir26.searcher.TRECSearcherLucene \
+        --index "$INDEX_PATH" \
+        --topics "$TOPICS_PATH" \
+        --qrels "$QRELS_PATH" \
+        --trec_run_folder "$RUN_FOLDER" \
+        --search_by "$SEARCH_BY" \
+        --rerank_method monot5 \
+        --grid_search \
+        --depths "$RERANK_DEPTHS_STR" \
+        --cache_dir "$CACHE_DIR" \
+        --mu $MU
+
+    echo -e "${GREEN}✓${NC} Completed MonoT5 Reranker depths=$RERANK_DEPTHS_STR"
+    echo ""
 else
     echo ""
     echo -e "${YELLOW}=== Skipping MonoT5 Reranker experiments ===${NC}"
@@ -221,7 +222,12 @@ echo -e "${BLUE}========================================${NC}"
 echo ""
 echo "Summary:"
 echo "  Total Java invocations: $TOTAL_EXPERIMENTS"
-echo "  Total configurations: $((TOTAL_BASELINE + TOTAL_RERANK + TOTAL_PRF_CONFIGS))"
+if [ "$SKIP_RERANK" = true ]; then
+    RERANK_CONFIGS=0
+else
+    RERANK_CONFIGS=${#DEPTHS[@]}
+fi
+echo "  Total configurations: $((TOTAL_BASELINE + RERANK_CONFIGS + TOTAL_PRF_CONFIGS))"
 if [ "$SKIP_RERANK" = true ]; then
     echo "  (MonoT5 Reranker experiments were skipped)"
 fi